@@ -1,29 +1,120 @@
 package com.example.ms_pedidos;
 
+import com.example.ms_pedidos.config.CachingReactiveJwtDecoder;
+import com.example.ms_pedidos.config.JwkSetCache;
+import com.example.ms_pedidos.config.SeguridadProperties;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.JWKSecurityContextJWKSet;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.config.Customizer;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.oauth2.core.DelegatingOAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
+import org.springframework.security.oauth2.jwt.JwtClaimValidator;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Configuration
 @EnableWebFluxSecurity
+@EnableConfigurationProperties(SeguridadProperties.class)
 public class SecurityConfig {
 
     @Bean
-    public SecurityWebFilterChain springSecurityFilterChain(ServerHttpSecurity http) {
+    public SecurityWebFilterChain springSecurityFilterChain(ServerHttpSecurity http, ReactiveJwtDecoder jwtDecoder) {
         http
                 .authorizeExchange(exchanges -> exchanges
                         // Protege TODOS los endpoints
                         .anyExchange().authenticated()
                 )
-                // Configura el servicio para que sea un Resource Server y valide JWTs
-                .oauth2ResourceServer(oauth2 -> oauth2.jwt(Customizer.withDefaults()));
+                // Configura el servicio para que sea un Resource Server y valide JWTs (localmente, ver jwtDecoder)
+                .oauth2ResourceServer(oauth2 -> oauth2.jwt(jwt -> jwt.jwtDecoder(jwtDecoder)));
 
         // Deshabilitar CSRF porque es una API stateless (basada en tokens)
         http.csrf(ServerHttpSecurity.CsrfSpec::disable);
 
         return http.build();
     }
-}
\ No newline at end of file
+
+    /**
+     * Decoder de JWT con el JWK set en memoria (JwkSetCache: refresh-ahead y rotación)
+     * y, delante, la caché de tokens ya verificados (CachingReactiveJwtDecoder).
+     * El JWK set se toma de jwk-set-uri o, si no está, del discovery del issuer-uri;
+     * nada se descarga al arrancar, recién con el primer token.
+     * Respeta jws-algorithms y audiences de spring.security.oauth2.resourceserver.jwt
+     * (como el decoder que arma Spring Boot cuando no hay uno propio).
+     */
+    @Bean
+    public ReactiveJwtDecoder jwtDecoder(OAuth2ResourceServerProperties resourceServer,
+                                         SeguridadProperties seguridad,
+                                         MeterRegistry meterRegistry) {
+        OAuth2ResourceServerProperties.Jwt jwt = resourceServer.getJwt();
+        WebClient webClient = WebClient.create();
+        Mono<String> jwkSetUri = jwt.getJwkSetUri() != null
+                ? Mono.just(jwt.getJwkSetUri())
+                : descubrirJwkSetUri(webClient, jwt.getIssuerUri());
+
+        JwkSetCache jwkSetCache = new JwkSetCache(webClient, jwkSetUri, seguridad, Clock.systemUTC());
+        Set<JWSAlgorithm> algoritmos = algoritmos(jwt);
+        NimbusReactiveJwtDecoder decoder = NimbusReactiveJwtDecoder.withJwkSource(jwkSetCache::buscar)
+                // Sólo se aceptan firmas con los algoritmos configurados (por defecto RS256)
+                .jwtProcessorCustomizer(procesador -> procesador.setJWSKeySelector(
+                        new JWSVerificationKeySelector<>(algoritmos, new JWKSecurityContextJWKSet())))
+                .build();
+        decoder.setJwtValidator(validador(jwt));
+        if (!seguridad.isCacheHabilitado()) {
+            return decoder;
+        }
+        return new CachingReactiveJwtDecoder(decoder, seguridad, meterRegistry, Clock.systemUTC());
+    }
+
+    static Set<JWSAlgorithm> algoritmos(OAuth2ResourceServerProperties.Jwt jwt) {
+        return jwt.getJwsAlgorithms().stream()
+                .map(JWSAlgorithm::parse)
+                .collect(Collectors.toSet());
+    }
+
+    // Vigencia (exp/nbf), issuer si está configurado y, si hay audiences, que el aud incluya alguna
+    static OAuth2TokenValidator<Jwt> validador(OAuth2ResourceServerProperties.Jwt jwt) {
+        List<OAuth2TokenValidator<Jwt>> validadores = new ArrayList<>();
+        validadores.add(jwt.getIssuerUri() != null
+                ? JwtValidators.createDefaultWithIssuer(jwt.getIssuerUri())
+                : JwtValidators.createDefault());
+        List<String> audiences = jwt.getAudiences();
+        if (!audiences.isEmpty()) {
+            validadores.add(new JwtClaimValidator<List<String>>(JwtClaimNames.AUD,
+                    aud -> aud != null && !Collections.disjoint(aud, audiences)));
+        }
+        return new DelegatingOAuth2TokenValidator<>(validadores);
+    }
+
+    private static Mono<String> descubrirJwkSetUri(WebClient webClient, String issuerUri) {
+        if (issuerUri == null) {
+            return Mono.error(new IllegalStateException("Falta jwk-set-uri o issuer-uri del resource server"));
+        }
+        return webClient.get()
+                .uri(issuerUri.replaceAll("/$", "") + "/.well-known/openid-configuration")
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() { })
+                .map(configuracion -> (String) configuracion.get("jwks_uri"));
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.ms_pedidos.client;
+
+import com.example.ms_pedidos.config.ProductosProperties;
+import com.example.ms_pedidos.dto.ProductoDTO;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.dto.ReservaStockResultadoDTO;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decorador de ProductoClient con caché local (Caffeine) de los productos.
+ *  - TTL y tamaño máximo configurables (ms-productos.cache.*)
+ *  - Varias búsquedas simultáneas del mismo id comparten una sola llamada en vuelo
+ *  - Cuando actualizarStock (o una línea de reservarStock) funciona, descuenta el stock cacheado
+ * Las métricas (cache.gets, cache.evictions, cache.size) salen por el actuator.
+ */
+public class CachingProductoClient implements ProductoClient {
+
+    private final ProductoClient delegate;
+
+    private final AsyncCache<Long, ProductoDTO> cache;
+
+    public CachingProductoClient(ProductoClient delegate, ProductosProperties.Cache config, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(config.getTtl())
+                .maximumSize(config.getMaxEntradas())
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "productos");
+    }
+
+    @Override
+    public Mono<ProductoDTO> obtenerProducto(Long id) {
+        // El contexto (token) de quien provoca el fallo de caché viaja en la llamada real.
+        // suppressCancel: si un suscriptor cancela, no se cancela la llamada compartida
+        return Mono.deferContextual(contexto -> Mono.fromFuture(
+                cache.get(id, (clave, executor) -> delegate.obtenerProducto(clave)
+                        .contextWrite(contexto)
+                        .toFuture()),
+                true));
+    }
+
+    @Override
+    public Mono<Map<Long, ProductoDTO>> obtenerProductos(Collection<Long> ids) {
+        // Sólo los ids que no están en caché (ni en vuelo) se piden a ms-productos
+        return Mono.deferContextual(contexto -> Mono.fromFuture(
+                cache.getAll(ids, (faltantes, executor) -> delegate.obtenerProductos(new ArrayList<>(faltantes))
+                        .contextWrite(contexto)
+                        .toFuture()),
+                true));
+    }
+
+    @Override
+    public Mono<Void> actualizarStock(Long id, Integer cantidad) {
+        return delegate.actualizarStock(id, cantidad)
+                .doOnSuccess(ignorado -> descontarStock(id, cantidad));
+    }
+
+    @Override
+    public Mono<List<ReservaStockResultadoDTO>> reservarStock(Long pedidoId, List<ReservaStockItemDTO> items) {
+        return delegate.reservarStock(pedidoId, items)
+                .doOnNext(resultados -> resultados.stream()
+                        .filter(resultado -> Boolean.TRUE.equals(resultado.getReservado()))
+                        .forEach(resultado -> descontarStock(resultado.getProductoId(), resultado.getCantidad())));
+    }
+
+    @Override
+    public Mono<Void> liberarStock(Long pedidoId, List<ReservaStockItemDTO> items) {
+        // Lo liberado vuelve al stock cacheado
+        return delegate.liberarStock(pedidoId, items)
+                .doOnSuccess(ignorado -> items.forEach(item -> descontarStock(item.getProductoId(), -item.getCantidad())));
+    }
+
+    private void descontarStock(Long id, Integer cantidad) {
+        cache.asMap().computeIfPresent(id, (clave, futuro) -> {
+            ProductoDTO producto = futuro.isDone() && !futuro.isCompletedExceptionally() ? futuro.join() : null;
+            if (producto == null || producto.getStock() == null) {
+                // Todavía en vuelo o sin stock conocido: se invalida
+                return null;
+            }
+            return CompletableFuture.completedFuture(conStock(producto, Math.max(0, producto.getStock() - cantidad)));
+        });
+    }
+
+    // Copia: el DTO cacheado lo pueden estar leyendo otros pedidos
+    private static ProductoDTO conStock(ProductoDTO producto, int stock) {
+        ProductoDTO copia = new ProductoDTO();
+        copia.setId(producto.getId());
+        copia.setNombre(producto.getNombre());
+        copia.setPrecio(producto.getPrecio());
+        copia.setStock(stock);
+        copia.setActivo(producto.getActivo());
+        return copia;
+    }
+}
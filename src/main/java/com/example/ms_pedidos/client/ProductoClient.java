@@ -1,12 +1,27 @@
 package com.example.ms_pedidos.client;
 
 import com.example.ms_pedidos.dto.ProductoDTO;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.dto.ReservaStockResultadoDTO;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 // Versión reactiva de la Tarea 3.4
 public interface ProductoClient {
 
     Mono<ProductoDTO> obtenerProducto(Long id);
 
+    // Busca varios productos de una vez; los ids no encontrados no aparecen en el mapa
+    Mono<Map<Long, ProductoDTO>> obtenerProductos(Collection<Long> ids);
+
     Mono<Void> actualizarStock(Long id, Integer cantidad);
-}
\ No newline at end of file
+
+    // Reserva el stock de todas las líneas de un pedido en una sola llamada; devuelve el resultado por línea
+    Mono<List<ReservaStockResultadoDTO>> reservarStock(Long pedidoId, List<ReservaStockItemDTO> items);
+
+    // Devuelve el stock de una reserva a medias del pedido; items: las líneas que sí se reservaron
+    Mono<Void> liberarStock(Long pedidoId, List<ReservaStockItemDTO> items);
+}
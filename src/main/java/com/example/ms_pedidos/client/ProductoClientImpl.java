@@ -1,25 +1,58 @@
 package com.example.ms_pedidos.client;
 
+import com.example.ms_pedidos.config.ProductosProperties;
 import com.example.ms_pedidos.dto.ProductoDTO;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Component;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.dto.ReservaStockRequestDTO;
+import com.example.ms_pedidos.dto.ReservaStockResultadoDTO;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import static org.springframework.security.oauth2.client.web.reactive.function.client.ServerOAuth2AuthorizedClientExchangeFilterFunction.clientRegistrationId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-@Component //  Spring  gestiona esta clase
+// Cliente HTTP de ms-productos; el bean se arma en ProductoClientConfig (con su caché delante).
+// El token lo ponen los filtros del WebClient.Builder (WebClientConfig), no cada llamada
 public class ProductoClientImpl implements ProductoClient {
 
+    // Respuestas con las que ms-productos indica que no tiene el endpoint por lotes
+    private static final Set<Integer> LOTE_NO_SOPORTADO = Set.of(404, 405, 501);
+
+    // Respuestas de PUT /stock que son un rechazo de la línea (sin stock, producto inexistente), no una falla
+    private static final Set<Integer> STOCK_RECHAZADO = Set.of(400, 404, 409, 422);
+
     private final WebClient webClient;
 
-    // Inyectamos el WebClient.Builder de MsPedidosApplication
-    @Autowired
-    public ProductoClientImpl(WebClient.Builder webClientBuilder) {
-        //  Apunta al nombre de Eureka (lb = Load Balanced)
+    private final int maxIdsPorLlamada;
+
+    // Llamadas simultáneas que abre un mismo lote (tramos o fallback por id)
+    private final int concurrenciaPorPedido;
+
+    private final ProductoLoteCoalescer coalescer;
+
+    // Se apaga la primera vez que ms-productos responde que no soporta lotes
+    private final AtomicBoolean loteSoportado = new AtomicBoolean(true);
+
+    // Igual, para el endpoint de reservas de stock
+    private final AtomicBoolean reservaSoportada = new AtomicBoolean(true);
+
+    // Recibe un clone del WebClient.Builder de WebClientConfig, ya con el conector de ms-productos (ver ProductoClientConfig)
+    public ProductoClientImpl(WebClient.Builder webClientBuilder, ProductosProperties properties) {
+        //  Apunta al nombre de Eureka (lb = Load Balanced) salvo que se configure otra URL
         this.webClient = webClientBuilder
-                .baseUrl("lb://ms-productos")
+                .baseUrl(properties.getUrl())
                 .build();
+        this.maxIdsPorLlamada = properties.getLote().getMaxIds();
+        this.concurrenciaPorPedido = properties.getValidacion().getConcurrenciaPorPedido();
+        this.coalescer = new ProductoLoteCoalescer(this::buscarLote, properties.getLote(),
+                properties.getValidacion().getConcurrenciaGlobal());
     }
 
     @Override
@@ -27,11 +60,59 @@ public class ProductoClientImpl implements ProductoClient {
         // Llama a GET http://localhost:8081/api/productos/{id}
         return this.webClient.get()
                 .uri("/api/productos/{id}", id)
-                .attributes(clientRegistrationId("gateway-client-registration"))
                 .retrieve()
                 .bodyToMono(ProductoDTO.class);
     }
 
+    @Override
+    public Mono<Map<Long, ProductoDTO>> obtenerProductos(Collection<Long> ids) {
+        // Un mismo producto repetido en varias líneas se pide una sola vez
+        Set<Long> unicos = new LinkedHashSet<>(ids);
+        if (unicos.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return coalescer.obtener(unicos);
+    }
+
+    /**
+     * Busca un conjunto de ids (ya deduplicados) en ms-productos.
+     * Usa GET /api/productos/lote?ids=1&ids=2... en tramos de maxIdsPorLlamada;
+     * si ms-productos no tiene ese endpoint, cae a una llamada por id.
+     */
+    Mono<Map<Long, ProductoDTO>> buscarLote(Set<Long> ids) {
+        if (!loteSoportado.get()) {
+            return buscarUnoPorUno(ids);
+        }
+        return Flux.fromIterable(ids)
+                .buffer(maxIdsPorLlamada)
+                .flatMap(tramo -> this.webClient.get()
+                        .uri(uriBuilder -> uriBuilder
+                                .path("/api/productos/lote")
+                                .queryParam("ids", tramo)
+                                .build())
+                        .retrieve()
+                        .bodyToFlux(ProductoDTO.class), concurrenciaPorPedido)
+                .collectMap(ProductoDTO::getId)
+                .onErrorResume(this::loteNoSoportado, error -> {
+                    loteSoportado.set(false);
+                    return buscarUnoPorUno(ids);
+                });
+    }
+
+    private Mono<Map<Long, ProductoDTO>> buscarUnoPorUno(Set<Long> ids) {
+        return Flux.fromIterable(ids)
+                .flatMap(id -> obtenerProducto(id)
+                        // Un 404 significa que ese producto no existe, no que falle todo el lote
+                        .onErrorResume(WebClientResponseException.NotFound.class, error -> Mono.empty()),
+                        concurrenciaPorPedido) // Cualquier otro error cancela las llamadas hermanas
+                .collectMap(ProductoDTO::getId);
+    }
+
+    private boolean loteNoSoportado(Throwable error) {
+        return error instanceof WebClientResponseException respuesta
+                && LOTE_NO_SOPORTADO.contains(respuesta.getStatusCode().value());
+    }
+
     @Override
     public Mono<Void> actualizarStock(Long id, Integer cantidad) {
         // Llama a PUT http://localhost:8081/api/productos/{id}/stock?cantidad={cantidad}
@@ -40,8 +121,89 @@ public class ProductoClientImpl implements ProductoClient {
                         .path("/api/productos/{id}/stock")
                         .queryParam("cantidad", cantidad)
                         .build(id))
-                .attributes(clientRegistrationId("gateway-client-registration"))
                 .retrieve()
                 .bodyToMono(Void.class);
     }
-}
\ No newline at end of file
+
+    /**
+     * Llama a POST /api/productos/stock/reservas con todas las líneas del pedido.
+     * La cabecera Idempotency-Key (pedido-{id}) permite a ms-productos ignorar reintentos.
+     * Si ms-productos no tiene ese endpoint, cae a un PUT por línea y arma el mismo resultado.
+     */
+    @Override
+    public Mono<List<ReservaStockResultadoDTO>> reservarStock(Long pedidoId, List<ReservaStockItemDTO> items) {
+        if (!reservaSoportada.get()) {
+            return reservarLineaPorLinea(items);
+        }
+        return this.webClient.post()
+                .uri("/api/productos/stock/reservas")
+                .header("Idempotency-Key", "pedido-" + pedidoId)
+                .bodyValue(new ReservaStockRequestDTO(pedidoId, items))
+                .retrieve()
+                .bodyToFlux(ReservaStockResultadoDTO.class)
+                .collectList()
+                .onErrorResume(this::loteNoSoportado, error -> {
+                    reservaSoportada.set(false);
+                    return reservarLineaPorLinea(items);
+                });
+    }
+
+    /**
+     * En orden: si ms-productos rechaza una línea (STOCK_RECHAZADO) se reporta y se sigue con las demás.
+     * Cualquier otro error (red, 5xx, 401) no es un "sin stock": se devuelve lo que ya se había
+     * reservado y el error sale, para que quien llama reintente todo el pedido.
+     */
+    private Mono<List<ReservaStockResultadoDTO>> reservarLineaPorLinea(List<ReservaStockItemDTO> items) {
+        return Mono.defer(() -> {
+            List<ReservaStockItemDTO> reservadas = new ArrayList<>();
+            return Flux.fromIterable(items)
+                    .concatMap(item -> actualizarStock(item.getProductoId(), item.getCantidad())
+                            .then(Mono.fromSupplier(() -> {
+                                reservadas.add(item);
+                                return new ReservaStockResultadoDTO(item.getProductoId(), item.getCantidad(), true, null);
+                            }))
+                            .onErrorResume(this::stockRechazado, error -> Mono.just(
+                                    new ReservaStockResultadoDTO(item.getProductoId(), item.getCantidad(), false, error.getMessage()))))
+                    .collectList()
+                    .onErrorResume(error -> liberarLineaPorLinea(reservadas)
+                            // Si tampoco se pudo liberar, el error original sale igual (con la falla adjunta)
+                            .onErrorResume(falla -> {
+                                error.addSuppressed(falla);
+                                return Mono.empty();
+                            })
+                            .then(Mono.error(error)));
+        });
+    }
+
+    /**
+     * Con el endpoint de reservas: DELETE /api/productos/stock/reservas/pedido-{id}, la misma clave
+     * con la que se reservó (un 404 es que no quedó nada reservado). Sin ese endpoint, un PUT por línea
+     * con la cantidad en negativo (ver liberarLineaPorLinea).
+     */
+    @Override
+    public Mono<Void> liberarStock(Long pedidoId, List<ReservaStockItemDTO> items) {
+        if (!reservaSoportada.get()) {
+            return liberarLineaPorLinea(items);
+        }
+        return this.webClient.delete()
+                .uri("/api/productos/stock/reservas/{clave}", "pedido-" + pedidoId)
+                .retrieve()
+                .bodyToMono(Void.class)
+                .onErrorResume(error -> error instanceof WebClientResponseException.NotFound, error -> Mono.empty());
+    }
+
+    /**
+     * Contrato de PUT /api/productos/{id}/stock?cantidad=N (el único que hay sin endpoint de reservas):
+     * descuenta N del stock, y con N negativo lo suma. Así se devuelve lo reservado línea por línea.
+     */
+    private Mono<Void> liberarLineaPorLinea(List<ReservaStockItemDTO> items) {
+        return Flux.fromIterable(items)
+                .concatMap(item -> actualizarStock(item.getProductoId(), -item.getCantidad()))
+                .then();
+    }
+
+    private boolean stockRechazado(Throwable error) {
+        return error instanceof WebClientResponseException respuesta
+                && STOCK_RECHAZADO.contains(respuesta.getStatusCode().value());
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.ms_pedidos.client;
+
+import com.example.ms_pedidos.config.ProductosProperties;
+import com.example.ms_pedidos.dto.ProductoDTO;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.dto.ReservaStockResultadoDTO;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ms-productos falso (perfil "productos-simulado") para probar el servicio solo, p. ej. el
+ * modo async con pedidos grandes. Cualquier id existe, con el mismo precio y stock, y cada
+ * llamada tarda ms-productos.simulado.latencia. El stock no se descuenta.
+ */
+public class ProductoClientSimulado implements ProductoClient {
+
+    private final Duration latencia;
+    private final int stock;
+    private final BigDecimal precio;
+
+    public ProductoClientSimulado(ProductosProperties.Simulado config) {
+        this.latencia = config.getLatencia();
+        this.stock = config.getStock();
+        this.precio = config.getPrecio();
+    }
+
+    @Override
+    public Mono<ProductoDTO> obtenerProducto(Long id) {
+        return Mono.fromSupplier(() -> producto(id)).delaySubscription(latencia);
+    }
+
+    @Override
+    public Mono<Map<Long, ProductoDTO>> obtenerProductos(Collection<Long> ids) {
+        return Mono.fromSupplier(() -> {
+            Map<Long, ProductoDTO> productos = new LinkedHashMap<>();
+            ids.forEach(id -> productos.put(id, producto(id)));
+            return productos;
+        }).delaySubscription(latencia);
+    }
+
+    @Override
+    public Mono<Void> actualizarStock(Long id, Integer cantidad) {
+        return Mono.<Void>empty().delaySubscription(latencia);
+    }
+
+    @Override
+    public Mono<Void> liberarStock(Long pedidoId, List<ReservaStockItemDTO> items) {
+        return Mono.<Void>empty().delaySubscription(latencia);
+    }
+
+    @Override
+    public Mono<List<ReservaStockResultadoDTO>> reservarStock(Long pedidoId, List<ReservaStockItemDTO> items) {
+        return Mono.fromSupplier(() -> items.stream()
+                        .map(item -> new ReservaStockResultadoDTO(item.getProductoId(), item.getCantidad(),
+                                item.getCantidad() <= stock, item.getCantidad() <= stock ? null : "Stock insuficiente"))
+                        .toList())
+                .delaySubscription(latencia);
+    }
+
+    private ProductoDTO producto(Long id) {
+        ProductoDTO producto = new ProductoDTO();
+        producto.setId(id);
+        producto.setNombre("Producto " + id);
+        producto.setPrecio(precio);
+        producto.setStock(stock);
+        producto.setActivo(true);
+        return producto;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.ms_pedidos.client;
+
+import com.example.ms_pedidos.config.ProductosProperties;
+import com.example.ms_pedidos.config.TokenContextWebFilter;
+import com.example.ms_pedidos.dto.ProductoDTO;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Micro-batching de búsquedas de productos: junta en una sola llamada a ms-productos
+ * las búsquedas que llegan dentro de una ventana corta, aunque vengan de pedidos distintos.
+ * Cada solicitante recibe sólo los productos que pidió.
+ * Sólo se juntan solicitudes que saldrían con el mismo Authorization (el que resuelve
+ * propagateTokenFilter): nunca se llama a ms-productos con el token de otro usuario. Las que
+ * no tienen usuario van juntas, todas salen con el token del servicio.
+ */
+class ProductoLoteCoalescer {
+
+    // authorization: la cabecera que llevaría la llamada del solicitante (null sin usuario)
+    private record Solicitud(Set<Long> ids, Sinks.One<Map<Long, ProductoDTO>> resultado, ContextView contexto,
+                             String authorization) {
+    }
+
+    private final Sinks.Many<Solicitud> solicitudes = Sinks.many().unicast().onBackpressureBuffer();
+
+    private final Function<Set<Long>, Mono<Map<Long, ProductoDTO>>> buscarLote;
+
+    ProductoLoteCoalescer(Function<Set<Long>, Mono<Map<Long, ProductoDTO>>> buscarLote,
+                          ProductosProperties.Lote config,
+                          int concurrenciaGlobal) {
+        this.buscarLote = buscarLote;
+        // Se cierra un lote al llegar a maxSolicitudes o al vencer la ventana.
+        // Como mucho concurrenciaGlobal lotes en vuelo; el resto espera en la cola
+        this.solicitudes.asFlux()
+                .bufferTimeout(config.getMaxSolicitudes(), config.getVentana(), true)
+                .flatMap(this::despachar, concurrenciaGlobal)
+                .subscribe();
+    }
+
+    Mono<Map<Long, ProductoDTO>> obtener(Set<Long> ids) {
+        return TokenContextWebFilter.cabeceraSaliente()
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(authorization -> Mono.deferContextual(contexto -> {
+                    Sinks.One<Map<Long, ProductoDTO>> resultado = Sinks.one();
+                    // Varios pedidos pueden emitir a la vez: se reintenta hasta serializar
+                    solicitudes.emitNext(new Solicitud(ids, resultado, contexto, authorization.orElse(null)),
+                            Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+                    return resultado.asMono();
+                }));
+    }
+
+    // Una llamada por cada Authorization saliente distinto dentro del lote (LinkedHashMap: admite la clave null)
+    private Mono<Void> despachar(List<Solicitud> lote) {
+        Map<String, List<Solicitud>> porToken = new LinkedHashMap<>();
+        lote.forEach(solicitud -> porToken.computeIfAbsent(solicitud.authorization(), token -> new ArrayList<>()).add(solicitud));
+        return Flux.fromIterable(porToken.values())
+                .flatMap(this::buscar)
+                .then();
+    }
+
+    private Mono<Void> buscar(List<Solicitud> lote) {
+        Set<Long> ids = new LinkedHashSet<>();
+        lote.forEach(solicitud -> ids.addAll(solicitud.ids()));
+
+        return buscarLote.apply(ids)
+                .defaultIfEmpty(Map.of())
+                // Todos comparten el token: la llamada viaja con el contexto del primero
+                .contextWrite(lote.get(0).contexto())
+                .doOnNext(productos -> lote.forEach(solicitud ->
+                        solicitud.resultado().tryEmitValue(lote.size() == 1 ? productos : filtrar(productos, solicitud.ids()))))
+                .doOnError(error -> lote.forEach(solicitud -> solicitud.resultado().tryEmitError(error)))
+                // El error ya se entregó a cada solicitante: la cola sigue funcionando
+                .onErrorResume(error -> Mono.empty())
+                .then();
+    }
+
+    private static Map<Long, ProductoDTO> filtrar(Map<Long, ProductoDTO> productos, Set<Long> ids) {
+        Map<Long, ProductoDTO> propios = new HashMap<>();
+        for (Long id : ids) {
+            ProductoDTO producto = productos.get(id);
+            if (producto != null) {
+                propios.put(id, producto);
+            }
+        }
+        return propios;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.ms_pedidos.client;
+
+import com.example.ms_pedidos.config.ProductosProperties;
+import com.example.ms_pedidos.dto.ProductoDTO;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.dto.ReservaStockResultadoDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Decorador de ProductoClient que aplica a TODAS las llamadas a ms-productos:
+ *  - el circuit breaker "productos-cb" (con su time limiter, configurados en el .yml)
+ *  - un bulkhead por semáforo (ms-productos.resiliencia.max-concurrentes)
+ * Si la llamada se rechaza (circuito abierto o bulkhead lleno), las búsquedas de productos
+ * se responden con los últimos datos conocidos. Reservas y actualizaciones de stock nunca
+ * se simulan: el rechazo llega al servicio y el pedido no se crea.
+ */
+public class ResilientProductoClient implements ProductoClient {
+
+    static final String CIRCUIT_BREAKER = "productos-cb";
+
+    private final ProductoClient delegate;
+
+    // Un solo circuit breaker y un solo bulkhead para todo el cliente (no uno por línea de pedido)
+    private final ReactiveCircuitBreaker circuitBreaker;
+
+    private final Bulkhead bulkhead;
+
+    // Último valor que respondió ms-productos por cada producto (fallback con el circuito abierto)
+    private final Cache<Long, ProductoDTO> ultimosConocidos;
+
+    private final MeterRegistry meterRegistry;
+
+    public ResilientProductoClient(ProductoClient delegate,
+                                   ReactiveCircuitBreakerFactory<?, ?> cbFactory,
+                                   ProductosProperties.Resiliencia config,
+                                   MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.circuitBreaker = cbFactory.create(CIRCUIT_BREAKER);
+        this.bulkhead = Bulkhead.of("productos", BulkheadConfig.custom()
+                .maxConcurrentCalls(config.getMaxConcurrentes())
+                .maxWaitDuration(config.getEsperaMaxima())
+                .build());
+        this.ultimosConocidos = Caffeine.newBuilder()
+                .expireAfterWrite(config.getUltimoConocidoTtl())
+                .maximumSize(config.getUltimoConocidoMaxEntradas())
+                .build();
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Mono<ProductoDTO> obtenerProducto(Long id) {
+        return proteger("obtenerProducto", () -> delegate.obtenerProducto(id))
+                .doOnNext(producto -> ultimosConocidos.put(id, producto))
+                .onErrorResume(this::esRechazo, error -> {
+                    ProductoDTO conocido = ultimosConocidos.getIfPresent(id);
+                    return conocido != null ? Mono.just(conocido) : Mono.error(error);
+                });
+    }
+
+    @Override
+    public Mono<Map<Long, ProductoDTO>> obtenerProductos(Collection<Long> ids) {
+        return proteger("obtenerProductos", () -> delegate.obtenerProductos(ids))
+                .doOnNext(ultimosConocidos::putAll)
+                .onErrorResume(this::esRechazo, error -> {
+                    // Sólo si conocemos todos los productos; si falta alguno no se inventa "no encontrado"
+                    Map<Long, ProductoDTO> conocidos = new LinkedHashMap<>(ultimosConocidos.getAllPresent(ids));
+                    return conocidos.keySet().containsAll(ids) ? Mono.just(conocidos) : Mono.error(error);
+                });
+    }
+
+    @Override
+    public Mono<Void> actualizarStock(Long id, Integer cantidad) {
+        return proteger("actualizarStock", () -> delegate.actualizarStock(id, cantidad));
+    }
+
+    @Override
+    public Mono<List<ReservaStockResultadoDTO>> reservarStock(Long pedidoId, List<ReservaStockItemDTO> items) {
+        return proteger("reservarStock", () -> delegate.reservarStock(pedidoId, items));
+    }
+
+    @Override
+    public Mono<Void> liberarStock(Long pedidoId, List<ReservaStockItemDTO> items) {
+        return proteger("liberarStock", () -> delegate.liberarStock(pedidoId, items));
+    }
+
+    /**
+     * Bulkhead por fuera del circuit breaker: las llamadas rechazadas por falta de lugar
+     * no cuentan como fallas de ms-productos ni abren el circuito.
+     * Los rechazos quedan en productos.cliente.rechazadas (tags: operacion, motivo).
+     */
+    private <T> Mono<T> proteger(String operacion, Supplier<Mono<T>> llamada) {
+        // defer: con el circuito abierto ni siquiera se arma la petición a ms-productos.
+        // Fallback Mono::error: el error original llega tal cual (sin NoFallbackAvailableException)
+        return circuitBreaker.run(Mono.defer(llamada), Mono::error)
+                .transformDeferred(BulkheadOperator.of(bulkhead))
+                .doOnError(this::esRechazo, error -> meterRegistry.counter("productos.cliente.rechazadas",
+                        "operacion", operacion,
+                        "motivo", error instanceof BulkheadFullException ? "bulkhead" : "circuito_abierto")
+                        .increment());
+    }
+
+    private boolean esRechazo(Throwable error) {
+        return error instanceof CallNotPermittedException || error instanceof BulkheadFullException;
+    }
+}
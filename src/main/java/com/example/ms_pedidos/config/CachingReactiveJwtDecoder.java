@@ -0,0 +1,86 @@
+package com.example.ms_pedidos.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * Decorador de ReactiveJwtDecoder que recuerda los tokens ya verificados.
+ * La clave es el SHA-256 del token (el token en sí no queda en memoria) y cada entrada
+ * vence en el exp del propio JWT: un token vencido nunca sale de la caché.
+ * Sólo se cachean los tokens válidos; los rechazados se vuelven a verificar siempre.
+ */
+public class CachingReactiveJwtDecoder implements ReactiveJwtDecoder {
+
+    private final ReactiveJwtDecoder delegate;
+
+    private final Cache<String, Jwt> verificados;
+
+    public CachingReactiveJwtDecoder(ReactiveJwtDecoder delegate, SeguridadProperties config,
+                                     MeterRegistry meterRegistry, Clock clock) {
+        this.delegate = delegate;
+        this.verificados = Caffeine.newBuilder()
+                .maximumSize(config.getCacheMaxEntradas())
+                .expireAfter(new Expiry<String, Jwt>() {
+                    @Override
+                    public long expireAfterCreate(String clave, Jwt jwt, long ahora) {
+                        return hastaExp(jwt, clock);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String clave, Jwt jwt, long ahora, long restante) {
+                        return hastaExp(jwt, clock);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String clave, Jwt jwt, long ahora, long restante) {
+                        return restante;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verificados, "jwt");
+    }
+
+    @Override
+    public Mono<Jwt> decode(String token) {
+        String clave = hash(token);
+        Jwt conocido = verificados.getIfPresent(clave);
+        if (conocido != null) {
+            return Mono.just(conocido);
+        }
+        return delegate.decode(token)
+                .doOnNext(jwt -> {
+                    // Sin exp no sabemos hasta cuándo es válido: no se cachea
+                    if (jwt.getExpiresAt() != null) {
+                        verificados.put(clave, jwt);
+                    }
+                });
+    }
+
+    private static long hastaExp(Jwt jwt, Clock clock) {
+        return Math.max(0, Duration.between(clock.instant(), jwt.getExpiresAt()).toNanos());
+    }
+
+    static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 está garantizado en toda JVM
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.ms_pedidos.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.client.AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.ClientCredentialsReactiveOAuth2AuthorizedClientProvider;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+
+// Token propio del servicio (client-credentials) hacia ms-productos; encendido por defecto (ver ProductosProperties)
+@Configuration
+@ConditionalOnProperty(prefix = "ms-productos.client-credentials", name = "habilitado", havingValue = "true", matchIfMissing = true)
+public class ClientCredentialsConfig {
+
+    @Bean(initMethod = "iniciar", destroyMethod = "detener")
+    public ClientCredentialsTokenFilter clientCredentialsTokenFilter(ReactiveClientRegistrationRepository clientRegistrations,
+                                                                     ReactiveOAuth2AuthorizedClientService authorizedClientService,
+                                                                     ProductosProperties properties) {
+        ProductosProperties.ClientCredentials config = properties.getClientCredentials();
+
+        // clockSkew: el token se da por vencido "refrescarAntes" de su exp real, y el
+        // refresco en segundo plano (cada refrescoCada < refrescarAntes) lo renueva a tiempo
+        ClientCredentialsReactiveOAuth2AuthorizedClientProvider provider = new ClientCredentialsReactiveOAuth2AuthorizedClientProvider();
+        provider.setClockSkew(config.getRefrescarAntes());
+
+        AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager manager =
+                new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(clientRegistrations, authorizedClientService);
+        manager.setAuthorizedClientProvider(provider);
+        return new ClientCredentialsTokenFilter(manager, config.getRefrescoCada());
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.ms_pedidos.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Token client-credentials del registro "gateway-client-registration" para las llamadas a ms-productos
+ * que salen sin usuario (relay del outbox, reencolado async). Si la llamada ya lleva Authorization
+ * (el JWT del usuario, puesto por propagateTokenFilter) no se toca: dentro de una petición se sigue
+ * llamando con la identidad del usuario.
+ * El manager guarda el token en memoria: las llamadas sólo lo leen. Un refresco en segundo plano
+ * lo renueva antes de que venza (ver ms-productos.client-credentials.*), así el intercambio con
+ * el servidor de autorización no queda en el camino de ninguna petición.
+ * Un solo principal fijo ("ms-pedidos"): un único token para todo el servicio, no uno por usuario.
+ */
+public class ClientCredentialsTokenFilter implements ExchangeFilterFunction {
+
+    private static final Logger log = LoggerFactory.getLogger(ClientCredentialsTokenFilter.class);
+
+    public static final String REGISTRO = "gateway-client-registration";
+
+    private final ReactiveOAuth2AuthorizedClientManager authorizedClientManager;
+
+    private final OAuth2AuthorizeRequest solicitud = OAuth2AuthorizeRequest
+            .withClientRegistrationId(REGISTRO)
+            .principal("ms-pedidos")
+            .build();
+
+    private final Duration refrescoCada;
+
+    private Disposable refresco;
+
+    public ClientCredentialsTokenFilter(ReactiveOAuth2AuthorizedClientManager authorizedClientManager, Duration refrescoCada) {
+        this.authorizedClientManager = authorizedClientManager;
+        this.refrescoCada = refrescoCada;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        if (request.headers().containsKey(HttpHeaders.AUTHORIZATION)) {
+            return next.exchange(request);
+        }
+        return authorizedClientManager.authorize(solicitud)
+                .map(cliente -> ClientRequest.from(request)
+                        .headers(headers -> headers.setBearerAuth(cliente.getAccessToken().getTokenValue()))
+                        .build())
+                .defaultIfEmpty(request)
+                .flatMap(next::exchange);
+    }
+
+    // Pide el token al arrancar y después lo revisa cada refrescoCada (el manager sólo va al
+    // servidor de autorización cuando el token entra en la ventana de clock-skew)
+    public void iniciar() {
+        refresco = Flux.interval(Duration.ZERO, refrescoCada)
+                .concatMap(tick -> authorizedClientManager.authorize(solicitud)
+                        .map(OAuth2AuthorizedClient::getAccessToken)
+                        .doOnNext(token -> log.debug("Token client-credentials vigente hasta {}", token.getExpiresAt()))
+                        .onErrorResume(error -> {
+                            log.warn("No se pudo refrescar el token client-credentials: {}", error.toString());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    public void detener() {
+        if (refresco != null) {
+            refresco.dispose();
+        }
+    }
+}
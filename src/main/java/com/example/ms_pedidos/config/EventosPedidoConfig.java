@@ -0,0 +1,10 @@
+package com.example.ms_pedidos.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+// Propiedades de PublicadorEventosPedido
+@Configuration
+@EnableConfigurationProperties(EventosPedidoProperties.class)
+public class EventosPedidoConfig {
+}
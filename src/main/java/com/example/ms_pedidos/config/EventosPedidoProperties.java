@@ -0,0 +1,19 @@
+package com.example.ms_pedidos.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Feed SSE de eventos de pedidos (prefijo "pedidos.eventos" en el .yml)
+@Data
+@ConfigurationProperties(prefix = "pedidos.eventos")
+public class EventosPedidoProperties {
+
+    // Últimos eventos que se guardan para retomar con Last-Event-ID
+    private int historial = 1000;
+    // Eventos pendientes por suscriptor; si no los consume a tiempo se descartan los más viejos
+    private int bufferPorSuscriptor = 256;
+    // Comentario SSE periódico para que proxies y balanceadores no corten la conexión
+    private Duration keepalive = Duration.ofSeconds(15);
+}
@@ -0,0 +1,35 @@
+package com.example.ms_pedidos.config;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * Arma spring.flyway.url a partir de spring.r2dbc.url (r2dbc:[pool:]postgresql://... -> jdbc:postgresql://...),
+ * así la BD de las migraciones es siempre la misma que usa la app. Corre después de leer la config
+ * (también la del config server). Si spring.flyway.url viene puesta, se respeta.
+ */
+public class FlywayUrlDesdeR2dbc implements EnvironmentPostProcessor {
+
+    static final String FUENTE = "flywayUrlDesdeR2dbc";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        String r2dbc = environment.getProperty("spring.r2dbc.url");
+        if (environment.containsProperty("spring.flyway.url") || r2dbc == null || !r2dbc.startsWith("r2dbc:")) {
+            return;
+        }
+        environment.getPropertySources().addLast(new MapPropertySource(FUENTE, Map.of("spring.flyway.url", jdbcUrl(r2dbc))));
+    }
+
+    static String jdbcUrl(String r2dbc) {
+        String resto = r2dbc.substring("r2dbc:".length());
+        if (resto.startsWith("pool:")) {
+            resto = resto.substring("pool:".length());
+        }
+        return "jdbc:" + resto;
+    }
+}
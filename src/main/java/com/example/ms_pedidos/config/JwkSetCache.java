@@ -0,0 +1,112 @@
+package com.example.ms_pedidos.config;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * JWK set del servidor de autorización guardado en memoria.
+ *  - Refresh-ahead: pasado jwkRefrescoCada se pide de nuevo en segundo plano y mientras tanto
+ *    se sigue verificando con el set actual (ninguna petición espera la descarga)
+ *  - Rotación: un kid desconocido fuerza una descarga, limitada a una cada jwkRefrescoMinimo
+ *    para que tokens con kids inventados no generen tráfico al servidor de autorización
+ *  - Varias descargas simultáneas comparten una sola llamada
+ */
+public class JwkSetCache {
+
+    private static final Logger log = LoggerFactory.getLogger(JwkSetCache.class);
+
+    private record Descarga(JWKSet jwkSet, Instant obtenido) {
+    }
+
+    private final WebClient webClient;
+
+    private final Mono<String> jwkSetUri;
+
+    private final Duration refrescoCada;
+
+    private final Duration refrescoMinimo;
+
+    private final Clock clock;
+
+    private volatile Descarga actual;
+
+    private final AtomicReference<Mono<Descarga>> enVuelo = new AtomicReference<>();
+
+    public JwkSetCache(WebClient webClient, Mono<String> jwkSetUri, SeguridadProperties config, Clock clock) {
+        this.webClient = webClient;
+        // La URI (discovery) se resuelve una sola vez; si falla, se reintenta en la próxima descarga
+        this.jwkSetUri = jwkSetUri.cache(uri -> Duration.ofMillis(Long.MAX_VALUE), error -> Duration.ZERO, () -> Duration.ZERO);
+        this.refrescoCada = config.getJwkRefrescoCada();
+        this.refrescoMinimo = config.getJwkRefrescoMinimo();
+        this.clock = clock;
+    }
+
+    // Fuente de claves para NimbusReactiveJwtDecoder.withJwkSource
+    public Flux<JWK> buscar(SignedJWT jwt) {
+        JWKSelector selector = new JWKSelector(JWKMatcher.forJWSHeader(jwt.getHeader()));
+        return vigente().flatMapMany(descarga -> {
+            List<JWK> claves = selector.select(descarga.jwkSet());
+            if (!claves.isEmpty() || !puedeRefrescar(descarga, refrescoMinimo)) {
+                return Flux.fromIterable(claves);
+            }
+            // kid desconocido: probablemente rotaron las claves
+            return descargar().flatMapIterable(nueva -> selector.select(nueva.jwkSet()));
+        });
+    }
+
+    private Mono<Descarga> vigente() {
+        Descarga descarga = actual;
+        if (descarga == null) {
+            return descargar();
+        }
+        if (puedeRefrescar(descarga, refrescoCada)) {
+            // Se descarga en segundo plano; esta petición usa el set que ya tenemos
+            descargar().subscribe(nueva -> { }, error -> log.warn("No se pudo refrescar el JWK set: {}", error.toString()));
+        }
+        return Mono.just(descarga);
+    }
+
+    private boolean puedeRefrescar(Descarga descarga, Duration edad) {
+        return !descarga.obtenido().plus(edad).isAfter(clock.instant());
+    }
+
+    private Mono<Descarga> descargar() {
+        Mono<Descarga> existente = enVuelo.get();
+        if (existente != null) {
+            return existente;
+        }
+        Mono<Descarga> nueva = jwkSetUri
+                .flatMap(uri -> webClient.get().uri(uri).retrieve().bodyToMono(String.class))
+                .map(cuerpo -> {
+                    try {
+                        return new Descarga(JWKSet.parse(cuerpo), clock.instant());
+                    } catch (ParseException e) {
+                        throw new IllegalStateException("JWK set inválido", e);
+                    }
+                })
+                .doOnNext(descarga -> actual = descarga)
+                .doFinally(senal -> enVuelo.set(null))
+                .cache();
+        if (enVuelo.compareAndSet(null, nueva)) {
+            return nueva;
+        }
+        // Otro hilo ganó la carrera: se usa su descarga (o la nuestra si ya terminó)
+        Mono<Descarga> otra = enVuelo.get();
+        return otra != null ? otra : nueva;
+    }
+}
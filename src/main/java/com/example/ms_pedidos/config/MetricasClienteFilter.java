@@ -0,0 +1,120 @@
+package com.example.ms_pedidos.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Instrumentación de las llamadas salientes del WebClient (reemplaza al viejo System.out).
+ *  - Timer pedidos.http.cliente con tags metodo, uri (plantilla, no la URL real) y estado
+ *    (código HTTP, IO_ERROR, o CANCELLED si se cortó antes de la respuesta: timeout, bulkhead)
+ *  - Log sólo de una muestra de las llamadas (ms-productos.instrumentacion.muestreo-log)
+ *    y de todos los errores, por SLF4J (appender asíncrono, ver logback-spring.xml)
+ *  - La cabecera Authorization nunca se escribe en el log
+ * En el camino normal no se arma ningún String: sólo se mide y se registra el timer.
+ */
+public class MetricasClienteFilter implements ExchangeFilterFunction {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricasClienteFilter.class);
+
+    // Atributo donde WebClient guarda la plantilla cuando se usa .uri("/api/x/{id}", id)
+    static final String ATRIBUTO_PLANTILLA = WebClient.class.getName() + ".uriTemplate";
+
+    // Sin plantilla, los ids numéricos del path se reemplazan para no disparar la cardinalidad
+    private static final Pattern SEGMENTO_NUMERICO = Pattern.compile("/\\d+(?=/|$)");
+
+    static final String REDACTADO = "[REDACTADO]";
+
+    private final MeterRegistry meterRegistry;
+
+    private final double muestreoLog;
+
+    public MetricasClienteFilter(MeterRegistry meterRegistry, ProductosProperties.Instrumentacion config) {
+        this.meterRegistry = meterRegistry;
+        this.muestreoLog = config.getMuestreoLog();
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            long inicio = System.nanoTime();
+            // Una sola muestra por llamada: un cancel que llega después de la respuesta no cuenta
+            AtomicBoolean registrada = new AtomicBoolean();
+            return next.exchange(request)
+                    .doOnNext(response -> {
+                        int estado = response.statusCode().value();
+                        if (registrada.compareAndSet(false, true)) {
+                            registrar(request, Integer.toString(estado), estado >= 500, estado, inicio);
+                        }
+                    })
+                    .doOnError(error -> {
+                        if (registrada.compareAndSet(false, true)) {
+                            registrar(request, "IO_ERROR", true, error, inicio);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (registrada.compareAndSet(false, true)) {
+                            registrar(request, "CANCELLED", false, "cancelada", inicio);
+                        }
+                    });
+        });
+    }
+
+    // resultado: lo que va al log (código, error o "cancelada")
+    private void registrar(ClientRequest request, String estado, boolean falla, Object resultado, long inicio) {
+        long duracion = System.nanoTime() - inicio;
+        String uri = plantilla(request);
+        Timer.builder("pedidos.http.cliente")
+                .tag("metodo", request.method().name())
+                .tag("uri", uri)
+                .tag("estado", estado)
+                .register(meterRegistry)
+                .record(duracion, TimeUnit.NANOSECONDS);
+
+        if (falla) {
+            log.warn("WebClient {} {} -> {} en {} ms, cabeceras: {}", request.method(), request.url(),
+                    resultado, TimeUnit.NANOSECONDS.toMillis(duracion), cabecerasRedactadas(request.headers()));
+        } else if (muestreoLog > 0 && log.isInfoEnabled() && ThreadLocalRandom.current().nextDouble() < muestreoLog) {
+            log.info("WebClient {} {} -> {} en {} ms, cabeceras: {}", request.method(), request.url(),
+                    resultado, TimeUnit.NANOSECONDS.toMillis(duracion), cabecerasRedactadas(request.headers()));
+        }
+    }
+
+    static String plantilla(ClientRequest request) {
+        Object plantilla = request.attribute(ATRIBUTO_PLANTILLA).orElse(null);
+        if (plantilla != null) {
+            return plantilla.toString();
+        }
+        return SEGMENTO_NUMERICO.matcher(request.url().getRawPath()).replaceAll("/{id}");
+    }
+
+    static String cabecerasRedactadas(HttpHeaders headers) {
+        StringBuilder texto = new StringBuilder();
+        headers.forEach((nombre, valores) -> {
+            if (!texto.isEmpty()) {
+                texto.append(", ");
+            }
+            texto.append(nombre).append('=');
+            if (HttpHeaders.AUTHORIZATION.equalsIgnoreCase(nombre)
+                    || HttpHeaders.PROXY_AUTHORIZATION.equalsIgnoreCase(nombre)) {
+                texto.append(REDACTADO);
+            } else {
+                texto.append(String.join(",", valores));
+            }
+        });
+        return texto.toString();
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.ms_pedidos.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// Habilita el @Scheduled de OutboxStockRelay (pedidos.outbox.relay.habilitado=false lo apaga)
+@Configuration
+@EnableScheduling
+@EnableConfigurationProperties(OutboxProperties.class)
+public class OutboxConfig {
+}
@@ -0,0 +1,24 @@
+package com.example.ms_pedidos.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Relay del outbox de stock (prefijo "pedidos.outbox" en el .yml)
+@Data
+@ConfigurationProperties(prefix = "pedidos.outbox")
+public class OutboxProperties {
+
+    // Filas que toma el relay por pasada
+    private int lote = 100;
+    // Reservas simultáneas hacia ms-productos dentro de una pasada
+    private int concurrencia = 4;
+    // Tiempo que una fila tomada queda reservada para esta instancia
+    private Duration arriendo = Duration.ofMinutes(1);
+    // Backoff exponencial entre reintentos: inicial * 2^intentos, hasta maximo
+    private Duration backoffInicial = Duration.ofSeconds(1);
+    private Duration backoffMaximo = Duration.ofMinutes(5);
+    // Pasados estos intentos la reserva se da por fallida y el pedido se cancela
+    private int maxIntentos = 10;
+}
@@ -0,0 +1,10 @@
+package com.example.ms_pedidos.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+// Propiedades de ProcesadorPedidosAsync (el @Scheduled del reencolado lo habilita OutboxConfig)
+@Configuration
+@EnableConfigurationProperties(PedidosAsyncProperties.class)
+public class PedidosAsyncConfig {
+}
@@ -0,0 +1,21 @@
+package com.example.ms_pedidos.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Modo async de POST /api/pedidos?async=true (prefijo "pedidos.async" en el .yml)
+@Data
+@ConfigurationProperties(prefix = "pedidos.async")
+public class PedidosAsyncProperties {
+
+    // Pedidos que se procesan a la vez (validación + precios + reserva)
+    private int workers = 8;
+    // Pedidos esperando en memoria; con la cola llena el pedido queda PENDIENTE y lo toma el reencolado
+    private int capacidad = 1000;
+    // Un aceptado que sigue sin procesar pasado este tiempo se vuelve a encolar
+    private Duration reencolarTras = Duration.ofMinutes(1);
+    // Un aceptado que sigue sin procesar pasado este tiempo se cancela: no se reintenta para siempre
+    private Duration plazoMaximo = Duration.ofMinutes(30);
+}
@@ -0,0 +1,65 @@
+package com.example.ms_pedidos.config;
+
+import com.example.ms_pedidos.client.CachingProductoClient;
+import com.example.ms_pedidos.client.ProductoClient;
+import com.example.ms_pedidos.client.ProductoClientImpl;
+import com.example.ms_pedidos.client.ProductoClientSimulado;
+import com.example.ms_pedidos.client.ResilientProductoClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cloud.circuitbreaker.resilience4j.ReactiveResilience4JCircuitBreakerFactory;
+import org.springframework.cloud.client.circuitbreaker.Customizer;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.resources.ConnectionProvider;
+
+// Arma el ProductoClient que usa el servicio: cliente HTTP + circuit breaker/bulkhead + caché local delante
+@Configuration
+public class ProductoClientConfig {
+
+    @Bean
+    @Profile("!productos-simulado")
+    public ProductoClient productoClient(WebClient.Builder webClientBuilder,
+                                         ProductosProperties properties,
+                                         ConnectionProvider productosConnectionProvider,
+                                         ReactiveCircuitBreakerFactory<?, ?> cbFactory,
+                                         MeterRegistry meterRegistry) {
+        // Siempre, esté o no el relay: además del relay del outbox, el reencolado async (que no se puede
+        // apagar) llama a ms-productos sin el token de ningún usuario. Sin el del servicio todo daría 401
+        // y se reintentaría hasta cancelar los pedidos. Mejor no arrancar
+        if (!properties.getClientCredentials().isHabilitado()) {
+            throw new IllegalStateException("ms-productos.client-credentials.habilitado=false: con el ms-productos real "
+                    + "es obligatorio siempre (lo usan el relay del outbox y el reencolado de pedidos async, que corren sin usuario); "
+                    + "sin ms-productos real, usar el perfil productos-simulado");
+        }
+        // clone(): el pool de ms-productos (y su baseUrl) no se filtran al builder compartido
+        WebClient.Builder productosBuilder = webClientBuilder.clone()
+                .clientConnector(WebClientConfig.productosConnector(productosConnectionProvider, properties.getPool()));
+        ProductoClient cliente = new ResilientProductoClient(
+                new ProductoClientImpl(productosBuilder, properties),
+                cbFactory, properties.getResiliencia(), meterRegistry);
+        if (!properties.getCache().isHabilitado()) {
+            return cliente;
+        }
+        return new CachingProductoClient(cliente, properties.getCache(), meterRegistry);
+    }
+
+    // Con el perfil productos-simulado no se llama a ms-productos (ver ProductoClientSimulado)
+    @Bean
+    @Profile("productos-simulado")
+    public ProductoClient productoClientSimulado(ProductosProperties properties) {
+        return new ProductoClientSimulado(properties.getSimulado());
+    }
+
+    // Cuenta los cambios de estado del circuito (productos.cliente.circuito.transiciones, tags: desde, hacia)
+    @Bean
+    public Customizer<ReactiveResilience4JCircuitBreakerFactory> productosCircuitBreakerMetricas(MeterRegistry meterRegistry) {
+        return factory -> factory.addCircuitBreakerCustomizer(circuitBreaker -> circuitBreaker.getEventPublisher()
+                .onStateTransition(evento -> meterRegistry.counter("productos.cliente.circuito.transiciones",
+                        "desde", evento.getStateTransition().getFromState().name(),
+                        "hacia", evento.getStateTransition().getToState().name())
+                        .increment()), "productos-cb");
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.ms_pedidos.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+// Configuración del cliente de ms-productos (prefijo "ms-productos" en el .yml)
+@Data
+@ConfigurationProperties(prefix = "ms-productos")
+public class ProductosProperties {
+
+    // URL base; por defecto el nombre de Eureka (lb = Load Balanced)
+    private String url = "lb://ms-productos";
+
+    private Lote lote = new Lote();
+
+    private Cache cache = new Cache();
+
+    private Validacion validacion = new Validacion();
+
+    private Resiliencia resiliencia = new Resiliencia();
+
+    private Instrumentacion instrumentacion = new Instrumentacion();
+
+    private Pool pool = new Pool();
+
+    private ClientCredentials clientCredentials = new ClientCredentials();
+
+    private Simulado simulado = new Simulado();
+
+    @Data
+    public static class Lote {
+        // Ventana en la que se juntan las búsquedas de pedidos concurrentes
+        private Duration ventana = Duration.ofMillis(5);
+        // Máximo de solicitudes que se juntan en una misma ventana
+        private int maxSolicitudes = 64;
+        // Máximo de ids por llamada GET /api/productos/lote
+        private int maxIds = 100;
+    }
+
+    @Data
+    public static class Cache {
+        private boolean habilitado = true;
+        // Tiempo que un producto (precio, stock) se sirve sin volver a ms-productos
+        private Duration ttl = Duration.ofSeconds(30);
+        // Cantidad máxima de productos en memoria (se desalojan los menos usados)
+        private long maxEntradas = 10_000;
+    }
+
+    @Data
+    public static class Validacion {
+        // Llamadas simultáneas a ms-productos que puede abrir un mismo pedido
+        private int concurrenciaPorPedido = 4;
+        // Lotes simultáneos en vuelo hacia ms-productos, sumando todos los pedidos
+        private int concurrenciaGlobal = 16;
+        // Tiempo máximo para validar todas las líneas de un pedido
+        private Duration deadline = Duration.ofSeconds(3);
+    }
+
+    @Data
+    public static class Resiliencia {
+        // Llamadas simultáneas a ms-productos (bulkhead por semáforo); el resto se rechaza
+        private int maxConcurrentes = 32;
+        // Cuánto espera una llamada por un lugar libre en el bulkhead antes de ser rechazada
+        private Duration esperaMaxima = Duration.ZERO;
+        // Cuánto tiempo se puede servir un producto "último conocido" con el circuito abierto
+        private Duration ultimoConocidoTtl = Duration.ofMinutes(10);
+        private long ultimoConocidoMaxEntradas = 10_000;
+    }
+
+    @Data
+    public static class Instrumentacion {
+        // Fracción de llamadas exitosas que se loguean (0.0 = ninguna, 1.0 = todas); los errores siempre
+        private double muestreoLog = 0.01;
+    }
+
+    @Data
+    public static class Pool {
+        // Conexiones abiertas como máximo hacia ms-productos (con h2c, conexiones HTTP/2 multiplexadas)
+        private int maxConexiones = 200;
+        // Peticiones que pueden esperar una conexión libre; pasado el límite se rechazan enseguida
+        private int maxPendientes = 1000;
+        // Cuánto espera una petición por una conexión antes de PoolAcquireTimeoutException
+        private Duration esperaAdquisicion = Duration.ofSeconds(2);
+        // Conexión inactiva más de esto se cierra (antes de que lo haga el otro lado)
+        private Duration maxInactividad = Duration.ofSeconds(20);
+        private Duration maxVida = Duration.ofMinutes(5);
+        // Cada cuánto se revisan en segundo plano las conexiones vencidas
+        private Duration desalojoCada = Duration.ofSeconds(30);
+        // LIFO: se reusa la conexión más reciente y las frías terminan desalojadas
+        private boolean lifo = true;
+        private Duration timeoutConexion = Duration.ofSeconds(2);
+        private Duration timeoutRespuesta = Duration.ofSeconds(5);
+        // HTTP/2 sin TLS (h2c) con vuelta a HTTP/1.1; sólo si ms-productos lo soporta
+        private boolean h2c = false;
+    }
+
+    @Data
+    public static class ClientCredentials {
+        // Si está activo, las llamadas a ms-productos SIN usuario salen con el token del servicio
+        // (gateway-client-registration); las de una petición siguen con el JWT del usuario.
+        // Obligatorio contra el ms-productos real: el relay del outbox y el reencolado async corren
+        // fuera de toda petición (ver ProductoClientConfig)
+        private boolean habilitado = true;
+        // El token se renueva cuando le queda menos que esto (clock-skew del provider)
+        private Duration refrescarAntes = Duration.ofSeconds(60);
+        // Cada cuánto lo revisa el refresco en segundo plano; debe ser menor que refrescarAntes
+        private Duration refrescoCada = Duration.ofSeconds(20);
+    }
+
+    @Data
+    public static class Simulado {
+        // Perfil "productos-simulado": ms-productos falso en memoria para pruebas locales y de carga
+        private Duration latencia = Duration.ofMillis(20);
+        private int stock = 1_000_000;
+        private BigDecimal precio = new BigDecimal("10.00");
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.ms_pedidos.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+// Validación local de los JWT entrantes (prefijo "seguridad.jwt" en el .yml)
+@Data
+@ConfigurationProperties(prefix = "seguridad.jwt")
+public class SeguridadProperties {
+
+    // Edad a partir de la cual el JWK set se vuelve a pedir en segundo plano (se sigue usando el actual)
+    private Duration jwkRefrescoCada = Duration.ofMinutes(5);
+
+    // Con un kid desconocido se vuelve a pedir el JWK set, pero no más seguido que esto
+    private Duration jwkRefrescoMinimo = Duration.ofSeconds(30);
+
+    // Tokens ya verificados que se recuerdan (por hash) hasta su exp
+    private boolean cacheHabilitado = true;
+    private long cacheMaxEntradas = 10_000;
+}
@@ -0,0 +1,54 @@
+package com.example.ms_pedidos.config;
+
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+
+/**
+ * Resuelve el JWT UNA vez por petición entrante y deja la cabecera ya armada
+ * ("Bearer ...") en el contexto de Reactor. propagateTokenFilter (WebClientConfig) la
+ * lee de ahí en cada llamada saliente, sin volver al SecurityContext.
+ * Sin orden explícito corre después de la cadena de Spring Security (ya autenticado).
+ */
+@Component
+public class TokenContextWebFilter implements WebFilter {
+
+    // Clave en el contexto de Reactor con el valor completo de la cabecera Authorization
+    public static final String AUTHORIZATION = TokenContextWebFilter.class.getName() + ".AUTHORIZATION";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        return ReactiveSecurityContextHolder.getContext()
+                .map(TokenContextWebFilter::cabecera)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(cabecera -> cabecera
+                        .map(valor -> chain.filter(exchange).contextWrite(contexto -> contexto.put(AUTHORIZATION, valor)))
+                        .orElseGet(() -> chain.filter(exchange)));
+    }
+
+    /**
+     * La Authorization con la que saldrá una llamada a ms-productos: la del contexto o, fuera de una
+     * petición HTTP, la del SecurityContext. Vacío = sin usuario (ahí va el token del servicio,
+     * ver ClientCredentialsTokenFilter).
+     */
+    public static Mono<String> cabeceraSaliente() {
+        return Mono.deferContextual(contexto -> contexto.<String>getOrEmpty(AUTHORIZATION)
+                .map(Mono::just)
+                .orElseGet(() -> ReactiveSecurityContextHolder.getContext()
+                        .flatMap(context -> Mono.justOrEmpty(cabecera(context)))));
+    }
+
+    static Optional<String> cabecera(SecurityContext context) {
+        if (context.getAuthentication() instanceof JwtAuthenticationToken jwtAuth) {
+            return Optional.of("Bearer " + jwtAuth.getToken().getTokenValue());
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.ms_pedidos.config;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+/**
+ * Transacciones reactivas explícitas sobre R2DBC.
+ * Con TransactionalOperator todas las sentencias de un flujo (pedido + detalles)
+ * usan la misma conexión y la misma transacción; si algo falla a mitad, se hace rollback.
+ */
+@Configuration
+public class TransactionConfig {
+
+    @Bean
+    public R2dbcTransactionManager r2dbcTransactionManager(ConnectionFactory connectionFactory) {
+        return new R2dbcTransactionManager(connectionFactory);
+    }
+
+    @Bean
+    public TransactionalOperator transactionalOperator(R2dbcTransactionManager r2dbcTransactionManager) {
+        return TransactionalOperator.create(r2dbcTransactionManager);
+    }
+}
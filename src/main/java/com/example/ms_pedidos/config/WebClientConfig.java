@@ -1,51 +1,87 @@
 package com.example.ms_pedidos.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.core.context.ReactiveSecurityContextHolder;
-import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.ClientRequest;
 import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @Configuration
+@EnableConfigurationProperties(ProductosProperties.class)
 public class WebClientConfig {
 
     @Bean
     @LoadBalanced
-    public WebClient.Builder webClientBuilder() {
-        return WebClient.builder()
-
-                .filter(logRequest())
+    public WebClient.Builder webClientBuilder(MeterRegistry meterRegistry,
+                                              ProductosProperties properties,
+                                              ObjectProvider<ClientCredentialsTokenFilter> clientCredentials) {
+        // Sin conector propio: el pool de ms-productos lo pone sólo su cliente (ver productosConnector)
+        WebClient.Builder builder = WebClient.builder()
                 .filter(propagateTokenFilter());
+        // Después de propagateTokenFilter: el token del servicio sólo va en las llamadas que salieron sin usuario
+        clientCredentials.ifAvailable(builder::filter);
+        // Después de los filtros de token: ve las cabeceras finales (Authorization se redacta).
+        // @LoadBalanced agrega el suyo más adentro; la uri medida es la lógica (ms-productos), no la instancia
+        return builder.filter(new MetricasClienteFilter(meterRegistry, properties.getInstrumentacion()));
     }
 
 
-    private ExchangeFilterFunction propagateTokenFilter() {
-        return (clientRequest, next) -> ReactiveSecurityContextHolder.getContext()
-                .flatMap(context -> {
-                    // busca el token
-                    if (context.getAuthentication() instanceof JwtAuthenticationToken jwtAuth) {
-                        String tokenValue = jwtAuth.getToken().getTokenValue();
+    /**
+     * Pool de conexiones de Reactor Netty hacia ms-productos (ms-productos.pool.*).
+     * Con metrics(true) las métricas reactor.netty.connection.provider.* (activas, ociosas,
+     * pendientes, tiempo de adquisición) salen por el actuator.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider productosConnectionProvider(ProductosProperties properties) {
+        ProductosProperties.Pool pool = properties.getPool();
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("ms-productos")
+                .maxConnections(pool.getMaxConexiones())
+                .pendingAcquireMaxCount(pool.getMaxPendientes())
+                .pendingAcquireTimeout(pool.getEsperaAdquisicion())
+                .maxIdleTime(pool.getMaxInactividad())
+                .maxLifeTime(pool.getMaxVida())
+                .evictInBackground(pool.getDesalojoCada())
+                .metrics(true);
+        return (pool.isLifo() ? builder.lifo() : builder.fifo()).build();
+    }
 
-                        // pone en la cabecera de la petición saliente
-                        ClientRequest filteredRequest = ClientRequest.from(clientRequest)
-                                .header("Authorization", "Bearer " + tokenValue)
-                                .build();
-                        return next.exchange(filteredRequest);
-                    }
-                    return next.exchange(clientRequest);
-                });
+    /**
+     * Conector con el pool y los timeouts de ms-productos. Lo usa sólo ProductoClientImpl, sobre un
+     * clone() del builder compartido: el resto de los WebClient sigue con el conector por defecto.
+     */
+    static ReactorClientHttpConnector productosConnector(ConnectionProvider connectionProvider, ProductosProperties.Pool pool) {
+        return new ReactorClientHttpConnector(HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) pool.getTimeoutConexion().toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(pool.getTimeoutRespuesta())
+                .protocol(pool.isH2c()
+                        ? new HttpProtocol[]{HttpProtocol.H2C, HttpProtocol.HTTP11}
+                        : new HttpProtocol[]{HttpProtocol.HTTP11}));
     }
 
-    // filtro para ver qué está haciendo el WebClient en los logs
-    private ExchangeFilterFunction logRequest() {
-        return (clientRequest, next) -> {
-            System.out.println("WebClient Request: " + clientRequest.method() + " " + clientRequest.url());
-            clientRequest.headers().forEach((name, values) -> values.forEach(value -> System.out.println(name + ": " + value)));
-            return next.exchange(clientRequest);
-        };
+    /**
+     * Propaga el JWT del usuario a las llamadas salientes. La cabecera ya viene armada en el
+     * contexto de Reactor (TokenContextWebFilter, una vez por petición); sólo si no está ahí
+     * (llamadas fuera de una petición HTTP) se busca en el SecurityContext.
+     */
+    private ExchangeFilterFunction propagateTokenFilter() {
+        return (clientRequest, next) -> TokenContextWebFilter.cabeceraSaliente()
+                // pone en la cabecera de la petición saliente
+                .map(cabecera -> ClientRequest.from(clientRequest)
+                        .headers(headers -> headers.set(HttpHeaders.AUTHORIZATION, cabecera))
+                        .build())
+                // Sin token (o sin SecurityContext) la llamada sale igual, sin cabecera
+                .defaultIfEmpty(clientRequest)
+                .flatMap(next::exchange);
     }
-}
\ No newline at end of file
+}
@@ -1,51 +1,211 @@
 package com.example.ms_pedidos.controller;
 
+import com.example.ms_pedidos.config.EventosPedidoProperties;
+import com.example.ms_pedidos.dto.EventoPedidoDTO;
+import com.example.ms_pedidos.dto.FiltroPedidosDTO;
+import com.example.ms_pedidos.dto.PedidoRespuesta;
+import com.example.ms_pedidos.model.EstadoPedido;
 import com.example.ms_pedidos.model.Pedido;
+import com.example.ms_pedidos.service.ClaveIdempotenciaReutilizadaException;
 import com.example.ms_pedidos.service.PedidoService;
+import com.example.ms_pedidos.service.ProcesadorPedidosAsync;
+import com.example.ms_pedidos.service.PublicadorEventosPedido;
+import com.example.ms_pedidos.service.TransicionEstadoInvalidaException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.net.URI;
+import java.security.Principal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 @RestController
 @RequestMapping("/api/pedidos") // URL base para todos los endpoints
 public class PedidoController {
 
+    // Cabecera con el cursor para pedir la siguiente página (?after=)
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    // Clave que manda el cliente para poder reintentar el POST sin duplicar el pedido
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    // Cabecera estándar SSE con el id del último evento recibido (la manda el EventSource al reconectar)
+    static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    // Largo de la columna idempotencia_pedidos.clave
+    static final int LARGO_MAXIMO_IDEMPOTENCY_KEY = 255;
+
     @Autowired
     private PedidoService service;
 
+    @Autowired
+    private ProcesadorPedidosAsync procesadorAsync;
+
+    @Autowired
+    private PublicadorEventosPedido publicadorEventos;
+
+    // keepalive del feed de eventos
+    @Autowired
+    private EventosPedidoProperties eventosProperties;
+
+    // Las respuestas salen como PedidoRespuesta (inmutable, con su propio serializador), no como la entidad
+
     // GET /api/pedidos
     @GetMapping
-    public Flux<Pedido> getAllPedidos() {
-        return service.findAll();
+    public Flux<PedidoRespuesta> getAllPedidos() {
+        return service.findAll().map(PedidoRespuesta::de);
+    }
+
+    // GET /api/pedidos?limit=50&after=120 (paginación por cursor)
+    @GetMapping(params = "limit")
+    public Mono<ResponseEntity<List<PedidoRespuesta>>> getPedidosPage(
+            @RequestParam int limit,
+            @RequestParam(required = false) Long after) {
+
+        return service.findPage(after, limit)
+                .map(PedidoRespuesta::de)
+                .collectList()
+                .map(PedidoController::pagina);
+    }
+
+    // GET /api/pedidos/buscar?cliente=ana&estado=PENDIENTE&desde=2024-01-01T00:00:00&hasta=...&totalMin=&totalMax=
+    // Filtra en la BD (no hace falta traer todos los pedidos); se pagina igual que ?limit=&after=
+    @GetMapping("/buscar")
+    public Mono<ResponseEntity<List<PedidoRespuesta>>> buscarPedidos(
+            FiltroPedidosDTO filtro, // Se arma con los parámetros de la query
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) Long after) {
+
+        return service.buscar(filtro, after, limit)
+                .map(PedidoRespuesta::de)
+                .collectList()
+                .map(PedidoController::pagina);
+    }
+
+    private static ResponseEntity<List<PedidoRespuesta>> pagina(List<PedidoRespuesta> pagina) {
+        ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok();
+        if (!pagina.isEmpty()) {
+            // El último id de la página es el "after" de la siguiente
+            respuesta.header(NEXT_CURSOR_HEADER, String.valueOf(pagina.get(pagina.size() - 1).id()));
+        }
+        return respuesta.body(pagina);
+    }
+
+    // GET /api/pedidos con Accept: application/x-ndjson (un pedido por línea, en streaming)
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<PedidoRespuesta> streamPedidos() {
+        return service.streamAll().map(PedidoRespuesta::de);
+    }
+
+    // GET /api/pedidos/eventos (text/event-stream): altas y cambios de estado en vivo, sin polling
+    // ?cliente= y ?estado= filtran; con Last-Event-ID se retoma después del último evento recibido
+    // (si ya no se puede retomar sin huecos llega primero un evento RESET: hay que recargar)
+    @GetMapping(value = "/eventos", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<EventoPedidoDTO>> eventosPedidos(
+            @RequestParam(required = false) String cliente,
+            @RequestParam(required = false) EstadoPedido estado,
+            @RequestHeader(name = LAST_EVENT_ID_HEADER, required = false) Long lastEventId) {
+
+        Flux<ServerSentEvent<EventoPedidoDTO>> eventos = publicadorEventos.eventos(lastEventId, cliente, estado)
+                .map(evento -> ServerSentEvent.builder(evento)
+                        .id(String.valueOf(evento.getId()))
+                        .event(evento.getTipo())
+                        .build());
+        Duration cada = eventosProperties.getKeepalive();
+        Flux<ServerSentEvent<EventoPedidoDTO>> keepalive = Flux.interval(cada, cada)
+                .map(tick -> ServerSentEvent.<EventoPedidoDTO>builder().comment("keepalive").build());
+        return Flux.merge(eventos, keepalive);
     }
 
     // GET /api/pedidos/{id}
+    // Responde con ETag; con If-None-Match igual a la versión actual devuelve 304 sin leer los detalles
     @GetMapping("/{id}")
-    public Mono<ResponseEntity<Pedido>> getPedidoById(@PathVariable Long id) {
-        return service.findById(id)
-                .map(pedido -> ResponseEntity.ok(pedido)) // Devuelve 200 OK si lo encuentra
+    public Mono<ResponseEntity<PedidoRespuesta>> getPedidoById(@PathVariable Long id, ServerWebExchange exchange) {
+        // El ETag se calcula y se compara una sola vez (al leer la fila); la respuesta sale de ese resultado
+        AtomicReference<String> etag = new AtomicReference<>();
+        AtomicBoolean sinCambios = new AtomicBoolean();
+        return service.findById(id, pedido -> {
+                    etag.set(etag(pedido));
+                    sinCambios.set(exchange.checkNotModified(etag.get()));
+                    return sinCambios.get();
+                })
+                .map(pedido -> sinCambios.get()
+                        ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag.get()).<PedidoRespuesta>build()
+                        : ResponseEntity.ok().eTag(etag.get()).body(PedidoRespuesta.de(pedido))) // Devuelve 200 OK si lo encuentra
                 .defaultIfEmpty(ResponseEntity.notFound().build()); // Devuelve 404 si no
     }
 
+    // ETag fuerte: id y versión del pedido (la versión sube con cada cambio, ver Pedido.version)
+    static String etag(Pedido pedido) {
+        return "\"" + pedido.getId() + "-" + (pedido.getVersion() == null ? 0 : pedido.getVersion()) + "\"";
+    }
+
     // POST /api/pedidos (crear pedido)
+    // Con Idempotency-Key, los reintentos del cliente devuelven el mismo pedido en vez de crear otro
+    // (la clave es de cada usuario; la misma clave con otro cuerpo es un 422)
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED) // Devuelve un código 201 Created
-    public Mono<Pedido> createPedido(@RequestBody Pedido pedido) {
+    public Mono<PedidoRespuesta> createPedido(@RequestBody Pedido pedido, Principal principal,
+                                     @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        if (claveInvalida(idempotencyKey)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Idempotency-Key inválida"));
+        }
         // La lógica de validación de stock está en el service
-        return service.createPedido(pedido);
+        return service.createPedido(pedido, principal.getName(), idempotencyKey)
+                .onErrorMap(ClaveIdempotenciaReutilizadaException.class, PedidoController::claveReutilizada)
+                .map(PedidoRespuesta::de);
     }
 
-    // PUT /api/pedidos/{id}/estado
+    // POST /api/pedidos?async=true (pedidos grandes)
+    // Responde 202 apenas guarda el pedido PENDIENTE; el estado se consulta en GET /api/pedidos/{id}
+    // hasta que pase a PROCESADO o CANCELADO
+    @PostMapping(params = "async=true")
+    public Mono<ResponseEntity<PedidoRespuesta>> aceptarPedido(@RequestBody Pedido pedido, Principal principal,
+                                                               @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        if (claveInvalida(idempotencyKey)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Idempotency-Key inválida"));
+        }
+        return service.aceptarPedido(pedido, principal.getName(), idempotencyKey)
+                .onErrorMap(ClaveIdempotenciaReutilizadaException.class, PedidoController::claveReutilizada)
+                .flatMap(aceptado -> procesadorAsync.encolar(aceptado)
+                        .thenReturn(ResponseEntity.accepted()
+                                .location(URI.create("/api/pedidos/" + aceptado.getId()))
+                                .body(PedidoRespuesta.de(aceptado))));
+    }
+
+    private static boolean claveInvalida(String idempotencyKey) {
+        return idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > LARGO_MAXIMO_IDEMPOTENCY_KEY);
+    }
+
+    private static ResponseStatusException claveReutilizada(ClaveIdempotenciaReutilizadaException error) {
+        return new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, error.getMessage());
+    }
+
+    // PUT /api/pedidos/{id}/estado?estado=PROCESADO[&detalles=true]
+    // 400 si el estado no existe, 409 si el estado actual no permite la transición (ver EstadoPedido)
     @PutMapping("/{id}/estado")
-    public Mono<ResponseEntity<Pedido>> updateEstadoPedido(
+    public Mono<ResponseEntity<PedidoRespuesta>> updateEstadoPedido(
             @PathVariable Long id,
-            @RequestParam String estado) { // Recibe el estado como parámetro (estado=PROCESADO)
+            @RequestParam EstadoPedido estado, // Recibe el estado como parámetro (estado=PROCESADO)
+            @RequestParam(defaultValue = "false") boolean detalles) { // Con detalles=true la respuesta los incluye
 
-        return service.updateEstado(id, estado)
-                .map(pedido -> ResponseEntity.ok(pedido))
+        return service.updateEstado(id, estado, detalles)
+                .map(pedido -> ResponseEntity.ok().eTag(etag(pedido)).body(PedidoRespuesta.de(pedido)))
+                .onErrorMap(TransicionEstadoInvalidaException.class,
+                        error -> new ResponseStatusException(HttpStatus.CONFLICT, error.getMessage()))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
@@ -55,4 +215,23 @@ public class PedidoController {
     public Mono<Void> deletePedido(@PathVariable Long id) {
         return service.deletePedido(id);
     }
+
+    // DELETE /api/pedidos?ids=1,2,3  ó  DELETE /api/pedidos?desde=2024-01-01T00:00:00&hasta=2024-02-01T00:00:00
+    @DeleteMapping
+    public Mono<ResponseEntity<Map<String, Long>>> deletePedidos(
+            @RequestParam(required = false) List<Long> ids,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta) {
+
+        Mono<Long> eliminados;
+        if (ids != null && !ids.isEmpty()) {
+            eliminados = service.deletePedidos(ids);
+        } else if (desde != null && hasta != null) {
+            eliminados = service.deletePedidosByFecha(desde, hasta);
+        } else {
+            // Sin filtro no se borra nada: evita un DELETE de toda la tabla por error
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return eliminados.map(cantidad -> ResponseEntity.ok(Map.of("eliminados", cantidad)));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.example.ms_pedidos.controller;
+
+import com.example.ms_pedidos.dto.ResumenClienteDTO;
+import com.example.ms_pedidos.dto.ResumenDiaDTO;
+import com.example.ms_pedidos.dto.ResumenProductoDTO;
+import com.example.ms_pedidos.service.ReporteService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Reportes de ventas para finanzas. Leen los resúmenes diarios (una fila por día/estado,
+ * cliente o producto), nunca los pedidos con sus detalles.
+ * Rango de días [desde, hasta], ambos incluidos: ?desde=2024-01-01&hasta=2024-01-31
+ */
+@RestController
+@RequestMapping("/api/reportes")
+public class ReporteController {
+
+    @Autowired
+    private ReporteService service;
+
+    // GET /api/reportes/ventas-diarias?desde=&hasta= (pedidos y total por día y estado)
+    @GetMapping("/ventas-diarias")
+    public Mono<ResponseEntity<List<ResumenDiaDTO>>> ventasDiarias(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta) {
+
+        if (desde.isAfter(hasta)) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return service.ventasDiarias(desde, hasta).collectList().map(ResponseEntity::ok);
+    }
+
+    // GET /api/reportes/clientes?desde=&hasta=&limite=10 (clientes que más compraron)
+    @GetMapping("/clientes")
+    public Mono<ResponseEntity<List<ResumenClienteDTO>>> topClientes(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(defaultValue = "10") int limite) {
+
+        if (desde.isAfter(hasta)) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return service.topClientes(desde, hasta, limite).collectList().map(ResponseEntity::ok);
+    }
+
+    // GET /api/reportes/productos?desde=&hasta=&limite=10 (productos más vendidos por importe)
+    @GetMapping("/productos")
+    public Mono<ResponseEntity<List<ResumenProductoDTO>>> topProductos(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(defaultValue = "10") int limite) {
+
+        if (desde.isAfter(hasta)) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return service.topProductos(desde, hasta, limite).collectList().map(ResponseEntity::ok);
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.ms_pedidos.dto;
+
+import com.example.ms_pedidos.model.EstadoPedido;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Evento del feed GET /api/pedidos/eventos (text/event-stream): alta de un pedido o cambio de estado
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventoPedidoDTO {
+    private Long id;        // Secuencia del evento (es el id SSE; Last-Event-ID retoma desde acá)
+    private String tipo;    // CREADO, ESTADO, o RESET (se perdieron eventos: recargar; sin pedido)
+    private Long pedidoId;
+    private String cliente;
+    private EstadoPedido estado;
+    private LocalDateTime fecha;
+}
@@ -0,0 +1,25 @@
+package com.example.ms_pedidos.dto;
+
+import com.example.ms_pedidos.model.EstadoPedido;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Filtros de GET /api/pedidos/buscar (todos opcionales; null = sin filtrar por ese campo)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FiltroPedidosDTO {
+    private String cliente;
+    private EstadoPedido estado;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime desde; // fecha >= desde
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime hasta; // fecha < hasta
+    private BigDecimal totalMin;
+    private BigDecimal totalMax;
+}
@@ -0,0 +1,47 @@
+package com.example.ms_pedidos.dto;
+
+import com.example.ms_pedidos.model.DetallePedido;
+import com.example.ms_pedidos.model.EstadoPedido;
+import com.example.ms_pedidos.model.Pedido;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Pedido tal como sale en las respuestas de /api/pedidos: inmutable, armado una sola vez cuando
+ * el service ya terminó con la entidad (Pedido se sigue modificando entre operadores; esto no).
+ * Mismo JSON que la entidad, escrito por PedidoRespuestaSerializer sin reflexión.
+ * detalles es null si no se cargaron (PUT .../estado sin detalles=true).
+ */
+@JsonSerialize(using = PedidoRespuestaSerializer.class)
+public record PedidoRespuesta(long id, String cliente, LocalDateTime fecha, BigDecimal total,
+                              EstadoPedido estado, long version, List<Detalle> detalles) {
+
+    public PedidoRespuesta {
+        detalles = detalles == null ? null : List.copyOf(detalles);
+    }
+
+    public static PedidoRespuesta de(Pedido pedido) {
+        List<Detalle> detalles = null;
+        if (pedido.getDetalles() != null) {
+            Detalle[] lineas = new Detalle[pedido.getDetalles().size()];
+            for (int i = 0; i < lineas.length; i++) {
+                lineas[i] = Detalle.de(pedido.getDetalles().get(i));
+            }
+            detalles = List.of(lineas);
+        }
+        return new PedidoRespuesta(pedido.getId(), pedido.getCliente(), pedido.getFecha(), pedido.getTotal(),
+                pedido.getEstado(), pedido.getVersion() == null ? 0 : pedido.getVersion(), detalles);
+    }
+
+    // Una línea del pedido; las columnas de ids y cantidad son NOT NULL, van como primitivos
+    public record Detalle(long id, long pedidoId, long productoId, int cantidad, BigDecimal precioUnitario) {
+
+        public static Detalle de(DetallePedido detalle) {
+            return new Detalle(detalle.getId(), detalle.getPedidoId(), detalle.getProductoId(),
+                    detalle.getCantidad(), detalle.getPrecioUnitario());
+        }
+    }
+}
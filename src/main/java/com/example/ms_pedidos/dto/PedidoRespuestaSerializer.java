@@ -0,0 +1,64 @@
+package com.example.ms_pedidos.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Escribe PedidoRespuesta campo por campo: sin introspección de getters ni un BeanSerializer
+ * por nivel, lo que pesa en los listados grandes y en el streaming NDJSON.
+ * Los nombres y el orden de los campos son los del JSON de la entidad Pedido.
+ * La fecha pasa por el serializador configurado en el ObjectMapper (mismo formato que antes).
+ */
+public class PedidoRespuestaSerializer extends StdSerializer<PedidoRespuesta> {
+
+    public PedidoRespuestaSerializer() {
+        super(PedidoRespuesta.class);
+    }
+
+    @Override
+    public void serialize(PedidoRespuesta pedido, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("id", pedido.id());
+        gen.writeStringField("cliente", pedido.cliente());
+        provider.defaultSerializeField("fecha", pedido.fecha(), gen);
+        gen.writeFieldName("total");
+        if (pedido.total() == null) {
+            gen.writeNull(); // Pedido async todavía sin precios
+        } else {
+            gen.writeNumber(pedido.total());
+        }
+        gen.writeStringField("estado", pedido.estado() == null ? null : pedido.estado().name());
+        gen.writeNumberField("version", pedido.version());
+        gen.writeFieldName("detalles");
+        escribirDetalles(pedido.detalles(), gen);
+        gen.writeEndObject();
+    }
+
+    private static void escribirDetalles(List<PedidoRespuesta.Detalle> detalles, JsonGenerator gen) throws IOException {
+        if (detalles == null) {
+            gen.writeNull();
+            return;
+        }
+        gen.writeStartArray();
+        for (int i = 0; i < detalles.size(); i++) {
+            PedidoRespuesta.Detalle detalle = detalles.get(i);
+            gen.writeStartObject();
+            gen.writeNumberField("id", detalle.id());
+            gen.writeNumberField("pedidoId", detalle.pedidoId());
+            gen.writeNumberField("productoId", detalle.productoId());
+            gen.writeNumberField("cantidad", detalle.cantidad());
+            gen.writeFieldName("precioUnitario");
+            if (detalle.precioUnitario() == null) {
+                gen.writeNull();
+            } else {
+                gen.writeNumber(detalle.precioUnitario());
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+    }
+}
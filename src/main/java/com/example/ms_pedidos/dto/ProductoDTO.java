@@ -3,13 +3,15 @@ package com.example.ms_pedidos.dto;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.math.BigDecimal;
+
 //  DTO representa la respuesta que esperamos de ms-productos
 @Data
 @NoArgsConstructor
 public class ProductoDTO {
     private Long id;
     private String nombre;
-    private Double precio;
+    private BigDecimal precio;
     private Integer stock;
     private Boolean activo;
 }
\ No newline at end of file
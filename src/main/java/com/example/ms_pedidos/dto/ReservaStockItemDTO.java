@@ -0,0 +1,14 @@
+package com.example.ms_pedidos.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Una línea de la reserva de stock que se envía a ms-productos
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservaStockItemDTO {
+    private Long productoId;
+    private Integer cantidad;
+}
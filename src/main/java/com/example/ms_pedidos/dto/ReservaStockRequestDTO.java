@@ -0,0 +1,16 @@
+package com.example.ms_pedidos.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+//  Cuerpo de POST /api/productos/stock/reservas: todas las líneas de un pedido
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservaStockRequestDTO {
+    private Long pedidoId;
+    private List<ReservaStockItemDTO> items;
+}
@@ -0,0 +1,16 @@
+package com.example.ms_pedidos.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+//  Resultado por línea de una reserva de stock (permite reportar fallos parciales)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservaStockResultadoDTO {
+    private Long productoId;
+    private Integer cantidad;
+    private Boolean reservado;
+    private String mensaje; // Motivo cuando no se pudo reservar
+}
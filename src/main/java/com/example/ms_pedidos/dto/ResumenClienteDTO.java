@@ -0,0 +1,17 @@
+package com.example.ms_pedidos.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+// Fila de GET /api/reportes/clientes: ventas (pedidos con precio, no cancelados) de un cliente en el rango
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumenClienteDTO {
+    private String cliente;
+    private Long pedidos;
+    private BigDecimal total;
+}
@@ -0,0 +1,20 @@
+package com.example.ms_pedidos.dto;
+
+import com.example.ms_pedidos.model.EstadoPedido;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Fila de GET /api/reportes/ventas-diarias: pedidos y total de un día en un estado
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumenDiaDTO {
+    private LocalDate dia;
+    private EstadoPedido estado;
+    private Long pedidos;
+    private BigDecimal total;   // 0 mientras el pedido async no tiene precios
+}
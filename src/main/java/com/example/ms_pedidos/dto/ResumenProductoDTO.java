@@ -0,0 +1,17 @@
+package com.example.ms_pedidos.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+// Fila de GET /api/reportes/productos: unidades e importe vendidos de un producto en el rango
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResumenProductoDTO {
+    private Long productoId;
+    private Long cantidad;
+    private BigDecimal importe;
+}
@@ -1,7 +1,5 @@
 package com.example.ms_pedidos.model;
 
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -9,6 +7,8 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.relational.core.mapping.Column;
 import org.springframework.data.relational.core.mapping.Table;
 
+import java.math.BigDecimal;
+
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -16,7 +16,6 @@ import org.springframework.data.relational.core.mapping.Table;
 public class DetallePedido {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY) //  guía
     private Long id;
 
     @Column("pedido_id") // Indicamos R2DBC como se llama la columna de la llave foranea
@@ -24,5 +23,5 @@ public class DetallePedido {
 
     private Long productoId;
     private Integer cantidad;
-    private Double precioUnitario;
+    private BigDecimal precioUnitario; // NUMERIC(14, 2): importe exacto, sin errores de redondeo
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.example.ms_pedidos.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Importes: BigDecimal con 2 decimales en los bordes (JSON, columnas NUMERIC(14, 2)) y
+ * centavos en un long para las cuentas. Sumar las líneas de un pedido grande es sumar longs:
+ * exacto (sin el error de redondeo de double) y sin un objeto por línea.
+ * Las cuentas usan multiplyExact/addExact: un desborde es un error, nunca un total equivocado.
+ */
+public final class Dinero {
+
+    // Decimales de todos los importes (centavos)
+    public static final int ESCALA = 2;
+
+    private Dinero() {
+    }
+
+    // Precio de ms-productos con más decimales: se redondea al centavo (HALF_UP, como en la BD)
+    public static long centavos(BigDecimal importe) {
+        return importe.setScale(ESCALA, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal importe(long centavos) {
+        return BigDecimal.valueOf(centavos, ESCALA);
+    }
+
+    // Importe de una línea (precio unitario x cantidad), en centavos
+    public static long linea(long precioCentavos, int cantidad) {
+        return Math.multiplyExact(precioCentavos, (long) cantidad);
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.ms_pedidos.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Estados de un pedido y las transiciones permitidas:
+ *  PENDIENTE -> PROCESADO | CANCELADO
+ *  PROCESADO -> ENVIADO | CANCELADO
+ *  ENVIADO y CANCELADO son finales
+ * Pasar al mismo estado en que ya está se permite (un PUT repetido no falla).
+ * En la BD se guarda el nombre (columna pedidos.estado).
+ */
+public enum EstadoPedido {
+    PENDIENTE,
+    PROCESADO,
+    ENVIADO,
+    CANCELADO;
+
+    public boolean puedePasarA(EstadoPedido destino) {
+        if (destino == this) {
+            return true;
+        }
+        return switch (this) {
+            case PENDIENTE -> destino == PROCESADO || destino == CANCELADO;
+            case PROCESADO -> destino == ENVIADO || destino == CANCELADO;
+            case ENVIADO, CANCELADO -> false;
+        };
+    }
+
+    // Nombres de los estados desde los que se puede llegar a este (para el WHERE estado IN (...))
+    public List<String> anteriores() {
+        return Arrays.stream(values())
+                .filter(estado -> estado.puedePasarA(this))
+                .map(Enum::name)
+                .toList();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.ms_pedidos.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+
+// Clave Idempotency-Key de un POST /api/pedidos (por usuario) y el pedido que creó
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("idempotencia_pedidos")
+public class IdempotenciaPedido {
+
+    private String sujeto; // sub del JWT; la PK de la tabla es (sujeto, clave)
+
+    @Id
+    private String clave;
+
+    private String huella; // SHA-256 del cuerpo del pedido (cliente + líneas)
+    private Long pedidoId;
+    private LocalDateTime creado;
+}
@@ -0,0 +1,51 @@
+package com.example.ms_pedidos.model;
+
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Reserva de stock pendiente de enviar a ms-productos (outbox); se escribe en la transacción del pedido
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("outbox_stock")
+public class OutboxStock {
+
+    @Id
+    private Long id;
+
+    private Long pedidoId;
+    private String items; // "productoId:cantidad,productoId:cantidad"
+    private String estado; // PENDIENTE, ENVIADO, FALLIDO, DESCARTADO
+    private Integer intentos;
+    private LocalDateTime creado;
+    private LocalDateTime proximoIntento;
+    private LocalDateTime procesado;
+    private String ultimoError;
+
+    public static OutboxStock pendiente(Long pedidoId, List<ReservaStockItemDTO> items) {
+        LocalDateTime ahora = LocalDateTime.now();
+        String codificados = items.stream()
+                .map(item -> item.getProductoId() + ":" + item.getCantidad())
+                .collect(Collectors.joining(","));
+        return new OutboxStock(null, pedidoId, codificados, "PENDIENTE", 0, ahora, ahora, null, null);
+    }
+
+    public List<ReservaStockItemDTO> itemsReserva() {
+        List<ReservaStockItemDTO> lista = new ArrayList<>();
+        for (String item : items.split(",")) {
+            int separador = item.indexOf(':');
+            lista.add(new ReservaStockItemDTO(Long.valueOf(item.substring(0, separador)),
+                    Integer.valueOf(item.substring(separador + 1))));
+        }
+        return lista;
+    }
+}
@@ -1,14 +1,14 @@
 package com.example.ms_pedidos.model;
 
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.relational.core.mapping.Table;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -19,13 +19,17 @@ import java.util.List;
 public class Pedido {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY) //  guía
     private Long id;
 
     private String cliente;
     private LocalDateTime fecha;
-    private Double total;
-    private String estado; // PENDIENTE, PROCESADO, CANCELADO
+    private BigDecimal total; // NUMERIC(14, 2), ver Dinero
+    private EstadoPedido estado; // Ver EstadoPedido (transiciones permitidas)
+    // Sube con cada cambio del pedido (estado, total); es el ETag de GET /api/pedidos/{id}.
+    // @Version: un save() de un pedido existente también la sube (y falla si otro lo cambió antes);
+    // los UPDATE a mano de PedidoRepository la suben ellos mismos
+    @Version
+    private Long version;
 
 
     @Transient
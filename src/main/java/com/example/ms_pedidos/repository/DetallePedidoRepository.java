@@ -1,13 +1,30 @@
 package com.example.ms_pedidos.repository;
 
 import com.example.ms_pedidos.model.DetallePedido;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
 
 @Repository
-public interface DetallePedidoRepository extends R2dbcRepository<DetallePedido, Long> {
+public interface DetallePedidoRepository extends R2dbcRepository<DetallePedido, Long>, DetallePedidoRepositoryCustom {
 
 
     Flux<DetallePedido> findByPedidoId(Long pedidoId);
+
+    // Carga los detalles de varios pedidos en una sola consulta (WHERE pedido_id IN (...))
+    Flux<DetallePedido> findByPedidoIdIn(Collection<Long> pedidoIds);
+
+    // Borra todos los detalles de un pedido con una sola sentencia (sin cargarlos)
+    @Modifying
+    @Query("DELETE FROM detalle_pedidos WHERE pedido_id = :pedidoId")
+    Mono<Integer> deleteByPedidoId(Long pedidoId);
+
+    @Modifying
+    @Query("DELETE FROM detalle_pedidos WHERE pedido_id IN (:pedidoIds)")
+    Mono<Integer> deleteByPedidoIdIn(Collection<Long> pedidoIds);
 }
\ No newline at end of file
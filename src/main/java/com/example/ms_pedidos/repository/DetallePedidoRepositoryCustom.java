@@ -0,0 +1,19 @@
+package com.example.ms_pedidos.repository;
+
+import com.example.ms_pedidos.model.DetallePedido;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+// Operaciones de DetallePedidoRepository que Spring Data no genera solo
+public interface DetallePedidoRepositoryCustom {
+
+    // Inserta todos los detalles con INSERT multi-fila (un viaje a la BD por tramo)
+    Flux<DetallePedido> insertAll(List<DetallePedido> detalles);
+
+    // Pone el precio unitario (productoId -> precio) a todas las líneas de un pedido; devuelve las filas actualizadas
+    Mono<Integer> actualizarPrecios(Long pedidoId, Map<Long, BigDecimal> precios);
+}
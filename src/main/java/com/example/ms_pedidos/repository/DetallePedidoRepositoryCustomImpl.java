@@ -0,0 +1,108 @@
+package com.example.ms_pedidos.repository;
+
+import com.example.ms_pedidos.model.DetallePedido;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementación de DetallePedidoRepositoryCustom con DatabaseClient.
+ * save()/saveAll() de R2DBC hacen un INSERT por fila; aquí se arma un
+ * INSERT ... VALUES (...), (...) RETURNING por cada tramo de FILAS_POR_INSERT detalles.
+ */
+public class DetallePedidoRepositoryCustomImpl implements DetallePedidoRepositoryCustom {
+
+    // 4 parámetros por fila: 500 filas quedan muy por debajo del límite de PostgreSQL (65535)
+    static final int FILAS_POR_INSERT = 500;
+
+    private final DatabaseClient databaseClient;
+
+    public DetallePedidoRepositoryCustomImpl(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    @Override
+    public Flux<DetallePedido> insertAll(List<DetallePedido> detalles) {
+        return Flux.fromIterable(detalles)
+                .buffer(FILAS_POR_INSERT)
+                .concatMap(this::insertarTramo);
+    }
+
+    private Flux<DetallePedido> insertarTramo(List<DetallePedido> tramo) {
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sqlInsert(tramo.size()));
+        for (int i = 0; i < tramo.size(); i++) {
+            DetallePedido detalle = tramo.get(i);
+            spec = bind(spec, "pedidoId" + i, detalle.getPedidoId(), Long.class);
+            spec = bind(spec, "productoId" + i, detalle.getProductoId(), Long.class);
+            spec = bind(spec, "cantidad" + i, detalle.getCantidad(), Integer.class);
+            spec = bind(spec, "precioUnitario" + i, detalle.getPrecioUnitario(), BigDecimal.class);
+        }
+        return spec.map((row, metadata) -> new DetallePedido(
+                        row.get("id", Long.class),
+                        row.get("pedido_id", Long.class),
+                        row.get("producto_id", Long.class),
+                        row.get("cantidad", Integer.class),
+                        row.get("precio_unitario", BigDecimal.class)))
+                .all();
+    }
+
+    @Override
+    public Mono<Integer> actualizarPrecios(Long pedidoId, Map<Long, BigDecimal> precios) {
+        // Un UPDATE ... FROM (VALUES ...) por tramo, no uno por producto
+        List<Map.Entry<Long, BigDecimal>> entradas = new ArrayList<>(precios.entrySet());
+        return Flux.fromIterable(entradas)
+                .buffer(FILAS_POR_INSERT)
+                .concatMap(tramo -> {
+                    DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sqlActualizarPrecios(tramo.size()))
+                            .bind("pedidoId", pedidoId);
+                    for (int i = 0; i < tramo.size(); i++) {
+                        spec = bind(spec, "productoId" + i, tramo.get(i).getKey(), Long.class);
+                        spec = bind(spec, "precioUnitario" + i, tramo.get(i).getValue(), BigDecimal.class);
+                    }
+                    return spec.fetch().rowsUpdated();
+                })
+                .reduce(0, (total, filas) -> total + filas.intValue());
+    }
+
+    static String sqlInsert(int filas) {
+        StringBuilder sql = new StringBuilder(96 + filas * 72)
+                .append("INSERT INTO detalle_pedidos (pedido_id, producto_id, cantidad, precio_unitario) VALUES ");
+        for (int i = 0; i < filas; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:pedidoId").append(i)
+                    .append(", :productoId").append(i)
+                    .append(", :cantidad").append(i)
+                    .append(", :precioUnitario").append(i)
+                    .append(')');
+        }
+        return sql.append(" RETURNING id, pedido_id, producto_id, cantidad, precio_unitario").toString();
+    }
+
+    static String sqlActualizarPrecios(int filas) {
+        StringBuilder sql = new StringBuilder(160 + filas * 80)
+                .append("UPDATE detalle_pedidos d SET precio_unitario = v.precio_unitario FROM (VALUES ");
+        for (int i = 0; i < filas; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            // Sin CAST, PostgreSQL no puede inferir el tipo de los parámetros dentro de VALUES
+            sql.append("(CAST(:productoId").append(i).append(" AS BIGINT)")
+                    .append(", CAST(:precioUnitario").append(i).append(" AS NUMERIC))");
+        }
+        return sql.append(") AS v (producto_id, precio_unitario)")
+                .append(" WHERE d.pedido_id = :pedidoId AND d.producto_id = v.producto_id")
+                .toString();
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bind(DatabaseClient.GenericExecuteSpec spec,
+                                                          String nombre, Object valor, Class<?> tipo) {
+        return valor == null ? spec.bindNull(nombre, tipo) : spec.bind(nombre, valor);
+    }
+}
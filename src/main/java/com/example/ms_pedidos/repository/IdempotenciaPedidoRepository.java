@@ -0,0 +1,23 @@
+package com.example.ms_pedidos.repository;
+
+import com.example.ms_pedidos.model.IdempotenciaPedido;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+@Repository
+public interface IdempotenciaPedidoRepository extends R2dbcRepository<IdempotenciaPedido, String> {
+
+    // Búsqueda por la clave primaria (sujeto, clave): el pedido creado y la huella del cuerpo
+    @Query("SELECT * FROM idempotencia_pedidos WHERE sujeto = :sujeto AND clave = :clave")
+    Mono<IdempotenciaPedido> findBySujetoAndClave(String sujeto, String clave);
+
+    // Devuelve 0 si la clave ya existía (otra petición con la misma clave ganó la carrera)
+    @Modifying
+    @Query("INSERT INTO idempotencia_pedidos (sujeto, clave, huella, pedido_id, creado) "
+            + "VALUES (:sujeto, :clave, :huella, :pedidoId, now()) "
+            + "ON CONFLICT (sujeto, clave) DO NOTHING")
+    Mono<Integer> insertar(String sujeto, String clave, String huella, Long pedidoId);
+}
@@ -0,0 +1,42 @@
+package com.example.ms_pedidos.repository;
+
+import com.example.ms_pedidos.model.OutboxStock;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Repository
+public interface OutboxStockRepository extends R2dbcRepository<OutboxStock, Long> {
+
+    // Toma un lote de pendientes y los "arrienda" corriendo su próximo intento: otra instancia
+    // del relay no los ve hasta que venza el arriendo (SKIP LOCKED: no se bloquean entre sí)
+    @Query("UPDATE outbox_stock SET proximo_intento = now() + (:arriendoSegundos * interval '1 second') "
+            + "WHERE id IN (SELECT id FROM outbox_stock WHERE estado = 'PENDIENTE' AND proximo_intento <= now() "
+            + "ORDER BY id LIMIT :limite FOR UPDATE SKIP LOCKED) RETURNING *")
+    Flux<OutboxStock> reclamarPendientes(long arriendoSegundos, int limite);
+
+    // Sólo pasa de PENDIENTE a ENVIADO una vez (devuelve 0 si ya estaba procesada)
+    @Modifying
+    @Query("UPDATE outbox_stock SET estado = 'ENVIADO', procesado = now() WHERE id = :id AND estado = 'PENDIENTE'")
+    Mono<Integer> marcarEnviado(Long id);
+
+    @Modifying
+    @Query("UPDATE outbox_stock SET estado = 'FALLIDO', procesado = now(), ultimo_error = :error "
+            + "WHERE id = :id AND estado = 'PENDIENTE'")
+    Mono<Integer> marcarFallido(Long id, String error);
+
+    // El pedido ya no existe o se canceló antes de reservar: no se llama a ms-productos
+    @Modifying
+    @Query("UPDATE outbox_stock SET estado = 'DESCARTADO', procesado = now(), ultimo_error = :motivo "
+            + "WHERE id = :id AND estado = 'PENDIENTE'")
+    Mono<Integer> marcarDescartado(Long id, String motivo);
+
+    @Modifying
+    @Query("UPDATE outbox_stock SET intentos = intentos + 1, "
+            + "proximo_intento = now() + (:esperaSegundos * interval '1 second'), ultimo_error = :error "
+            + "WHERE id = :id AND estado = 'PENDIENTE'")
+    Mono<Integer> reprogramar(Long id, long esperaSegundos, String error);
+}
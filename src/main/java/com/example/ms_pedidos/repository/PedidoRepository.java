@@ -1,9 +1,54 @@
 package com.example.ms_pedidos.repository;
 
 import com.example.ms_pedidos.model.Pedido;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
 
 @Repository
-public interface PedidoRepository extends R2dbcRepository<Pedido, Long> {
-}
\ No newline at end of file
+public interface PedidoRepository extends R2dbcRepository<Pedido, Long>, PedidoRepositoryCustom {
+
+    // Paginación por cursor (keyset): WHERE id > :after ORDER BY id LIMIT :size
+    Flux<Pedido> findByIdGreaterThanOrderByIdAsc(Long after, Pageable pageable);
+
+    // Sólo los ids (no las filas completas) de los pedidos de un rango de fechas [desde, hasta),
+    // de a "limite" y por keyset: los siguientes a despuesDe
+    @Query("SELECT id FROM pedidos WHERE fecha >= :desde AND fecha < :hasta AND id > :despuesDe ORDER BY id LIMIT :limite")
+    Flux<Long> findIdsByFecha(LocalDateTime desde, LocalDateTime hasta, long despuesDe, int limite);
+
+    @Modifying
+    @Query("DELETE FROM pedidos WHERE id IN (:ids)")
+    Mono<Integer> deleteByIdIn(Collection<Long> ids);
+
+    // Cambia el estado en una sola sentencia, sin leer el pedido antes, y sólo si el estado actual
+    // es uno de "desde" (EstadoPedido.anteriores()). Vacío si no existe o si otro lo cambió antes.
+    // Un aceptado async sin procesar (total NULL) sólo se puede cancelar: PROCESADO lo pone el worker
+    // (completarAceptado) después de validar, poner precios y registrar la reserva.
+    // La versión sólo sube si el estado cambia de verdad (repetir el PUT no invalida el ETag)
+    @Query("UPDATE pedidos SET estado = :estado, version = version + CASE WHEN estado = :estado THEN 0 ELSE 1 END "
+            + "WHERE id = :id AND estado IN (:desde) AND (total IS NOT NULL OR :estado IN ('PENDIENTE', 'CANCELADO')) "
+            + "RETURNING *")
+    Mono<Pedido> cambiarEstado(Long id, String estado, Collection<String> desde);
+
+    // Pedidos aceptados en modo async (total todavía NULL): el UPDATE sólo lo gana quien lo procesa primero
+    @Modifying
+    @Query("UPDATE pedidos SET total = :total, estado = 'PROCESADO', version = version + 1 "
+            + "WHERE id = :id AND estado = 'PENDIENTE' AND total IS NULL")
+    Mono<Integer> completarAceptado(Long id, BigDecimal total);
+
+    @Modifying
+    @Query("UPDATE pedidos SET estado = 'CANCELADO', version = version + 1 WHERE id = :id AND estado = 'PENDIENTE' AND total IS NULL")
+    Mono<Integer> cancelarAceptado(Long id);
+
+    // Aceptados que siguen sin procesar (cola llena, reinicio, error transitorio): se vuelven a encolar
+    @Query("SELECT id FROM pedidos WHERE estado = 'PENDIENTE' AND total IS NULL AND fecha < :antes ORDER BY fecha LIMIT :limite")
+    Flux<Long> findIdsAceptadosSinProcesar(LocalDateTime antes, int limite);
+}
@@ -0,0 +1,12 @@
+package com.example.ms_pedidos.repository;
+
+import com.example.ms_pedidos.dto.FiltroPedidosDTO;
+import com.example.ms_pedidos.model.Pedido;
+import reactor.core.publisher.Flux;
+
+// Operaciones de PedidoRepository que Spring Data no genera solo
+public interface PedidoRepositoryCustom {
+
+    // Pedidos que cumplen el filtro con id > after, ordenados por id (paginación por cursor)
+    Flux<Pedido> buscar(FiltroPedidosDTO filtro, long after, int limite);
+}
@@ -0,0 +1,61 @@
+package com.example.ms_pedidos.repository;
+
+import com.example.ms_pedidos.dto.FiltroPedidosDTO;
+import com.example.ms_pedidos.model.Pedido;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.relational.core.query.Criteria;
+import org.springframework.data.relational.core.query.Query;
+import reactor.core.publisher.Flux;
+
+/**
+ * Implementación de PedidoRepositoryCustom con R2dbcEntityTemplate: el WHERE se arma sólo
+ * con los filtros presentes, así cada combinación usa su índice (ver db/migration/V4):
+ *  - cliente = ? AND id > ? ORDER BY id   -> idx_pedidos_cliente_id
+ *  - estado = ? AND id > ? ORDER BY id    -> idx_pedidos_estado_id
+ *  - cliente = ? AND estado = ? ...       -> idx_pedidos_cliente_estado_id
+ *  - sólo rango de fechas                 -> idx_pedidos_fecha
+ * El total se filtra sobre las filas que ya trajo el índice.
+ */
+public class PedidoRepositoryCustomImpl implements PedidoRepositoryCustom {
+
+    private final R2dbcEntityTemplate template;
+
+    public PedidoRepositoryCustomImpl(R2dbcEntityTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public Flux<Pedido> buscar(FiltroPedidosDTO filtro, long after, int limite) {
+        return template.select(Pedido.class)
+                .matching(Query.query(criterio(filtro, after))
+                        .sort(Sort.by("id"))
+                        .limit(limite))
+                .all();
+    }
+
+    static Criteria criterio(FiltroPedidosDTO filtro, long after) {
+        // Keyset: WHERE id > after, nunca OFFSET
+        Criteria criterio = Criteria.where("id").greaterThan(after);
+        if (filtro.getCliente() != null) {
+            criterio = criterio.and("cliente").is(filtro.getCliente());
+        }
+        if (filtro.getEstado() != null) {
+            criterio = criterio.and("estado").is(filtro.getEstado().name());
+        }
+        // [desde, hasta), igual que findIdsByFecha
+        if (filtro.getDesde() != null) {
+            criterio = criterio.and("fecha").greaterThanOrEquals(filtro.getDesde());
+        }
+        if (filtro.getHasta() != null) {
+            criterio = criterio.and("fecha").lessThan(filtro.getHasta());
+        }
+        if (filtro.getTotalMin() != null) {
+            criterio = criterio.and("total").greaterThanOrEquals(filtro.getTotalMin());
+        }
+        if (filtro.getTotalMax() != null) {
+            criterio = criterio.and("total").lessThanOrEquals(filtro.getTotalMax());
+        }
+        return criterio;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.ms_pedidos.repository;
+
+import com.example.ms_pedidos.dto.ResumenClienteDTO;
+import com.example.ms_pedidos.dto.ResumenDiaDTO;
+import com.example.ms_pedidos.dto.ResumenProductoDTO;
+import com.example.ms_pedidos.model.EstadoPedido;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Resúmenes diarios que se mantienen al escribir los pedidos (ver db/migration/V5), para que los
+ * reportes lean una fila por día y no todos los pedidos con sus detalles:
+ *  - resumen_diario_estado: todos los pedidos, en su estado actual
+ *  - resumen_diario_cliente / resumen_diario_producto: las ventas (pedidos con precio y no CANCELADO)
+ * Los importes se calculan en la BD a partir de las filas del pedido (INSERT ... SELECT ...
+ * ON CONFLICT DO UPDATE): nunca se leen los pedidos ni los detalles para armarlos en Java.
+ * Todo se llama dentro de la transacción del que modifica el pedido.
+ * Cada resumen se reparte en SLOTS filas (slot = id del pedido % SLOTS): los pedidos que se crean
+ * a la vez no esperan todos el lock de la misma fila (hoy, PENDIENTE) hasta el commit. Un pedido
+ * siempre cae en el mismo slot, así que restar y volver a sumar lo deja en su lugar; los reportes
+ * suman los slots. Las filas se actualizan en orden (ORDER BY) para no bloquearse cruzadas.
+ */
+@Repository
+public class ResumenPedidosRepository {
+
+    // Filas por (dia, estado|cliente|producto); cambiarlo no requiere migrar, los reportes suman todas
+    static final int SLOTS = 16;
+
+    static final String SQL_BLOQUEAR = "SELECT id FROM pedidos WHERE id IN (:ids) ORDER BY id FOR UPDATE";
+
+    static final String SQL_ESTADO = "INSERT INTO resumen_diario_estado AS r (dia, estado, slot, pedidos, total) "
+            + "SELECT CAST(fecha AS DATE), estado, id % :slots, :signo * COUNT(*), :signo * SUM(COALESCE(total, 0)) "
+            + "FROM pedidos WHERE id IN (:ids) GROUP BY 1, 2, 3 ORDER BY 1, 2, 3 "
+            + "ON CONFLICT (dia, estado, slot) DO UPDATE SET pedidos = r.pedidos + EXCLUDED.pedidos, total = r.total + EXCLUDED.total";
+
+    static final String SQL_CLIENTE = "INSERT INTO resumen_diario_cliente AS r (dia, cliente, slot, pedidos, total) "
+            + "SELECT CAST(fecha AS DATE), COALESCE(cliente, ''), id % :slots, :signo * COUNT(*), :signo * SUM(total) "
+            + "FROM pedidos WHERE id IN (:ids) AND total IS NOT NULL AND estado <> 'CANCELADO' "
+            + "GROUP BY 1, 2, 3 ORDER BY 1, 2, 3 "
+            + "ON CONFLICT (dia, cliente, slot) DO UPDATE SET pedidos = r.pedidos + EXCLUDED.pedidos, total = r.total + EXCLUDED.total";
+
+    static final String SQL_PRODUCTO = "INSERT INTO resumen_diario_producto AS r (dia, producto_id, slot, cantidad, importe) "
+            + "SELECT CAST(p.fecha AS DATE), d.producto_id, p.id % :slots, :signo * SUM(d.cantidad), :signo * SUM(d.cantidad * d.precio_unitario) "
+            + "FROM pedidos p JOIN detalle_pedidos d ON d.pedido_id = p.id "
+            + "WHERE p.id IN (:ids) AND p.total IS NOT NULL AND p.estado <> 'CANCELADO' "
+            + "GROUP BY 1, 2, 3 ORDER BY 1, 2, 3 "
+            + "ON CONFLICT (dia, producto_id, slot) DO UPDATE SET cantidad = r.cantidad + EXCLUDED.cantidad, importe = r.importe + EXCLUDED.importe";
+
+    private final DatabaseClient databaseClient;
+
+    public ResumenPedidosRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    /**
+     * Envuelve un cambio sobre pedidos ya guardados (estado, total): bloquea las filas, resta lo
+     * que aportan hoy al resumen, aplica el cambio y vuelve a sumar lo que aportan después.
+     * Da igual si el cambio tocó algo o no (UPDATE condicional que no encontró el estado esperado):
+     * restar y sumar las mismas filas deja el resumen como estaba.
+     * Las ventas sólo se recalculan si el cambio puede afectarlas (precios o CANCELADO).
+     */
+    public <T> Mono<T> recalcular(Collection<Long> ids, boolean ventas, Mono<T> cambio) {
+        return bloquear(ids)
+                .then(restar(ids, ventas))
+                .then(cambio.singleOptional())
+                .flatMap(resultado -> sumar(ids, ventas).then(Mono.justOrEmpty(resultado)));
+    }
+
+    // Pedidos recién insertados (con sus detalles)
+    public Mono<Void> sumar(Collection<Long> ids, boolean ventas) {
+        return aplicar(ids, 1, ventas);
+    }
+
+    // Antes de borrar pedidos: llamar con las filas ya bloqueadas (ver bloquear)
+    public Mono<Void> restar(Collection<Long> ids, boolean ventas) {
+        return aplicar(ids, -1, ventas);
+    }
+
+    // SELECT ... FOR UPDATE: nadie cambia el estado de estos pedidos hasta el commit (orden por id: sin deadlocks)
+    public Mono<Void> bloquear(Collection<Long> ids) {
+        return databaseClient.sql(SQL_BLOQUEAR)
+                .bind("ids", ids)
+                .fetch().all()
+                .then();
+    }
+
+    private Mono<Void> aplicar(Collection<Long> ids, int signo, boolean ventas) {
+        Mono<Void> estado = ejecutar(SQL_ESTADO, ids, signo);
+        return ventas
+                ? estado.then(ejecutar(SQL_CLIENTE, ids, signo)).then(ejecutar(SQL_PRODUCTO, ids, signo))
+                : estado;
+    }
+
+    private Mono<Void> ejecutar(String sql, Collection<Long> ids, int signo) {
+        return databaseClient.sql(sql)
+                .bind("ids", ids)
+                .bind("signo", signo)
+                .bind("slots", SLOTS)
+                .fetch().rowsUpdated()
+                .then();
+    }
+
+    // Días del rango [desde, hasta] (ambos incluidos), por estado
+    public Flux<ResumenDiaDTO> porDia(LocalDate desde, LocalDate hasta) {
+        return databaseClient.sql("SELECT dia, estado, CAST(SUM(pedidos) AS BIGINT) AS pedidos, SUM(total) AS total "
+                        + "FROM resumen_diario_estado WHERE dia >= :desde AND dia <= :hasta "
+                        + "GROUP BY dia, estado HAVING SUM(pedidos) <> 0 ORDER BY dia, estado")
+                .bind("desde", desde)
+                .bind("hasta", hasta)
+                .map((row, metadata) -> new ResumenDiaDTO(
+                        row.get("dia", LocalDate.class),
+                        EstadoPedido.valueOf(row.get("estado", String.class)),
+                        row.get("pedidos", Long.class),
+                        row.get("total", BigDecimal.class)))
+                .all();
+    }
+
+    // Los "limite" clientes que más compraron en el rango
+    public Flux<ResumenClienteDTO> topClientes(LocalDate desde, LocalDate hasta, int limite) {
+        return databaseClient.sql("SELECT cliente, CAST(SUM(pedidos) AS BIGINT) AS pedidos, SUM(total) AS total "
+                        + "FROM resumen_diario_cliente WHERE dia >= :desde AND dia <= :hasta "
+                        + "GROUP BY cliente HAVING SUM(pedidos) > 0 ORDER BY total DESC, cliente LIMIT :limite")
+                .bind("desde", desde)
+                .bind("hasta", hasta)
+                .bind("limite", limite)
+                .map((row, metadata) -> new ResumenClienteDTO(
+                        row.get("cliente", String.class),
+                        row.get("pedidos", Long.class),
+                        row.get("total", BigDecimal.class)))
+                .all();
+    }
+
+    // Los "limite" productos con más importe vendido en el rango
+    public Flux<ResumenProductoDTO> topProductos(LocalDate desde, LocalDate hasta, int limite) {
+        return databaseClient.sql("SELECT producto_id, CAST(SUM(cantidad) AS BIGINT) AS cantidad, SUM(importe) AS importe "
+                        + "FROM resumen_diario_producto WHERE dia >= :desde AND dia <= :hasta "
+                        + "GROUP BY producto_id HAVING SUM(cantidad) > 0 ORDER BY importe DESC, producto_id LIMIT :limite")
+                .bind("desde", desde)
+                .bind("hasta", hasta)
+                .bind("limite", limite)
+                .map((row, metadata) -> new ResumenProductoDTO(
+                        row.get("producto_id", Long.class),
+                        row.get("cantidad", Long.class),
+                        row.get("importe", BigDecimal.class)))
+                .all();
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.ms_pedidos.service;
+
+// La Idempotency-Key ya se usó (mismo usuario) con otro cuerpo de pedido; el controller responde 422
+public class ClaveIdempotenciaReutilizadaException extends RuntimeException {
+
+    public ClaveIdempotenciaReutilizadaException(String clave) {
+        super("La Idempotency-Key " + clave + " ya se usó con otro pedido");
+    }
+}
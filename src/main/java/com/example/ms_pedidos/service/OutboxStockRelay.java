@@ -0,0 +1,160 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.client.ProductoClient;
+import com.example.ms_pedidos.config.OutboxProperties;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.model.EstadoPedido;
+import com.example.ms_pedidos.model.OutboxStock;
+import com.example.ms_pedidos.model.Pedido;
+import com.example.ms_pedidos.repository.OutboxStockRepository;
+import com.example.ms_pedidos.repository.PedidoRepository;
+import com.example.ms_pedidos.repository.ResumenPedidosRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Drena el outbox de reservas de stock que createPedido deja en la misma transacción del pedido.
+ *  - Toma lotes de filas pendientes (arrendadas, varias instancias no se pisan)
+ *  - Cada fila es UNA llamada reservarStock con Idempotency-Key pedido-{id}: si un reintento
+ *    repite una reserva que ya había llegado, ms-productos no descuenta dos veces
+ *  - Pedido borrado o ya CANCELADO: la fila queda DESCARTADO, sin reservar nada
+ *  - Error de red / ms-productos caído: reintento con backoff exponencial
+ *  - Stock no reservado o intentos agotados: la fila queda FALLIDO y el pedido CANCELADO
+ *    (si la reserva quedó a medias, antes se devuelven las líneas que sí se reservaron)
+ * Corre fuera de cualquier petición: llama a ms-productos con el token del servicio
+ * (ms-productos.client-credentials, obligatorio siempre; ver ProductoClientConfig).
+ */
+@Component
+@ConditionalOnProperty(prefix = "pedidos.outbox.relay", name = "habilitado", havingValue = "true", matchIfMissing = true)
+public class OutboxStockRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxStockRelay.class);
+
+    @Autowired
+    private OutboxStockRepository outboxRepository;
+
+    @Autowired
+    private PedidoRepository pedidoRepository;
+
+    @Autowired
+    private ResumenPedidosRepository resumenRepository;
+
+    @Autowired
+    private ProductoClient productoClient;
+
+    @Autowired
+    private TransactionalOperator transactionalOperator;
+
+    @Autowired
+    private OutboxProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PublicadorEventosPedido eventos;
+
+    // Una pasada cada intervalo; la siguiente no empieza hasta que termina la anterior
+    @Scheduled(fixedDelayString = "${pedidos.outbox.relay.intervalo:PT1S}")
+    public Mono<Long> drenar() {
+        return outboxRepository.reclamarPendientes(properties.getArriendo().toSeconds(), properties.getLote())
+                .flatMap(this::enviar, properties.getConcurrencia())
+                .count()
+                .onErrorResume(error -> {
+                    log.warn("Falló la pasada del outbox de stock: {}", error.toString());
+                    return Mono.just(0L);
+                });
+    }
+
+    Mono<Void> enviar(OutboxStock fila) {
+        return pedidoRepository.findById(fila.getPedidoId())
+                .map(pedido -> pedido.getEstado() != EstadoPedido.CANCELADO)
+                .defaultIfEmpty(false) // Borrado
+                .flatMap(vigente -> vigente ? reservar(fila) : descartar(fila))
+                // Si ni siquiera se pudo anotar el resultado, la fila vuelve a salir al vencer el arriendo
+                .onErrorResume(error -> {
+                    log.warn("No se pudo actualizar la fila {} del outbox: {}", fila.getId(), error.toString());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<Integer> reservar(OutboxStock fila) {
+        return productoClient.reservarStock(fila.getPedidoId(), fila.itemsReserva())
+                .flatMap(resultados -> {
+                    List<String> fallidas = resultados.stream()
+                            .filter(resultado -> !Boolean.TRUE.equals(resultado.getReservado()))
+                            .map(resultado -> resultado.getProductoId() + " (" + resultado.getMensaje() + ")")
+                            .toList();
+                    if (fallidas.isEmpty()) {
+                        return outboxRepository.marcarEnviado(fila.getId())
+                                .doOnSuccess(ignorado -> contar("enviado"));
+                    }
+                    // Rechazo de negocio: reintentar no cambia nada. El pedido se cancela, así que
+                    // lo que sí se reservó se devuelve (si eso falla, la fila se reintenta entera)
+                    List<ReservaStockItemDTO> reservadas = resultados.stream()
+                            .filter(resultado -> Boolean.TRUE.equals(resultado.getReservado()))
+                            .map(resultado -> new ReservaStockItemDTO(resultado.getProductoId(), resultado.getCantidad()))
+                            .toList();
+                    return productoClient.liberarStock(fila.getPedidoId(), reservadas)
+                            .then(fallar(fila, "Stock no reservado para: " + String.join(", ", fallidas)));
+                })
+                .onErrorResume(error -> reintentar(fila, error));
+    }
+
+    private Mono<Integer> descartar(OutboxStock fila) {
+        log.info("Reserva de stock del pedido {} descartada: el pedido se borró o ya está cancelado", fila.getPedidoId());
+        return outboxRepository.marcarDescartado(fila.getId(), "Pedido borrado o cancelado antes de reservar")
+                .doOnSuccess(ignorado -> contar("descartado"));
+    }
+
+    private Mono<Integer> reintentar(OutboxStock fila, Throwable error) {
+        int intentos = fila.getIntentos() + 1;
+        if (intentos >= properties.getMaxIntentos()) {
+            return fallar(fila, "Intentos agotados: " + error);
+        }
+        contar("reintento");
+        return outboxRepository.reprogramar(fila.getId(), espera(intentos).toSeconds(), recortar(error.toString()));
+    }
+
+    // La fila FALLIDO, el pedido CANCELADO y los resúmenes cambian juntos
+    private Mono<Integer> fallar(OutboxStock fila, String motivo) {
+        log.warn("Reserva de stock del pedido {} fallida: {}", fila.getPedidoId(), motivo);
+        return outboxRepository.marcarFallido(fila.getId(), recortar(motivo))
+                .flatMap(marcadas -> marcadas == 0
+                        ? Mono.<Pedido>empty()
+                        // Si ya se envió (o se canceló) el UPDATE no lo toca
+                        : resumenRepository.recalcular(List.of(fila.getPedidoId()), true,
+                                pedidoRepository.cambiarEstado(fila.getPedidoId(), EstadoPedido.CANCELADO.name(),
+                                        EstadoPedido.CANCELADO.anteriores())))
+                .as(transactionalOperator::transactional)
+                .doOnNext(eventos::estadoCambiado) // El feed SSE se entera de la cancelación
+                .map(cancelado -> 1)
+                .defaultIfEmpty(0) // Pedidos cancelados
+                .doOnSuccess(ignorado -> contar("fallido"));
+    }
+
+    Duration espera(int intentos) {
+        Duration espera = properties.getBackoffInicial().multipliedBy(1L << Math.min(intentos - 1, 20));
+        return espera.compareTo(properties.getBackoffMaximo()) > 0 ? properties.getBackoffMaximo() : espera;
+    }
+
+    private void contar(String resultado) {
+        meterRegistry.counter("pedidos.outbox.stock", "resultado", resultado).increment();
+    }
+
+    // ultimo_error es VARCHAR(500)
+    private static String recortar(String texto) {
+        return texto.length() <= 500 ? texto : texto.substring(0, 500);
+    }
+}
@@ -1,9 +1,15 @@
 package com.example.ms_pedidos.service;
 
+import com.example.ms_pedidos.dto.FiltroPedidosDTO;
+import com.example.ms_pedidos.model.EstadoPedido;
 import com.example.ms_pedidos.model.Pedido;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.function.Predicate;
+
 /**
  * Define la lógica de negocio para el ms-pedidos
  *  Basado en la parte ded Tarea 3.6
@@ -13,15 +19,46 @@ public interface PedidoService {
     // GET /api/pedidos
     Flux<Pedido> findAll();
 
+    // GET /api/pedidos?limit={limit}&after={id} (paginación por cursor sobre el id)
+    Flux<Pedido> findPage(Long after, int limit);
+
+    // GET /api/pedidos/buscar?cliente=&estado=&desde=&hasta=&totalMin=&totalMax=&limit=&after= (filtro en la BD, con cursor)
+    Flux<Pedido> buscar(FiltroPedidosDTO filtro, Long after, int limit);
+
+    // GET /api/pedidos (Accept: application/x-ndjson)
+    Flux<Pedido> streamAll();
+
     // GET /api/pedidos/{id}
     Mono<Pedido> findById(Long id);
 
+    // GET /api/pedidos/{id} con If-None-Match: si sinCambios da true el pedido vuelve sin detalles (para el 304)
+    Mono<Pedido> findById(Long id, Predicate<Pedido> sinCambios);
+
     // POST /api/pedidos (crear pedido)
     Mono<Pedido> createPedido(Pedido pedido);
 
-    // PUT /api/pedidos/{id}/estado
-    Mono<Pedido> updateEstado(Long id, String estado);
+    // POST /api/pedidos con cabecera Idempotency-Key: un reintento del mismo usuario (sujeto) con la misma
+    // clave y el mismo cuerpo devuelve el mismo pedido; con otro cuerpo, ClaveIdempotenciaReutilizadaException
+    Mono<Pedido> createPedido(Pedido pedido, String sujeto, String idempotencyKey);
+
+    // POST /api/pedidos?async=true: guarda el pedido PENDIENTE sin validar; lo procesa ProcesadorPedidosAsync
+    Mono<Pedido> aceptarPedido(Pedido pedido, String sujeto, String idempotencyKey);
+
+    // Valida, pone precios y reserva stock de un pedido aceptado en modo async (PROCESADO o CANCELADO)
+    Mono<Pedido> procesarPedidoAceptado(Long id);
+
+    // Cancela un aceptado que pasó pedidos.async.plazo-maximo sin poder procesarse (vacío si ya no está sin procesar)
+    Mono<Pedido> cancelarAceptadoVencido(Long id);
+
+    // PUT /api/pedidos/{id}/estado (los detalles sólo se cargan si conDetalles)
+    Mono<Pedido> updateEstado(Long id, EstadoPedido estado, boolean conDetalles);
 
     // DELETE /api/pedidos/{id}
     Mono<Void> deletePedido(Long id);
+
+    // DELETE /api/pedidos?ids=1,2,3 (devuelve cuántos pedidos se borraron)
+    Mono<Long> deletePedidos(Collection<Long> ids);
+
+    // DELETE /api/pedidos?desde={fecha}&hasta={fecha}
+    Mono<Long> deletePedidosByFecha(LocalDateTime desde, LocalDateTime hasta);
 }
\ No newline at end of file
@@ -1,19 +1,48 @@
 package com.example.ms_pedidos.service;
 
 import com.example.ms_pedidos.client.ProductoClient;
+import com.example.ms_pedidos.config.ProductosProperties;
+import com.example.ms_pedidos.dto.FiltroPedidosDTO;
+import com.example.ms_pedidos.dto.ProductoDTO;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.model.Dinero;
+import com.example.ms_pedidos.model.EstadoPedido;
 import com.example.ms_pedidos.model.Pedido;
 import com.example.ms_pedidos.model.DetallePedido;
+import com.example.ms_pedidos.model.OutboxStock;
 import com.example.ms_pedidos.repository.DetallePedidoRepository;
+import com.example.ms_pedidos.repository.IdempotenciaPedidoRepository;
+import com.example.ms_pedidos.repository.OutboxStockRepository;
 import com.example.ms_pedidos.repository.PedidoRepository;
+import com.example.ms_pedidos.repository.ResumenPedidosRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
-import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
 @Service
 public class PedidoServiceImpl implements PedidoService {
@@ -25,18 +54,103 @@ public class PedidoServiceImpl implements PedidoService {
     private DetallePedidoRepository detallePedidoRepository;
 
     @Autowired
-    private ProductoClient productoClient; // Nuestro cliente reactivo
+    private IdempotenciaPedidoRepository idempotenciaRepository;
 
+    @Autowired
+    private OutboxStockRepository outboxRepository;
+
+    // Resúmenes diarios de los reportes: se actualizan en la misma transacción que el pedido
+    @Autowired
+    private ResumenPedidosRepository resumenRepository;
+
+    // Feed SSE de altas y cambios de estado (GET /api/pedidos/eventos)
+    @Autowired
+    private PublicadorEventosPedido eventos;
+
+    @Autowired
+    private ProductoClient productoClient; // Nuestro cliente reactivo (con circuit breaker, ver ProductoClientConfig)
+
+    // Transacción reactiva explícita sobre R2DBC (ver TransactionConfig)
+    @Autowired
+    private TransactionalOperator transactionalOperator;
+
+    @Autowired
+    private ProductosProperties productosProperties;
 
-    // CircuitBreaker
+    // Histogramas de latencia por etapa de createPedido
     @Autowired
-    private ReactiveCircuitBreakerFactory cbFactory;
+    private MeterRegistry meterRegistry;
+
+    // Cantidad de pedidos cuyos detalles se cargan con una sola consulta IN
+    static final int LOTE_DETALLES = 500;
+
+    // Tamaño máximo de página permitido en la paginación por cursor
+    static final int LIMITE_MAXIMO_PAGINA = 500;
+
+    // Lote pequeño en streaming: cada pedido sale apenas se cargan sus detalles
+    static final int LOTE_STREAMING = 32;
+
+    // Cantidad de pedidos que se borran por sentencia en los borrados masivos
+    static final int LOTE_BORRADO = 500;
+
+    // Creaciones en curso por usuario + Idempotency-Key: los duplicados simultáneos esperan la misma
+    private final Map<ClaveIdempotencia, CreacionEnVuelo> creacionesEnVuelo = new ConcurrentHashMap<>();
+
+    // Idempotency-Key de un usuario (sub del JWT): la misma clave de otro usuario es otra clave
+    private record ClaveIdempotencia(String sujeto, String clave) {
+    }
+
+    // Creación en curso y la huella del cuerpo con el que se empezó
+    private record CreacionEnVuelo(String huella, Mono<Pedido> resultado) {
+    }
+
+    // La clave ya la registró otra petición (otra instancia) dentro de su transacción
+    private static class ClaveIdempotenciaUsadaException extends RuntimeException {
+    }
+
+    // Rechazo de negocio (producto inexistente, stock insuficiente): reintentar no lo arregla
+    static class PedidoRechazadoException extends RuntimeException {
+        PedidoRechazadoException(String mensaje) {
+            super(mensaje);
+        }
+    }
 
     @Override
     public Flux<Pedido> findAll() {
-        // Busca  los pedidos y para cada uno, carga sus detalles
+        // Busca los pedidos y carga sus detalles por lotes:
+        // una consulta de detalles por cada LOTE_DETALLES pedidos (evita el N+1)
         return pedidoRepository.findAll()
-                .flatMap(this::loadDetalles);
+                .buffer(LOTE_DETALLES)
+                .concatMap(this::loadDetalles);
+    }
+
+    @Override
+    public Flux<Pedido> findPage(Long after, int limit) {
+        // Keyset: pide sólo los pedidos con id > after, nunca hace OFFSET
+        int tamano = Math.max(1, Math.min(limit, LIMITE_MAXIMO_PAGINA));
+        long cursor = after == null ? 0L : after;
+        return pedidoRepository.findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, tamano))
+                .collectList()
+                .flatMapMany(this::loadDetalles);
+    }
+
+    @Override
+    public Flux<Pedido> buscar(FiltroPedidosDTO filtro, Long after, int limit) {
+        // El filtro va en el WHERE (con índice), no en el cliente; misma paginación por cursor que findPage
+        int tamano = Math.max(1, Math.min(limit, LIMITE_MAXIMO_PAGINA));
+        long cursor = after == null ? 0L : after;
+        return pedidoRepository.buscar(filtro, cursor, tamano)
+                .collectList()
+                .flatMapMany(this::loadDetalles);
+    }
+
+    @Override
+    public Flux<Pedido> streamAll() {
+        // concatMap con prefetch 1: sólo se piden más filas al cursor R2DBC
+        // cuando el cliente consumió el lote anterior (backpressure de punta a punta)
+        return pedidoRepository.findAll(Sort.by("id"))
+                .buffer(LOTE_STREAMING)
+                .concatMap(this::loadDetalles, 1);
     }
 
     @Override
@@ -46,6 +160,13 @@ public class PedidoServiceImpl implements PedidoService {
                 .flatMap(this::loadDetalles);
     }
 
+    @Override
+    public Mono<Pedido> findById(Long id, Predicate<Pedido> sinCambios) {
+        // Primero sólo la fila del pedido (trae la versión): si el cliente ya lo tiene, los detalles ni se leen
+        return pedidoRepository.findById(id)
+                .flatMap(pedido -> sinCambios.test(pedido) ? Mono.just(pedido) : loadDetalles(pedido));
+    }
+
     /**
      * Tarea 3.5 Lógica de negocio para crear un pedido
      *  Validar Stock de cada producto
@@ -54,86 +175,360 @@ public class PedidoServiceImpl implements PedidoService {
      *  Actualizar Stock en ms-productos
      */
     @Override
-    @Transactional // Para asegurar que todo se guarde (o nada lo haga)
     public Mono<Pedido> createPedido(Pedido pedido) {
+        return crearPedido(pedido, null, null);
+    }
+
+    // POST /api/pedidos con Idempotency-Key (ver idempotente)
+    @Override
+    public Mono<Pedido> createPedido(Pedido pedido, String sujeto, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return crearPedido(pedido, null, null);
+        }
+        return idempotente(new ClaveIdempotencia(sujeto, idempotencyKey), huella(pedido),
+                (clave, huella) -> crearPedido(pedido, clave, huella));
+    }
+
+    /**
+     * Modo async: el pedido se guarda tal cual llega (PENDIENTE, sin precios ni total) y se
+     * responde enseguida. La validación la hace después procesarPedidoAceptado.
+     * La Idempotency-Key se respeta igual que en createPedido.
+     */
+    @Override
+    public Mono<Pedido> aceptarPedido(Pedido pedido, String sujeto, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return aceptar(pedido, null, null);
+        }
+        // La huella se calcula antes de aceptar(), que limpia precios y total
+        return idempotente(new ClaveIdempotencia(sujeto, idempotencyKey), huella(pedido),
+                (clave, huella) -> aceptar(pedido, clave, huella));
+    }
+
+    /**
+     * Creación idempotente: la clave se guarda junto con el pedido (misma transacción).
+     *  - Reintento de una clave ya usada: se devuelve el pedido creado, sin validar ni reservar de nuevo
+     *  - Duplicado mientras la primera sigue en curso (misma instancia): comparte su resultado
+     *  - Duplicado simultáneo en otra instancia: el INSERT de la clave choca, se hace rollback
+     *    de ese intento y se devuelve el pedido del ganador
+     *  - La clave es de cada usuario; la misma clave con otro cuerpo (otra huella) es un error
+     *    (ClaveIdempotenciaReutilizadaException, 422), nunca el pedido de la primera vez
+     */
+    private Mono<Pedido> idempotente(ClaveIdempotencia clave, String huella,
+                                     BiFunction<ClaveIdempotencia, String, Mono<Pedido>> creacion) {
+        return Mono.defer(() -> {
+            CreacionEnVuelo enVuelo = creacionesEnVuelo.computeIfAbsent(clave, k -> new CreacionEnVuelo(huella, pedidoDeLaClave(k, huella)
+                    .switchIfEmpty(Mono.defer(() -> creacion.apply(k, huella)))
+                    .onErrorResume(ClaveIdempotenciaUsadaException.class, error -> pedidoDeLaClave(k, huella))
+                    .doFinally(senal -> creacionesEnVuelo.remove(k))
+                    .cache()));
+            return enVuelo.huella().equals(huella)
+                    ? enVuelo.resultado()
+                    : Mono.error(new ClaveIdempotenciaReutilizadaException(clave.clave()));
+        });
+    }
+
+    // Respuesta ya guardada para la clave: el pedido creado la primera vez (si el cuerpo es el mismo)
+    private Mono<Pedido> pedidoDeLaClave(ClaveIdempotencia clave, String huella) {
+        return idempotenciaRepository.findBySujetoAndClave(clave.sujeto(), clave.clave())
+                .flatMap(guardada -> guardada.getHuella().equals(huella)
+                        ? findById(guardada.getPedidoId())
+                        : Mono.error(new ClaveIdempotenciaReutilizadaException(clave.clave())));
+    }
+
+    // SHA-256 (hex) de lo que define el pedido: cliente y líneas en el orden en que llegaron
+    static String huella(Pedido pedido) {
+        StringBuilder cuerpo = new StringBuilder(String.valueOf(pedido.getCliente()));
+        if (pedido.getDetalles() != null) {
+            pedido.getDetalles().forEach(detalle -> cuerpo.append('|')
+                    .append(detalle.getProductoId()).append(':').append(detalle.getCantidad()));
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(cuerpo.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Toda JVM trae SHA-256
+        }
+    }
+
+    private Mono<Pedido> crearPedido(Pedido pedido, ClaveIdempotencia idempotencia, String huella) {
         // 1. Validar productos y calcular precios
-        Mono<Pedido> pedidoValidado = Flux.fromIterable(pedido.getDetalles())
-                .flatMap(detalle -> {
-                    // Llama a ms-productos para obtener info del producto
-                    // 1. Creamos el cortacircuitos usando el nombre del .yml
-                    ReactiveCircuitBreaker cb = cbFactory.create("productos-cb");
-                    return productoClient.obtenerProducto(detalle.getProductoId())
-                            .switchIfEmpty(Mono.error(new RuntimeException("Producto no encontrado: " + detalle.getProductoId())))
-                            .flatMap(productoDTO -> {
-                                // Tarea 3.5: Validar disponibilidad
-                                if (productoDTO.getStock() < detalle.getCantidad()) {
-                                    return Mono.error(new RuntimeException("Stock insuficiente para: " + productoDTO.getNombre()));
-                                }
-                                // Tarea 3.5: Usamos el precio de la BD, no el del cliente
-                                detalle.setPrecioUnitario(productoDTO.getPrecio());
-                                return Mono.just(detalle);
-                            });
-                })
-                .collectList() // Vuelve a juntar todos los detalles validados
-                .flatMap(detallesValidados -> {
-                    // Tarea 3.5: Calcular totales
-                    double total = detallesValidados.stream()
-                            .mapToDouble(d -> d.getPrecioUnitario() * d.getCantidad())
-                            .sum();
+        Mono<Pedido> pedidoValidado = validar(pedido)
+                .map(validado -> {
+                    validado.setFecha(LocalDateTime.now());
+                    validado.setEstado(EstadoPedido.PENDIENTE); // Estado inicial
+                    validado.setVersion(null); // Pedido nuevo: @Version la inicia en 0 al insertar
+                    return validado;
+                });
+
+        // 2. Guardar Pedido y Detalles, y  Actualizar Stock
+        // La validación queda fuera de la transacción: no se ocupa una conexión esperando a ms-productos
+        return medir("validacion", pedidoValidado)
+                .flatMap(p -> medir("persistencia", guardar(p, idempotencia, huella)
+                        .flatMap(this::registrarReserva)
+                        .flatMap(guardado -> resumenRepository.sumar(List.of(guardado.getId()), true).thenReturn(guardado))
+                        // Para asegurar que todo se guarde (o nada lo haga): misma conexión, misma transacción
+                        .as(transactionalOperator::transactional)))
+                .doOnNext(eventos::creado); // Recién después del commit
+    }
+
+    private Mono<Pedido> aceptar(Pedido pedido, ClaveIdempotencia idempotencia, String huella) {
+        // Los precios y el total los pone el worker con los datos de ms-productos, nunca los del cliente
+        pedido.getDetalles().forEach(detalle -> detalle.setPrecioUnitario(null));
+        pedido.setTotal(null);
+        pedido.setFecha(LocalDateTime.now());
+        pedido.setEstado(EstadoPedido.PENDIENTE);
+        pedido.setVersion(null); // Pedido nuevo: @Version la inicia en 0 al insertar
+        return medir("aceptacion", guardar(pedido, idempotencia, huella)
+                // Sin precios todavía: sólo cuenta en el resumen por estado
+                .flatMap(guardado -> resumenRepository.sumar(List.of(guardado.getId()), false).thenReturn(guardado))
+                .as(transactionalOperator::transactional))
+                .doOnNext(eventos::creado);
+    }
+
+    /**
+     * Segunda mitad del modo async (la corre ProcesadorPedidosAsync): valida, calcula precios y
+     * registra la reserva de stock, y pasa el pedido a PROCESADO. Si un producto no existe o no
+     * alcanza el stock queda CANCELADO. Ante un error transitorio (ms-productos caído, timeout)
+     * el pedido sigue PENDIENTE y se vuelve a encolar más tarde.
+     * Procesarlo dos veces (reencolado, otra instancia) no duplica nada: el UPDATE condicional
+     * sólo lo completa quien llega primero.
+     */
+    @Override
+    public Mono<Pedido> procesarPedidoAceptado(Long id) {
+        return findById(id)
+                .filter(PedidoServiceImpl::aceptadoSinProcesar)
+                .flatMap(pedido -> medir("validacion", validar(pedido))
+                        .flatMap(validado -> resumenRepository.recalcular(List.of(id), true,
+                                        pedidoRepository.completarAceptado(validado.getId(), validado.getTotal())
+                                                .flatMap(completados -> completados == 0
+                                                        ? Mono.<Pedido>empty() // Ya lo procesó otro
+                                                        : detallePedidoRepository.actualizarPrecios(validado.getId(), precios(validado))
+                                                                .then(registrarReserva(validado))
+                                                                .doOnNext(procesado -> procesado.setEstado(EstadoPedido.PROCESADO))))
+                                .as(transactionalOperator::transactional))
+                        .onErrorResume(PedidoRechazadoException.class, error -> cancelarAceptado(pedido)))
+                .doOnNext(eventos::estadoCambiado);
+    }
+
+    @Override
+    public Mono<Pedido> cancelarAceptadoVencido(Long id) {
+        return findById(id)
+                .filter(PedidoServiceImpl::aceptadoSinProcesar)
+                .flatMap(this::cancelarAceptado)
+                .doOnNext(eventos::estadoCambiado);
+    }
+
+    // PENDIENTE -> CANCELADO de un aceptado sin procesar (si otro ya lo procesó o canceló, vacío)
+    private Mono<Pedido> cancelarAceptado(Pedido pedido) {
+        return resumenRepository.recalcular(List.of(pedido.getId()), false,
+                        pedidoRepository.cancelarAceptado(pedido.getId())
+                                .flatMap(cancelados -> cancelados == 0 ? Mono.<Pedido>empty() : Mono.fromSupplier(() -> {
+                                    pedido.setEstado(EstadoPedido.CANCELADO);
+                                    return pedido;
+                                })))
+                .as(transactionalOperator::transactional);
+    }
+
+    // Aceptado en modo async y todavía sin validar (el total recién se calcula al procesarlo)
+    static boolean aceptadoSinProcesar(Pedido pedido) {
+        return pedido.getEstado() == EstadoPedido.PENDIENTE && pedido.getTotal() == null;
+    }
+
+    /**
+     * Tarea 3.5 Validar Stock de cada producto y Calcular Total.
+     * Deja en el pedido los precios de ms-productos y el total.
+     */
+    private Mono<Pedido> validar(Pedido pedido) {
+        // Una sola búsqueda (por lotes) en ms-productos para todas las líneas del pedido
+        List<Long> productoIds = pedido.getDetalles().stream()
+                .map(DetallePedido::getProductoId)
+                .toList();
+        return productoClient.obtenerProductos(productoIds)
+                // Plazo máximo para validar el pedido: una instancia lenta de ms-productos no lo retiene indefinidamente
+                .timeout(productosProperties.getValidacion().getDeadline())
+                .onErrorMap(TimeoutException.class, error ->
+                        new RuntimeException("Tiempo de validación agotado para el pedido", error))
+                .flatMap(productos -> {
+                    // Precio de cada producto en centavos, una vez por producto (no por línea)
+                    Map<Long, Long> centavos = new HashMap<>(productos.size() * 2);
+                    productos.forEach((productoId, producto) -> centavos.put(productoId, Dinero.centavos(producto.getPrecio())));
+
+                    // Tarea 3.5: Calcular totales. Un long de centavos: exacto y sin un objeto por línea
+                    long total = 0;
+                    for (DetallePedido detalle : pedido.getDetalles()) {
+                        ProductoDTO productoDTO = productos.get(detalle.getProductoId());
+                        if (productoDTO == null) {
+                            return Mono.<Pedido>error(new PedidoRechazadoException("Producto no encontrado: " + detalle.getProductoId()));
+                        }
+                        // Tarea 3.5: Validar disponibilidad
+                        if (productoDTO.getStock() < detalle.getCantidad()) {
+                            return Mono.<Pedido>error(new PedidoRechazadoException("Stock insuficiente para: " + productoDTO.getNombre()));
+                        }
+                        // Tarea 3.5: Usamos el precio de la BD, no el del cliente
+                        long precio = centavos.get(detalle.getProductoId());
+                        detalle.setPrecioUnitario(productoDTO.getPrecio().setScale(Dinero.ESCALA, RoundingMode.HALF_UP));
+                        total = Math.addExact(total, Dinero.linea(precio, detalle.getCantidad()));
+                    }
 
                     // Asignar valores al pedido
-                    pedido.setTotal(total);
-                    pedido.setDetalles(detallesValidados); // Asigna los detalles validados
-                    pedido.setFecha(LocalDateTime.now());
-                    pedido.setEstado("PENDIENTE"); // Estado inicial
+                    pedido.setTotal(Dinero.importe(total));
                     return Mono.just(pedido);
                 });
+    }
 
-        // 2. Guardar Pedido y Detalles, y  Actualizar Stock
-        return pedidoValidado
-                .flatMap(p -> pedidoRepository.save(p)) // Guarda el Pedido para obtener un ID
-                .flatMap(savedPedido ->
-                        // Asigna nuevo ID del pedido a cada detalle
-                        Flux.fromIterable(savedPedido.getDetalles())
-                                .flatMap(detalle -> {
-                                    detalle.setPedidoId(savedPedido.getId());
-                                    return detallePedidoRepository.save(detalle); // Guarda cada detalle
-                                })
-                                .collectList() // Junta los detalles guardados
-                                .map(savedDetalles -> {
-                                    savedPedido.setDetalles(savedDetalles); // Asigna los detalles finales al pedido
-                                    return savedPedido;
-                                })
-                )
-                .flatMap(savedPedidoConDetalles -> {
-                    // Tarea 3.5: Actualizar stock de productos
-                    // (Llama al procedimiento almacenado de ms-productos)
-                    return Flux.fromIterable(savedPedidoConDetalles.getDetalles())
-                            .flatMap(detalle ->
-                                    // Llama a: PUT /api/productos/{id}/stock?cantidad={cantidad}
-                                    productoClient.actualizarStock(detalle.getProductoId(), detalle.getCantidad())
-                            )
-                            .then(Mono.just(savedPedidoConDetalles)); // Devuelve el pedido completo
+    // Precio unitario validado de cada producto del pedido
+    private static Map<Long, BigDecimal> precios(Pedido pedido) {
+        Map<Long, BigDecimal> precios = new LinkedHashMap<>();
+        pedido.getDetalles().forEach(detalle -> precios.put(detalle.getProductoId(), detalle.getPrecioUnitario()));
+        return precios;
+    }
+
+    /**
+     * Registra la latencia de una etapa de createPedido en el histograma
+     * pedidos.creacion.etapa (tags: etapa, resultado), visible en el actuator.
+     */
+    private <T> Mono<T> medir(String etapa, Mono<T> mono) {
+        return Mono.defer(() -> {
+            Timer.Sample muestra = Timer.start(meterRegistry);
+            return mono.doFinally(senal -> muestra.stop(Timer.builder("pedidos.creacion.etapa")
+                    .tag("etapa", etapa)
+                    .tag("resultado", switch (senal) {
+                        case ON_COMPLETE -> "ok";
+                        case ON_ERROR -> "error";
+                        default -> "cancelado";
+                    })
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)));
+        });
+    }
+
+    /**
+     * Guarda el pedido y sus detalles (y la Idempotency-Key con la huella, si vino).
+     * Se ejecuta dentro de la transacción de quien lo llama: o queda todo guardado, o nada.
+     */
+    private Mono<Pedido> guardar(Pedido pedido, ClaveIdempotencia idempotencia, String huella) {
+        return pedidoRepository.save(pedido) // Guarda el Pedido para obtener un ID
+                // La clave va primero: si ya existe no se insertan detalles ni la reserva
+                .flatMap(savedPedido -> idempotencia == null
+                        ? Mono.just(savedPedido)
+                        : idempotenciaRepository.insertar(idempotencia.sujeto(), idempotencia.clave(), huella, savedPedido.getId())
+                                .flatMap(insertadas -> insertadas == 0
+                                        ? Mono.<Pedido>error(new ClaveIdempotenciaUsadaException())
+                                        : Mono.just(savedPedido)))
+                .flatMap(savedPedido -> {
+                    // Asigna nuevo ID del pedido a cada detalle
+                    savedPedido.getDetalles().forEach(detalle -> detalle.setPedidoId(savedPedido.getId()));
+                    // Guarda todos los detalles con un INSERT multi-fila (no uno por línea)
+                    return detallePedidoRepository.insertAll(savedPedido.getDetalles())
+                            .collectList() // Junta los detalles guardados
+                            .map(savedDetalles -> {
+                                savedPedido.setDetalles(savedDetalles); // Asigna los detalles finales al pedido
+                                return savedPedido;
+                            });
                 });
     }
 
+    /**
+     * Tarea 3.5: Actualizar stock de productos.
+     * No se llama a ms-productos acá: la reserva queda en el outbox (misma transacción que
+     * el pedido) y OutboxStockRelay la envía después del commit.
+     */
+    private Mono<Pedido> registrarReserva(Pedido pedido) {
+        return outboxRepository.save(OutboxStock.pendiente(pedido.getId(), itemsReserva(pedido)))
+                .thenReturn(pedido); // Devuelve el pedido completo
+    }
+
+    /**
+     * Arma las líneas de la reserva de stock: una por producto,
+     * sumando las cantidades si el producto se repite en el pedido.
+     */
+    private List<ReservaStockItemDTO> itemsReserva(Pedido pedido) {
+        Map<Long, Integer> cantidades = new LinkedHashMap<>();
+        for (DetallePedido detalle : pedido.getDetalles()) {
+            cantidades.merge(detalle.getProductoId(), detalle.getCantidad(), Integer::sum);
+        }
+        List<ReservaStockItemDTO> items = new ArrayList<>(cantidades.size());
+        cantidades.forEach((productoId, cantidad) -> items.add(new ReservaStockItemDTO(productoId, cantidad)));
+        return items;
+    }
+
+    /**
+     * Un solo UPDATE ... WHERE estado IN (...) RETURNING: cambia el estado sólo si el actual
+     * lo permite (EstadoPedido), sin leer el pedido antes ni reescribir la fila entera.
+     * Dos cambios simultáneos no se pisan: el segundo ya no encuentra el estado esperado.
+     * Sólo si el UPDATE no toca nada se lee el pedido, para distinguir 404 de 409.
+     * Un aceptado async que el worker todavía no procesó no puede pasar a PROCESADO a mano (409).
+     * El resumen por estado se mueve en la misma transacción; las ventas sólo cambian al cancelar.
+     */
     @Override
-    public Mono<Pedido> updateEstado(Long id, String estado) {
-        return pedidoRepository.findById(id)
-                .flatMap(pedido -> {
-                    pedido.setEstado(estado);
-                    return pedidoRepository.save(pedido);
-                })
-                .flatMap(this::loadDetalles); // Recarga los detalles para la respuesta
+    public Mono<Pedido> updateEstado(Long id, EstadoPedido estado, boolean conDetalles) {
+        return resumenRepository.recalcular(List.of(id), estado == EstadoPedido.CANCELADO,
+                        pedidoRepository.cambiarEstado(id, estado.name(), estado.anteriores()))
+                .switchIfEmpty(Mono.defer(() -> pedidoRepository.findById(id)
+                        .flatMap(actual -> Mono.<Pedido>error(new TransicionEstadoInvalidaException(id, actual.getEstado(), estado)))))
+                .as(transactionalOperator::transactional) // Con 409 el rollback deshace también el resumen
+                .doOnNext(eventos::estadoCambiado)
+                // Los detalles no cambian con el estado: sólo se cargan si el cliente los pide
+                .flatMap(pedido -> conDetalles ? loadDetalles(pedido) : Mono.just(pedido));
     }
 
     @Override
     public Mono<Void> deletePedido(Long id) {
         // (En R2DBC no hay cascade delete automático)
-        // Primero borra los detalles, luego el pedido
-        return detallePedidoRepository.findByPedidoId(id)
-                .flatMap(detalle -> detallePedidoRepository.delete(detalle))
-                .then(pedidoRepository.deleteById(id));
+        // Primero borra los detalles (un solo DELETE ... WHERE pedido_id), luego el pedido
+        // Antes lo saca de los resúmenes (con la fila bloqueada, así nadie le cambia el estado a mitad)
+        List<Long> ids = List.of(id);
+        return resumenRepository.bloquear(ids)
+                .then(resumenRepository.restar(ids, true))
+                .then(detallePedidoRepository.deleteByPedidoId(id))
+                .then(pedidoRepository.deleteById(id))
+                .as(transactionalOperator::transactional);
+    }
+
+    @Override
+    public Mono<Long> deletePedidos(Collection<Long> ids) {
+        return borrarPorLotes(Flux.fromIterable(new LinkedHashSet<>(ids)));
+    }
+
+    @Override
+    public Mono<Long> deletePedidosByFecha(LocalDateTime desde, LocalDateTime hasta) {
+        return borrarPorFecha(desde, hasta, 0L, 0L);
+    }
+
+    /**
+     * Un tramo por vez, por keyset (ids después del último borrado): cada tramo se lee entero
+     * ANTES de abrir su transacción, así no queda un cursor abierto en otra conexión mientras
+     * se borra, y los pedidos del rango que entren durante el borrado también se ven.
+     */
+    private Mono<Long> borrarPorFecha(LocalDateTime desde, LocalDateTime hasta, long despuesDe, long borradosAntes) {
+        return pedidoRepository.findIdsByFecha(desde, hasta, despuesDe, LOTE_BORRADO)
+                .collectList()
+                .flatMap(tramo -> tramo.isEmpty()
+                        ? Mono.just(borradosAntes)
+                        : borrarTramo(tramo).flatMap(borrados -> tramo.size() < LOTE_BORRADO
+                                ? Mono.just(borradosAntes + borrados)
+                                : borrarPorFecha(desde, hasta, tramo.get(tramo.size() - 1), borradosAntes + borrados)));
+    }
+
+    /**
+     * Borra pedidos en tramos de LOTE_BORRADO ids: dos sentencias por tramo
+     * (detalles y pedidos con WHERE ... IN) en lugar de N+2 por pedido,
+     * más el bloqueo y la resta de los resúmenes, también por tramo.
+     */
+    private Mono<Long> borrarPorLotes(Flux<Long> ids) {
+        return ids.buffer(LOTE_BORRADO)
+                .concatMap(this::borrarTramo)
+                .reduce(0L, (total, borrados) -> total + borrados);
+    }
+
+    // Una transacción por tramo: nunca quedan detalles huérfanos ni pedidos sin detalles
+    private Mono<Long> borrarTramo(List<Long> lote) {
+        return resumenRepository.bloquear(lote)
+                .then(resumenRepository.restar(lote, true))
+                .then(detallePedidoRepository.deleteByPedidoIdIn(lote))
+                .then(pedidoRepository.deleteByIdIn(lote))
+                .map(Integer::longValue)
+                .as(transactionalOperator::transactional);
     }
 
     /**
@@ -148,4 +543,22 @@ public class PedidoServiceImpl implements PedidoService {
                     return pedido;
                 });
     }
+
+    /**
+     * Version por lotes de loadDetalles: trae los detalles de todos los pedidos
+     * del lote en una sola consulta y los reparte por pedidoId.
+     * Respeta el orden original de los pedidos.
+     */
+    private Flux<Pedido> loadDetalles(List<Pedido> pedidos) {
+        List<Long> ids = pedidos.stream().map(Pedido::getId).toList();
+        return detallePedidoRepository.findByPedidoIdIn(ids)
+                .collectMultimap(DetallePedido::getPedidoId)
+                .flatMapIterable(detallesPorPedido -> {
+                    for (Pedido pedido : pedidos) {
+                        Collection<DetallePedido> detalles = detallesPorPedido.get(pedido.getId());
+                        pedido.setDetalles(detalles == null ? new ArrayList<>() : new ArrayList<>(detalles));
+                    }
+                    return pedidos;
+                });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,202 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.config.PedidosAsyncProperties;
+import com.example.ms_pedidos.config.TokenContextWebFilter;
+import com.example.ms_pedidos.model.Pedido;
+import com.example.ms_pedidos.repository.PedidoRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cola acotada + workers del modo async de POST /api/pedidos?async=true.
+ *  - encolar: no bloquea; con la cola llena el pedido queda PENDIENTE (ya está guardado)
+ *    y lo retoma el reencolado periódico
+ *  - Un pedido que ya está en la cola o en un worker no se encola de nuevo
+ *  - Como mucho "workers" pedidos se procesan a la vez (flatMap con concurrencia acotada)
+ *  - El token de la petición que aceptó el pedido viaja con él: las llamadas a ms-productos
+ *    del worker salen con el mismo Authorization (el reencolado no tiene token; ahí sirve el
+ *    client-credentials, obligatorio: ver ProductoClientConfig)
+ *  - Un aceptado que pasa pedidos.async.plazo-maximo sin poder procesarse se cancela en vez de
+ *    reencolarse otra vez
+ * Métricas: pedidos.async.cola (profundidad), pedidos.async.workers.activos y
+ * pedidos.async.workers.utilizacion, pedidos.async.espera (tiempo en cola),
+ * pedidos.async.desbordes (encolados rechazados por cola llena) y pedidos.async.vencidos.
+ */
+@Component
+public class ProcesadorPedidosAsync {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcesadorPedidosAsync.class);
+
+    @Autowired
+    private PedidoService service;
+
+    @Autowired
+    private PedidoRepository pedidoRepository;
+
+    @Autowired
+    private PedidosAsyncProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger enCola = new AtomicInteger();
+
+    private final AtomicInteger activos = new AtomicInteger();
+
+    // Pedidos en la cola o en un worker: el reencolado (o un reintento del POST) no los vuelve
+    // a meter, así no se validan dos veces contra ms-productos
+    private final Set<Long> enCurso = ConcurrentHashMap.newKeySet();
+
+    private Sinks.Many<Trabajo> cola;
+
+    private Disposable workers;
+
+    private Timer espera;
+
+    // Un pedido esperando: cuándo entró y con qué cabecera Authorization (puede ser null)
+    private record Trabajo(Long pedidoId, String authorization, long encolado) {
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        // La capacidad la controla enCola; la cola del sink no necesita límite propio
+        cola = Sinks.many().unicast().onBackpressureBuffer(Queues.<Trabajo>unboundedMultiproducer().get());
+        espera = Timer.builder("pedidos.async.espera")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("pedidos.async.cola", enCola, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("pedidos.async.workers.activos", activos, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("pedidos.async.workers.utilizacion", activos, valor -> (double) valor.get() / properties.getWorkers())
+                .register(meterRegistry);
+        workers = cola.asFlux()
+                .flatMap(this::procesar, properties.getWorkers())
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void detener() {
+        if (workers != null) {
+            workers.dispose();
+        }
+    }
+
+    /**
+     * Encola un pedido recién aceptado (si sigue sin procesar). Completa enseguida:
+     * nunca espera a que haya lugar en la cola.
+     */
+    public Mono<Void> encolar(Pedido pedido) {
+        if (!PedidoServiceImpl.aceptadoSinProcesar(pedido)) {
+            return Mono.empty(); // Reintento idempotente de un pedido que ya se procesó
+        }
+        return Mono.deferContextual(contexto -> {
+            encolar(pedido.getId(), contexto.<String>getOrEmpty(TokenContextWebFilter.AUTHORIZATION).orElse(null));
+            return Mono.<Void>empty();
+        });
+    }
+
+    boolean encolar(Long pedidoId, String authorization) {
+        if (!enCurso.add(pedidoId)) {
+            log.debug("El pedido async {} ya está en la cola o procesándose", pedidoId);
+            return false;
+        }
+        if (enCola.incrementAndGet() > properties.getCapacidad()) {
+            enCola.decrementAndGet();
+            enCurso.remove(pedidoId);
+            meterRegistry.counter("pedidos.async.desbordes").increment();
+            log.warn("Cola de pedidos async llena, el pedido {} queda para el reencolado", pedidoId);
+            return false;
+        }
+        Trabajo trabajo = new Trabajo(pedidoId, authorization, System.nanoTime());
+        Sinks.EmitResult resultado;
+        // Varias peticiones pueden encolar a la vez: el sink rechaza la emisión concurrente, se reintenta
+        while ((resultado = cola.tryEmitNext(trabajo)) == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+            Thread.onSpinWait();
+        }
+        if (resultado.isFailure()) {
+            enCola.decrementAndGet();
+            enCurso.remove(pedidoId);
+            log.warn("No se pudo encolar el pedido {}: {}", pedidoId, resultado);
+            return false;
+        }
+        return true;
+    }
+
+    private Mono<Pedido> procesar(Trabajo trabajo) {
+        enCola.decrementAndGet();
+        espera.record(System.nanoTime() - trabajo.encolado(), TimeUnit.NANOSECONDS);
+        activos.incrementAndGet();
+        // defer: una excepción al armar el Mono no debe tumbar el flatMap de los workers
+        return Mono.defer(() -> service.procesarPedidoAceptado(trabajo.pedidoId()))
+                .contextWrite(contexto -> trabajo.authorization() == null
+                        ? contexto
+                        : contexto.put(TokenContextWebFilter.AUTHORIZATION, trabajo.authorization()))
+                .doOnNext(pedido -> log.debug("Pedido async {} -> {}", pedido.getId(), pedido.getEstado()))
+                // Error transitorio: el pedido sigue PENDIENTE y vuelve con el reencolado
+                .onErrorResume(error -> {
+                    log.warn("No se pudo procesar el pedido async {}: {}", trabajo.pedidoId(), error.toString());
+                    return Mono.empty();
+                })
+                .doFinally(senal -> {
+                    activos.decrementAndGet();
+                    enCurso.remove(trabajo.pedidoId());
+                });
+    }
+
+    // Cancela los aceptados vencidos y retoma el resto de los que quedaron sin procesar,
+    // sin pasarse del lugar libre en la cola
+    @Scheduled(initialDelayString = "${pedidos.async.reencolar-cada:PT30S}", fixedDelayString = "${pedidos.async.reencolar-cada:PT30S}")
+    public Mono<Long> reencolar() {
+        LocalDateTime ahora = LocalDateTime.now();
+        return cancelarVencidos(ahora)
+                .then(Mono.defer(() -> {
+                    int libres = properties.getCapacidad() - enCola.get();
+                    if (libres <= 0) {
+                        return Mono.just(0L);
+                    }
+                    return pedidoRepository.findIdsAceptadosSinProcesar(ahora.minus(properties.getReencolarTras()), libres)
+                            .filter(id -> encolar(id, null))
+                            .count();
+                }))
+                .onErrorResume(error -> {
+                    log.warn("Falló el reencolado de pedidos async: {}", error.toString());
+                    return Mono.just(0L);
+                });
+    }
+
+    // Los que ya pasaron el plazo máximo: CANCELADO. Si uno falla, queda para la próxima pasada
+    private Mono<Long> cancelarVencidos(LocalDateTime ahora) {
+        return Flux.defer(() -> pedidoRepository.findIdsAceptadosSinProcesar(
+                        ahora.minus(properties.getPlazoMaximo()), properties.getCapacidad()))
+                .concatMap(id -> service.cancelarAceptadoVencido(id)
+                        .doOnNext(pedido -> log.warn("Pedido async {} cancelado: pasó el plazo máximo sin procesarse", id))
+                        .onErrorResume(error -> {
+                            log.warn("No se pudo cancelar el pedido async vencido {}: {}", id, error.toString());
+                            return Mono.empty();
+                        }))
+                .count()
+                .doOnNext(vencidos -> meterRegistry.counter("pedidos.async.vencidos").increment(vencidos));
+    }
+
+    int enCola() {
+        return enCola.get();
+    }
+}
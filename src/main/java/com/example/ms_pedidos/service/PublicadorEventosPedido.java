@@ -0,0 +1,106 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.config.EventosPedidoProperties;
+import com.example.ms_pedidos.dto.EventoPedidoDTO;
+import com.example.ms_pedidos.model.EstadoPedido;
+import com.example.ms_pedidos.model.Pedido;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.LocalDateTime;
+
+/**
+ * Multicast en memoria de altas y cambios de estado de pedidos, para el feed SSE
+ * (los dashboards dejan de hacer polling a GET /api/pedidos/{id}).
+ *  - Cada evento lleva un id de secuencia creciente; el sink guarda los últimos
+ *    pedidos.eventos.historial para retomar desde un Last-Event-ID
+ *  - La secuencia arranca en la hora del arranque (microsegundos): tras reiniciar, los ids nuevos
+ *    siguen siendo mayores que los que ya vieron los clientes
+ *  - Un Last-Event-ID desde el que no se puede retomar sin huecos (más viejo que el historial,
+ *    de antes del arranque, o mayor que la secuencia actual: otra instancia, reloj adelantado)
+ *    recibe primero un evento RESET y después sólo los nuevos: el dashboard sabe que perdió
+ *    eventos y tiene que recargar
+ *  - Cada suscriptor tiene su propio buffer acotado: si se atrasa pierde los eventos más
+ *    viejos (se queda con los últimos) y no frena a los demás ni a quien publica
+ * Sólo ve los cambios hechos en esta instancia.
+ */
+@Component
+public class PublicadorEventosPedido {
+
+    public static final String CREADO = "CREADO";
+    public static final String ESTADO = "ESTADO";
+    public static final String RESET = "RESET";
+
+    @Autowired
+    private EventosPedidoProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Sinks.Many<EventoPedidoDTO> sink;
+
+    private long secuencia;
+
+    // Secuencia al arrancar: lo anterior es de otra corrida y no está en el historial
+    private long inicio;
+
+    private Counter descartados;
+
+    @PostConstruct
+    public void iniciar() {
+        sink = Sinks.many().replay().limit(properties.getHistorial());
+        secuencia = System.currentTimeMillis() * 1000;
+        inicio = secuencia;
+        descartados = meterRegistry.counter("pedidos.eventos.descartados");
+    }
+
+    public void creado(Pedido pedido) {
+        publicar(CREADO, pedido);
+    }
+
+    public void estadoCambiado(Pedido pedido) {
+        publicar(ESTADO, pedido);
+    }
+
+    // Asignar el id y emitir van juntos: los eventos salen en el mismo orden que sus ids
+    private synchronized void publicar(String tipo, Pedido pedido) {
+        secuencia++;
+        sink.tryEmitNext(new EventoPedidoDTO(secuencia, tipo, pedido.getId(), pedido.getCliente(),
+                pedido.getEstado(), LocalDateTime.now()));
+    }
+
+    /**
+     * Eventos a partir de ultimoId (exclusive), o sólo los nuevos si es null.
+     * Si desde ultimoId quedó un hueco, primero un RESET (id = secuencia actual) y después los nuevos.
+     * cliente y estado filtran (null = todos); el RESET sale siempre.
+     */
+    public Flux<EventoPedidoDTO> eventos(Long ultimoId, String cliente, EstadoPedido estado) {
+        return Flux.defer(() -> {
+            long actual = secuenciaActual();
+            // Se retoma sólo si todo lo que vino después de ultimoId sigue en el historial
+            boolean retomable = ultimoId != null
+                    && ultimoId >= Math.max(inicio, actual - properties.getHistorial())
+                    && ultimoId <= actual;
+            long desde = retomable ? ultimoId : actual;
+            Flux<EventoPedidoDTO> reset = ultimoId != null && !retomable
+                    ? Flux.just(new EventoPedidoDTO(actual, RESET, null, null, null, LocalDateTime.now()))
+                    : Flux.empty();
+            return reset.concatWith(sink.asFlux()
+                            .filter(evento -> evento.getId() > desde)
+                            .filter(evento -> cliente == null || cliente.equals(evento.getCliente()))
+                            .filter(evento -> estado == null || estado == evento.getEstado()))
+                    .onBackpressureBuffer(properties.getBufferPorSuscriptor(),
+                            descartado -> descartados.increment(), BufferOverflowStrategy.DROP_OLDEST);
+        });
+    }
+
+    private synchronized long secuenciaActual() {
+        return secuencia;
+    }
+}
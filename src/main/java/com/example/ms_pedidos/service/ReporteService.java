@@ -0,0 +1,24 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.dto.ResumenClienteDTO;
+import com.example.ms_pedidos.dto.ResumenDiaDTO;
+import com.example.ms_pedidos.dto.ResumenProductoDTO;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDate;
+
+/**
+ * Reportes de ventas sobre los resúmenes diarios (ResumenPedidosRepository):
+ * el costo depende de los días del rango, no de la cantidad de pedidos.
+ */
+public interface ReporteService {
+
+    // GET /api/reportes/ventas-diarias?desde=&hasta=
+    Flux<ResumenDiaDTO> ventasDiarias(LocalDate desde, LocalDate hasta);
+
+    // GET /api/reportes/clientes?desde=&hasta=&limite=
+    Flux<ResumenClienteDTO> topClientes(LocalDate desde, LocalDate hasta, int limite);
+
+    // GET /api/reportes/productos?desde=&hasta=&limite=
+    Flux<ResumenProductoDTO> topProductos(LocalDate desde, LocalDate hasta, int limite);
+}
@@ -0,0 +1,40 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.dto.ResumenClienteDTO;
+import com.example.ms_pedidos.dto.ResumenDiaDTO;
+import com.example.ms_pedidos.dto.ResumenProductoDTO;
+import com.example.ms_pedidos.repository.ResumenPedidosRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDate;
+
+@Service
+public class ReporteServiceImpl implements ReporteService {
+
+    // Máximo de filas de los rankings (clientes, productos)
+    static final int LIMITE_MAXIMO_RANKING = 100;
+
+    @Autowired
+    private ResumenPedidosRepository resumenRepository;
+
+    @Override
+    public Flux<ResumenDiaDTO> ventasDiarias(LocalDate desde, LocalDate hasta) {
+        return resumenRepository.porDia(desde, hasta);
+    }
+
+    @Override
+    public Flux<ResumenClienteDTO> topClientes(LocalDate desde, LocalDate hasta, int limite) {
+        return resumenRepository.topClientes(desde, hasta, limiteRanking(limite));
+    }
+
+    @Override
+    public Flux<ResumenProductoDTO> topProductos(LocalDate desde, LocalDate hasta, int limite) {
+        return resumenRepository.topProductos(desde, hasta, limiteRanking(limite));
+    }
+
+    private static int limiteRanking(int limite) {
+        return Math.max(1, Math.min(limite, LIMITE_MAXIMO_RANKING));
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.model.EstadoPedido;
+
+// El pedido existe pero su estado actual no permite pasar al pedido (ver EstadoPedido); el controller responde 409
+public class TransicionEstadoInvalidaException extends RuntimeException {
+
+    public TransicionEstadoInvalidaException(Long id, EstadoPedido actual, EstadoPedido solicitado) {
+        super("El pedido " + id + " está " + actual + " y no puede pasar a " + solicitado);
+    }
+}
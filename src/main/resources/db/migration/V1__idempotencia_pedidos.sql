@@ -0,0 +1,12 @@
+-- Idempotency-Key de POST /api/pedidos -> pedido creado (la PK es el índice de búsqueda)
+-- La clave es de cada usuario (sujeto del JWT): dos usuarios pueden usar la misma sin pisarse.
+-- huella: SHA-256 del cuerpo del pedido; la misma clave con otro cuerpo es un 422
+CREATE TABLE IF NOT EXISTS idempotencia_pedidos (
+    sujeto    VARCHAR(255) NOT NULL,
+    clave     VARCHAR(255) NOT NULL,
+    huella    VARCHAR(64)  NOT NULL,
+    pedido_id BIGINT       NOT NULL REFERENCES pedidos (id) ON DELETE CASCADE,
+    creado    TIMESTAMP    NOT NULL DEFAULT now(),
+    PRIMARY KEY (sujeto, clave)
+);
+CREATE INDEX IF NOT EXISTS idx_idempotencia_pedidos_creado ON idempotencia_pedidos (creado);
@@ -0,0 +1,14 @@
+-- Outbox de reservas de stock: se escribe en la transacción del pedido y lo drena OutboxStockRelay
+CREATE TABLE IF NOT EXISTS outbox_stock (
+    id              BIGSERIAL    PRIMARY KEY,
+    pedido_id       BIGINT       NOT NULL,
+    items           TEXT         NOT NULL,
+    estado          VARCHAR(20)  NOT NULL DEFAULT 'PENDIENTE',
+    intentos        INT          NOT NULL DEFAULT 0,
+    creado          TIMESTAMP    NOT NULL DEFAULT now(),
+    proximo_intento TIMESTAMP    NOT NULL DEFAULT now(),
+    procesado       TIMESTAMP,
+    ultimo_error    VARCHAR(500)
+);
+-- Índice parcial: el relay sólo recorre las pendientes, por orden de próximo intento
+CREATE INDEX IF NOT EXISTS idx_outbox_stock_pendientes ON outbox_stock (proximo_intento) WHERE estado = 'PENDIENTE';
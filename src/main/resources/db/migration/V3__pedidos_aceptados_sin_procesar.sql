@@ -0,0 +1,2 @@
+-- Pedidos aceptados con ?async=true que siguen sin procesar (total NULL): los busca el reencolado
+CREATE INDEX IF NOT EXISTS idx_pedidos_aceptados_sin_procesar ON pedidos (fecha) WHERE estado = 'PENDIENTE' AND total IS NULL;
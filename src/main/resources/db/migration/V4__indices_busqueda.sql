@@ -0,0 +1,6 @@
+-- GET /api/pedidos/buscar: igualdad por cliente/estado + cursor por id (ORDER BY id sin sort extra)
+CREATE INDEX IF NOT EXISTS idx_pedidos_cliente_id ON pedidos (cliente, id);
+CREATE INDEX IF NOT EXISTS idx_pedidos_estado_id ON pedidos (estado, id);
+CREATE INDEX IF NOT EXISTS idx_pedidos_cliente_estado_id ON pedidos (cliente, estado, id);
+-- Rangos de fecha (también los usa el borrado por fechas)
+CREATE INDEX IF NOT EXISTS idx_pedidos_fecha ON pedidos (fecha);
@@ -0,0 +1,31 @@
+-- Resúmenes diarios para los reportes (/api/reportes): los mantiene ResumenPedidosRepository en la
+-- misma transacción que crea, cambia o borra el pedido. La PK (dia, ...) es el índice de los rangos.
+-- slot (id del pedido % ResumenPedidosRepository.SLOTS): cada resumen se reparte en varias filas para
+-- que los pedidos simultáneos no hagan cola en la misma; los reportes suman los slots
+-- Estado: todos los pedidos en su estado actual (total 0 mientras un pedido async no tiene precios)
+CREATE TABLE IF NOT EXISTS resumen_diario_estado (
+    dia     DATE             NOT NULL,
+    estado  VARCHAR(20)      NOT NULL,
+    slot    SMALLINT         NOT NULL DEFAULT 0,
+    pedidos BIGINT           NOT NULL DEFAULT 0,
+    total   NUMERIC(16, 2)   NOT NULL DEFAULT 0,
+    PRIMARY KEY (dia, estado, slot)
+);
+-- Cliente y producto: sólo ventas (pedidos con precio y no CANCELADO)
+CREATE TABLE IF NOT EXISTS resumen_diario_cliente (
+    dia     DATE             NOT NULL,
+    cliente VARCHAR(255)     NOT NULL,
+    slot    SMALLINT         NOT NULL DEFAULT 0,
+    pedidos BIGINT           NOT NULL DEFAULT 0,
+    total   NUMERIC(16, 2)   NOT NULL DEFAULT 0,
+    PRIMARY KEY (dia, cliente, slot)
+);
+CREATE TABLE IF NOT EXISTS resumen_diario_producto (
+    dia         DATE             NOT NULL,
+    producto_id BIGINT           NOT NULL,
+    slot        SMALLINT         NOT NULL DEFAULT 0,
+    cantidad    BIGINT           NOT NULL DEFAULT 0,
+    importe     NUMERIC(16, 2)   NOT NULL DEFAULT 0,
+    PRIMARY KEY (dia, producto_id, slot)
+);
+
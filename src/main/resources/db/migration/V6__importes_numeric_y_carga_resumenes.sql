@@ -0,0 +1,33 @@
+-- Importes exactos: NUMERIC(14, 2) en lugar de DOUBLE PRECISION (los valores se redondean al centavo).
+-- Sólo si la columna todavía no es NUMERIC(14, 2): el ALTER toma un lock ACCESS EXCLUSIVE sobre la tabla
+-- (y la reescribe), no hace falta pagarlo en una base que ya está bien
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = 'pedidos' AND column_name = 'total'
+                 AND (data_type <> 'numeric' OR numeric_precision IS DISTINCT FROM 14 OR numeric_scale IS DISTINCT FROM 2)) THEN
+        ALTER TABLE pedidos ALTER COLUMN total TYPE NUMERIC(14, 2);
+    END IF;
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = 'detalle_pedidos' AND column_name = 'precio_unitario'
+                 AND (data_type <> 'numeric' OR numeric_precision IS DISTINCT FROM 14 OR numeric_scale IS DISTINCT FROM 2)) THEN
+        ALTER TABLE detalle_pedidos ALTER COLUMN precio_unitario TYPE NUMERIC(14, 2);
+    END IF;
+END
+$$;
+
+-- Carga inicial de los resúmenes (V5) con los pedidos que ya existían, con los importes ya en NUMERIC.
+-- Flyway la corre una sola vez y con su lock: dos instancias que arrancan juntas no la duplican.
+-- Después los mantiene la aplicación. Todo va al slot 0
+INSERT INTO resumen_diario_estado (dia, estado, pedidos, total)
+SELECT CAST(fecha AS DATE), estado, COUNT(*), SUM(COALESCE(total, 0)) FROM pedidos
+GROUP BY CAST(fecha AS DATE), estado;
+INSERT INTO resumen_diario_cliente (dia, cliente, pedidos, total)
+SELECT CAST(fecha AS DATE), COALESCE(cliente, ''), COUNT(*), SUM(total) FROM pedidos
+WHERE total IS NOT NULL AND estado <> 'CANCELADO'
+GROUP BY CAST(fecha AS DATE), COALESCE(cliente, '');
+INSERT INTO resumen_diario_producto (dia, producto_id, cantidad, importe)
+SELECT CAST(p.fecha AS DATE), d.producto_id, SUM(d.cantidad), SUM(d.cantidad * d.precio_unitario)
+FROM pedidos p JOIN detalle_pedidos d ON d.pedido_id = p.id
+WHERE p.total IS NOT NULL AND p.estado <> 'CANCELADO'
+GROUP BY CAST(p.fecha AS DATE), d.producto_id;
@@ -0,0 +1,2 @@
+-- Versión del pedido (ETag de GET /api/pedidos/{id}): la suben los UPDATE de PedidoRepository
+ALTER TABLE pedidos ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
@@ -2,7 +2,10 @@ package com.example.ms_pedidos;
 
 import com.example.ms_pedidos.client.ProductoClient;
 import com.example.ms_pedidos.repository.DetallePedidoRepository;
+import com.example.ms_pedidos.repository.IdempotenciaPedidoRepository;
+import com.example.ms_pedidos.repository.OutboxStockRepository;
 import com.example.ms_pedidos.repository.PedidoRepository;
+import com.example.ms_pedidos.repository.ResumenPedidosRepository;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -17,9 +20,22 @@ class MsPedidosApplicationTests {
     @MockBean
     private DetallePedidoRepository detallePedidoRepository;
 
+    @MockBean
+    private IdempotenciaPedidoRepository idempotenciaPedidoRepository;
+
+    @MockBean
+    private OutboxStockRepository outboxStockRepository;
+
+    @MockBean
+    private ResumenPedidosRepository resumenPedidosRepository;
+
     @MockBean
     private ProductoClient productoClient;
 
+    // Sin BD en las pruebas: el transaction manager de R2DBC también es un mock
+    @MockBean
+    private org.springframework.r2dbc.connection.R2dbcTransactionManager r2dbcTransactionManager;
+
     // ESTE ES EL MOCK QUE TE FALTABA
     @MockBean
     private org.springframework.web.reactive.function.client.WebClient.Builder webClientBuilder;
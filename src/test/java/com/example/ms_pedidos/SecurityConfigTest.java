@@ -0,0 +1,63 @@
+package com.example.ms_pedidos;
+
+import com.nimbusds.jose.JWSAlgorithm;
+
+// Imports de Pruebas
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SecurityConfigTest {
+
+    @Test
+    void validador_ConAudiences_RechazaTokenDeOtraAudiencia() {
+        // --- 1. Preparación (Arrange) ---
+        OAuth2ResourceServerProperties.Jwt propiedades = new OAuth2ResourceServerProperties.Jwt();
+        propiedades.setAudiences(List.of("ms-pedidos"));
+
+        // --- 2. Ejecución (Act) ---
+        OAuth2TokenValidator<Jwt> validador = SecurityConfig.validador(propiedades);
+
+        // --- 3. Verificación (Assert) ---
+        assertFalse(validador.validate(jwt(List.of("ms-pedidos", "ms-productos"))).hasErrors());
+        assertTrue(validador.validate(jwt(List.of("ms-productos"))).hasErrors());
+        assertTrue(validador.validate(jwt(null)).hasErrors()); // Sin claim aud
+    }
+
+    @Test
+    void validador_SinAudiences_NoMiraElAud() {
+        OAuth2TokenValidator<Jwt> validador = SecurityConfig.validador(new OAuth2ResourceServerProperties.Jwt());
+
+        assertFalse(validador.validate(jwt(List.of("cualquiera"))).hasErrors());
+    }
+
+    @Test
+    void algoritmos_TomaLosConfigurados() {
+        OAuth2ResourceServerProperties.Jwt propiedades = new OAuth2ResourceServerProperties.Jwt();
+        propiedades.setJwsAlgorithms(List.of("RS256", "ES256"));
+
+        assertEquals(Set.of(JWSAlgorithm.RS256, JWSAlgorithm.ES256), SecurityConfig.algoritmos(propiedades));
+    }
+
+    private static Jwt jwt(List<String> audiencias) {
+        Jwt.Builder builder = Jwt.withTokenValue("token")
+                .header("alg", "RS256")
+                .subject("ana")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(300));
+        if (audiencias != null) {
+            builder.audience(audiencias);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.ms_pedidos.client;
+
+import com.example.ms_pedidos.config.ProductosProperties;
+import com.example.ms_pedidos.dto.ProductoDTO;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.dto.ReservaStockResultadoDTO;
+
+// Imports de Pruebas
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachingProductoClientTest {
+
+    @Mock
+    private ProductoClient delegate;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private CachingProductoClient productoClient;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        productoClient = new CachingProductoClient(delegate, new ProductosProperties.Cache(), meterRegistry);
+    }
+
+    @Test
+    void obtenerProducto_SegundaLlamadaSaleDeCache() {
+        when(delegate.obtenerProducto(1L)).thenReturn(Mono.just(producto(1L, 10)));
+
+        StepVerifier.create(productoClient.obtenerProducto(1L)).expectNextCount(1).verifyComplete();
+        StepVerifier.create(productoClient.obtenerProducto(1L)).expectNextCount(1).verifyComplete();
+
+        // Sólo la primera fue a ms-productos
+        verify(delegate, times(1)).obtenerProducto(1L);
+        // Las métricas de la caché quedan registradas para el actuator
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void obtenerProducto_FallosConcurrentesCompartenUnaLlamada() {
+        // La llamada real tarda: el segundo pedido llega mientras está en vuelo
+        when(delegate.obtenerProducto(1L))
+                .thenReturn(Mono.delay(Duration.ofMillis(100)).thenReturn(producto(1L, 10)));
+
+        StepVerifier.create(Mono.zip(productoClient.obtenerProducto(1L), productoClient.obtenerProducto(1L)))
+                .expectNextMatches(par -> par.getT1().getId().equals(1L) && par.getT2().getId().equals(1L))
+                .verifyComplete();
+
+        verify(delegate, times(1)).obtenerProducto(1L);
+    }
+
+    @Test
+    void obtenerProducto_NoEncontradoNoSeCachea() {
+        when(delegate.obtenerProducto(9L)).thenReturn(Mono.empty());
+
+        StepVerifier.create(productoClient.obtenerProducto(9L)).verifyComplete();
+        StepVerifier.create(productoClient.obtenerProducto(9L)).verifyComplete();
+
+        verify(delegate, times(2)).obtenerProducto(9L);
+    }
+
+    @Test
+    void obtenerProductos_SoloPideLosQueFaltan() {
+        when(delegate.obtenerProducto(1L)).thenReturn(Mono.just(producto(1L, 10)));
+        when(delegate.obtenerProductos(List.of(2L))).thenReturn(Mono.just(Map.of(2L, producto(2L, 3))));
+
+        // El producto 1 ya queda en caché
+        StepVerifier.create(productoClient.obtenerProducto(1L)).expectNextCount(1).verifyComplete();
+
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L, 2L)))
+                .expectNextMatches(productos -> productos.size() == 2)
+                .verifyComplete();
+
+        verify(delegate, times(1)).obtenerProductos(List.of(2L));
+    }
+
+    @Test
+    void actualizarStock_DescuentaElStockCacheado() {
+        when(delegate.obtenerProducto(1L)).thenReturn(Mono.just(producto(1L, 10)));
+        when(delegate.actualizarStock(1L, 4)).thenReturn(Mono.empty());
+
+        StepVerifier.create(productoClient.obtenerProducto(1L)).expectNextCount(1).verifyComplete();
+        StepVerifier.create(productoClient.actualizarStock(1L, 4)).verifyComplete();
+
+        // Se sigue sirviendo desde caché, pero con el stock ya descontado
+        StepVerifier.create(productoClient.obtenerProducto(1L))
+                .expectNextMatches(producto -> producto.getStock() == 6)
+                .verifyComplete();
+        verify(delegate, times(1)).obtenerProducto(1L);
+    }
+
+    @Test
+    void actualizarStock_ConErrorNoTocaLaCache() {
+        when(delegate.obtenerProducto(1L)).thenReturn(Mono.just(producto(1L, 10)));
+        when(delegate.actualizarStock(1L, 4)).thenReturn(Mono.error(new RuntimeException("Error al actualizar el stock")));
+
+        StepVerifier.create(productoClient.obtenerProducto(1L)).expectNextCount(1).verifyComplete();
+        StepVerifier.create(productoClient.actualizarStock(1L, 4)).expectError(RuntimeException.class).verify();
+
+        StepVerifier.create(productoClient.obtenerProducto(1L))
+                .expectNextMatches(producto -> producto.getStock() == 10)
+                .verifyComplete();
+    }
+
+    @Test
+    void reservarStock_DescuentaSoloLasLineasReservadas() {
+        when(delegate.obtenerProductos(anyCollection()))
+                .thenReturn(Mono.just(Map.of(1L, producto(1L, 10), 2L, producto(2L, 10))));
+        List<ReservaStockItemDTO> items = List.of(new ReservaStockItemDTO(1L, 3), new ReservaStockItemDTO(2L, 3));
+        when(delegate.reservarStock(7L, items)).thenReturn(Mono.just(List.of(
+                new ReservaStockResultadoDTO(1L, 3, true, null),
+                new ReservaStockResultadoDTO(2L, 3, false, "sin stock"))));
+
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L, 2L))).expectNextCount(1).verifyComplete();
+        StepVerifier.create(productoClient.reservarStock(7L, items)).expectNextCount(1).verifyComplete();
+
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L, 2L)))
+                .expectNextMatches(productos -> productos.get(1L).getStock() == 7
+                        && productos.get(2L).getStock() == 10)
+                .verifyComplete();
+    }
+
+    private static ProductoDTO producto(Long id, int stock) {
+        ProductoDTO producto = new ProductoDTO();
+        producto.setId(id);
+        producto.setNombre("Producto " + id);
+        producto.setPrecio(new BigDecimal("10.00"));
+        producto.setStock(stock);
+        return producto;
+    }
+}
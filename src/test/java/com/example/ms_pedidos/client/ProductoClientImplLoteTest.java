@@ -0,0 +1,329 @@
+package com.example.ms_pedidos.client;
+
+import com.example.ms_pedidos.config.ProductosProperties;
+import com.example.ms_pedidos.config.TokenContextWebFilter;
+import com.example.ms_pedidos.dto.ProductoDTO;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+
+// Imports del Servidor Falso
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+// Imports de Pruebas
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Pruebas de la búsqueda por lotes contra un ms-productos falso (MockWebServer)
+class ProductoClientImplLoteTest {
+
+    private MockWebServer mockWebServer;
+
+    private ProductoClientImpl productoClient;
+
+    // Cuando es false, el servidor falso responde 404 al endpoint por lotes
+    private volatile boolean loteDisponible = true;
+
+    // Cuando es false, el servidor falso responde 404 al endpoint de reservas
+    private volatile boolean reservaDisponible = true;
+
+    // Respuesta de DELETE /api/productos/stock/reservas/{clave} (404: no quedó nada reservado)
+    private volatile int respuestaLiberar = 204;
+
+    // Respuesta de PUT /api/productos/2/stock (409: sin stock suficiente)
+    private volatile int respuestaStockProducto2 = 409;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String path = request.getPath();
+                if (path.startsWith("/api/productos/lote")) {
+                    if (!loteDisponible) {
+                        return new MockResponse().setResponseCode(404);
+                    }
+                    return json("[" + producto(1) + "," + producto(2) + "," + producto(3) + "]");
+                }
+                if (path.startsWith("/api/productos/stock/reservas/") && "DELETE".equals(request.getMethod())) {
+                    return new MockResponse().setResponseCode(respuestaLiberar);
+                }
+                if (path.equals("/api/productos/stock/reservas")) {
+                    if (!reservaDisponible) {
+                        return new MockResponse().setResponseCode(404);
+                    }
+                    return json("[{\"productoId\":1,\"cantidad\":2,\"reservado\":true},"
+                            + "{\"productoId\":2,\"cantidad\":1,\"reservado\":false,\"mensaje\":\"sin stock\"}]");
+                }
+                if (path.startsWith("/api/productos/2/stock")) {
+                    // Por defecto el producto 2 no tiene stock suficiente
+                    return new MockResponse().setResponseCode(respuestaStockProducto2);
+                }
+                if (path.startsWith("/api/productos/1/stock")) {
+                    return new MockResponse().setResponseCode(200);
+                }
+                if (path.equals("/api/productos/1") || path.equals("/api/productos/2")) {
+                    return json(producto(Integer.parseInt(path.substring(path.lastIndexOf('/') + 1))));
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+        mockWebServer.start();
+
+        ProductosProperties properties = new ProductosProperties();
+        properties.setUrl("http://localhost:" + mockWebServer.getPort());
+        // Ventana amplia para que la prueba de coalescencia sea determinista
+        properties.getLote().setVentana(Duration.ofMillis(200));
+        // Como propagateTokenFilter (WebClientConfig): el Authorization saliente va a la cabecera
+        WebClient.Builder builder = WebClient.builder().filter((request, next) -> TokenContextWebFilter.cabeceraSaliente()
+                .map(token -> ClientRequest.from(request).header(HttpHeaders.AUTHORIZATION, token).build())
+                .defaultIfEmpty(request)
+                .flatMap(next::exchange));
+        productoClient = new ProductoClientImpl(builder, properties);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    void obtenerProductos_DeduplicaIdsEnUnaSolaLlamada() throws InterruptedException {
+        // Las líneas repiten el producto 1: se pide una sola vez
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L, 2L, 1L)))
+                .expectNextMatches(productos -> productos.size() == 2
+                        && productos.get(1L).getNombre().equals("Producto 1"))
+                .verifyComplete();
+
+        assertEquals(1, mockWebServer.getRequestCount());
+        RecordedRequest request = mockWebServer.takeRequest();
+        assertEquals("/api/productos/lote?ids=1&ids=2", request.getPath());
+    }
+
+    @Test
+    void obtenerProductos_JuntaPedidosConcurrentesEnUnaLlamada() throws InterruptedException {
+        // Dos pedidos en vuelo dentro de la misma ventana
+        Mono<Map<Long, ProductoDTO>> pedidoA = productoClient.obtenerProductos(List.of(1L, 2L));
+        Mono<Map<Long, ProductoDTO>> pedidoB = productoClient.obtenerProductos(List.of(2L, 3L));
+
+        StepVerifier.create(Mono.zip(pedidoA, pedidoB))
+                .expectNextMatches(resultados ->
+                        // Cada pedido recibe sólo lo que pidió
+                        resultados.getT1().keySet().equals(Set.of(1L, 2L))
+                                && resultados.getT2().keySet().equals(Set.of(2L, 3L)))
+                .verifyComplete();
+
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertEquals("/api/productos/lote?ids=1&ids=2&ids=3", mockWebServer.takeRequest().getPath());
+    }
+
+    @Test
+    void obtenerProductos_TokensDistintos_NoSeJuntan() throws InterruptedException {
+        // --- 1. Preparación (Arrange) ---
+        // Dos pedidos en la misma ventana, cada uno de un usuario distinto
+        Mono<Map<Long, ProductoDTO>> pedidoA = productoClient.obtenerProductos(List.of(1L))
+                .contextWrite(contexto -> contexto.put(TokenContextWebFilter.AUTHORIZATION, "Bearer usuario-a"));
+        Mono<Map<Long, ProductoDTO>> pedidoB = productoClient.obtenerProductos(List.of(2L))
+                .contextWrite(contexto -> contexto.put(TokenContextWebFilter.AUTHORIZATION, "Bearer usuario-b"));
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(Mono.zip(pedidoA, pedidoB))
+                .expectNextMatches(resultados -> resultados.getT1().keySet().equals(Set.of(1L))
+                        && resultados.getT2().keySet().equals(Set.of(2L)))
+                .verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        // Una llamada por usuario, cada una con su propio token
+        assertEquals(2, mockWebServer.getRequestCount());
+        Set<String> llamadas = Stream.of(mockWebServer.takeRequest(), mockWebServer.takeRequest())
+                .map(request -> request.getHeader(HttpHeaders.AUTHORIZATION) + " " + request.getPath())
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("Bearer usuario-a /api/productos/lote?ids=1", "Bearer usuario-b /api/productos/lote?ids=2"), llamadas);
+    }
+
+    @Test
+    void obtenerProductos_UsuariosSoloEnElSecurityContext_NoSeJuntan() throws InterruptedException {
+        // Fuera de una petición HTTP el token sale del SecurityContext (no de la clave del contexto)
+        Mono<Map<Long, ProductoDTO>> pedidoA = productoClient.obtenerProductos(List.of(1L))
+                .contextWrite(ReactiveSecurityContextHolder.withAuthentication(autenticacion("usuario-a")));
+        Mono<Map<Long, ProductoDTO>> pedidoB = productoClient.obtenerProductos(List.of(2L))
+                .contextWrite(ReactiveSecurityContextHolder.withAuthentication(autenticacion("usuario-b")));
+
+        StepVerifier.create(Mono.zip(pedidoA, pedidoB))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertEquals(2, mockWebServer.getRequestCount());
+        Set<String> llamadas = Stream.of(mockWebServer.takeRequest(), mockWebServer.takeRequest())
+                .map(request -> request.getHeader(HttpHeaders.AUTHORIZATION))
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("Bearer usuario-a", "Bearer usuario-b"), llamadas);
+    }
+
+    private static JwtAuthenticationToken autenticacion(String token) {
+        return new JwtAuthenticationToken(Jwt.withTokenValue(token)
+                .header("alg", "none")
+                .subject(token)
+                .build());
+    }
+
+    @Test
+    void obtenerProductos_SinEndpointDeLotes_CaeAUnaLlamadaPorId() {
+        loteDisponible = false;
+
+        // El producto 9 no existe: no falla todo el lote, sólo falta en el mapa
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L, 2L, 9L)))
+                .expectNextMatches(productos -> productos.size() == 2
+                        && productos.containsKey(1L) && productos.containsKey(2L))
+                .verifyComplete();
+        // 1 intento por lotes (404) + 3 llamadas individuales
+        assertEquals(4, mockWebServer.getRequestCount());
+
+        // Ya sabe que no hay endpoint de lotes: no lo vuelve a intentar
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L)))
+                .expectNextMatches(productos -> productos.containsKey(1L))
+                .verifyComplete();
+        assertEquals(5, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void obtenerProductos_ListaVacia_NoLlamaAlServidor() {
+        StepVerifier.create(productoClient.obtenerProductos(List.of()))
+                .expectNextMatches(Map::isEmpty)
+                .verifyComplete();
+
+        assertEquals(0, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void reservarStock_UnaLlamadaConTodasLasLineas() throws InterruptedException {
+        List<ReservaStockItemDTO> items = List.of(new ReservaStockItemDTO(1L, 2), new ReservaStockItemDTO(2L, 1));
+
+        // El resultado viene por línea: la 2 no se pudo reservar
+        StepVerifier.create(productoClient.reservarStock(55L, items))
+                .expectNextMatches(resultados -> resultados.size() == 2
+                        && resultados.get(0).getReservado()
+                        && !resultados.get(1).getReservado()
+                        && resultados.get(1).getMensaje().equals("sin stock"))
+                .verifyComplete();
+
+        assertEquals(1, mockWebServer.getRequestCount());
+        RecordedRequest request = mockWebServer.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("pedido-55", request.getHeader("Idempotency-Key"));
+        assertTrue(request.getBody().readUtf8().contains("\"pedidoId\":55"));
+    }
+
+    @Test
+    void reservarStock_SinEndpointDeReservas_CaeAUnaLlamadaPorLinea() {
+        reservaDisponible = false;
+        List<ReservaStockItemDTO> items = List.of(new ReservaStockItemDTO(1L, 2), new ReservaStockItemDTO(2L, 1));
+
+        StepVerifier.create(productoClient.reservarStock(56L, items))
+                .expectNextMatches(resultados -> resultados.size() == 2
+                        && resultados.get(0).getReservado()
+                        && !resultados.get(1).getReservado())
+                .verifyComplete();
+
+        // 1 intento de reserva (404) + 2 PUT /stock
+        assertEquals(3, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void reservarStock_LineaPorLinea_ErrorTransitorio_LiberaLoReservadoYFalla() throws InterruptedException {
+        // --- 1. Preparación (Arrange) ---
+        reservaDisponible = false;
+        respuestaStockProducto2 = 503; // ms-productos caído a mitad del pedido: no es "sin stock"
+        List<ReservaStockItemDTO> items = List.of(new ReservaStockItemDTO(1L, 2), new ReservaStockItemDTO(2L, 1));
+
+        // --- 2. Ejecución (Act) ---
+        // El error sale (quien llama reintenta), no se disfraza de reservado=false
+        StepVerifier.create(productoClient.reservarStock(57L, items))
+                .expectError(WebClientResponseException.ServiceUnavailable.class)
+                .verify();
+
+        // --- 3. Verificación (Assert) ---
+        // 1 intento de reserva (404) + PUT línea 1 + PUT línea 2 (503) + PUT línea 1 en negativo
+        assertEquals(4, mockWebServer.getRequestCount());
+        mockWebServer.takeRequest();
+        assertEquals("/api/productos/1/stock?cantidad=2", mockWebServer.takeRequest().getPath());
+        mockWebServer.takeRequest();
+        assertEquals("/api/productos/1/stock?cantidad=-2", mockWebServer.takeRequest().getPath());
+    }
+
+    @Test
+    void liberarStock_ConEndpointDeReservas_BorraLaReservaDelPedido() throws InterruptedException {
+        // --- 1. Preparación (Arrange) ---
+        List<ReservaStockItemDTO> reservadas = List.of(new ReservaStockItemDTO(1L, 2));
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(productoClient.liberarStock(57L, reservadas)).verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        // Se borra la reserva con la misma clave con la que se hizo (nada de PUT en negativo)
+        assertEquals(1, mockWebServer.getRequestCount());
+        RecordedRequest request = mockWebServer.takeRequest();
+        assertEquals("DELETE", request.getMethod());
+        assertEquals("/api/productos/stock/reservas/pedido-57", request.getPath());
+    }
+
+    @Test
+    void liberarStock_ReservaInexistente_NoFalla() {
+        respuestaLiberar = 404;
+
+        StepVerifier.create(productoClient.liberarStock(57L, List.of(new ReservaStockItemDTO(1L, 2)))).verifyComplete();
+    }
+
+    @Test
+    void liberarStock_SinEndpointDeReservas_PutEnNegativoPorLinea() throws InterruptedException {
+        // Contrato de PUT /stock: cantidad negativa = devolver stock
+        reservaDisponible = false;
+        StepVerifier.create(productoClient.reservarStock(57L, List.of(new ReservaStockItemDTO(1L, 2))))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        StepVerifier.create(productoClient.liberarStock(57L, List.of(new ReservaStockItemDTO(1L, 2)))).verifyComplete();
+
+        // Reserva (404) + PUT línea 1 + PUT línea 1 en negativo
+        assertEquals(3, mockWebServer.getRequestCount());
+        mockWebServer.takeRequest();
+        mockWebServer.takeRequest();
+        RecordedRequest liberacion = mockWebServer.takeRequest();
+        assertEquals("PUT", liberacion.getMethod());
+        assertEquals("/api/productos/1/stock?cantidad=-2", liberacion.getPath());
+    }
+
+    private static MockResponse json(String body) {
+        return new MockResponse()
+                .setBody(body)
+                .addHeader("Content-Type", "application/json");
+    }
+
+    private static String producto(int id) {
+        return "{\"id\":" + id + ",\"nombre\":\"Producto " + id + "\",\"precio\":10.0,\"stock\":5,\"activo\":true}";
+    }
+}
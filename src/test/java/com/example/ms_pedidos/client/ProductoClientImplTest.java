@@ -1,5 +1,6 @@
 package com.example.ms_pedidos.client;
 
+import com.example.ms_pedidos.config.ProductosProperties;
 import com.example.ms_pedidos.dto.ProductoDTO;
 import org.junit.jupiter.api.BeforeEach; // Importa BeforeEach
 import org.junit.jupiter.api.Test;
@@ -50,7 +51,7 @@ class ProductoClientImplTest {
 
         // 2. AHORA SÍ, creamos manualmente el cliente
         // (El constructor se llama AHORA, y los mocks ya están listos)
-        productoClient = new ProductoClientImpl(webClientBuilder);
+        productoClient = new ProductoClientImpl(webClientBuilder, new ProductosProperties());
     }
 
 
@@ -0,0 +1,175 @@
+package com.example.ms_pedidos.client;
+
+import com.example.ms_pedidos.config.ProductosProperties;
+import com.example.ms_pedidos.dto.ProductoDTO;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+
+// Imports de Pruebas
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ResilientProductoClientTest {
+
+    @Mock
+    private ProductoClient delegate;
+
+    @Mock
+    private ReactiveCircuitBreakerFactory<?, ?> cbFactory;
+
+    // Circuit breaker real de Resilience4j, sin pasar por la autoconfiguración de Spring Cloud
+    private final CircuitBreaker circuitBreaker = CircuitBreaker.ofDefaults("productos-cb");
+
+    private final ProductosProperties.Resiliencia config = new ProductosProperties.Resiliencia();
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        when(cbFactory.create("productos-cb")).thenReturn(new CircuitoResilience4j(circuitBreaker));
+    }
+
+    @Test
+    void obtenerProductos_CircuitoCerrado_LlamaAMsProductos() {
+        ResilientProductoClient productoClient = new ResilientProductoClient(delegate, cbFactory, config, meterRegistry);
+        when(delegate.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, producto(1L))));
+
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L)))
+                .expectNextMatches(productos -> productos.containsKey(1L))
+                .verifyComplete();
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L)))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        // El circuit breaker se crea una sola vez, no por llamada
+        verify(cbFactory, times(1)).create("productos-cb");
+        assertEquals(2, circuitBreaker.getMetrics().getNumberOfSuccessfulCalls());
+    }
+
+    @Test
+    void obtenerProductos_CircuitoAbierto_SirveUltimosConocidos() {
+        // --- 1. Preparación (Arrange) ---
+        ResilientProductoClient productoClient = new ResilientProductoClient(delegate, cbFactory, config, meterRegistry);
+        when(delegate.obtenerProductos(List.of(1L, 2L)))
+                .thenReturn(Mono.just(Map.of(1L, producto(1L), 2L, producto(2L))));
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L, 2L))).expectNextCount(1).verifyComplete();
+
+        circuitBreaker.transitionToOpenState();
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(productoClient.obtenerProductos(List.of(2L)))
+                .expectNextMatches(productos -> productos.keySet().equals(Set.of(2L)))
+                .verifyComplete();
+        StepVerifier.create(productoClient.obtenerProducto(1L))
+                .expectNextMatches(producto -> producto.getId().equals(1L))
+                .verifyComplete();
+
+        // Con el circuito abierto ms-productos no recibe más llamadas
+        verify(delegate, times(1)).obtenerProductos(anyCollection());
+        assertEquals(1.0, meterRegistry.get("productos.cliente.rechazadas")
+                .tags("operacion", "obtenerProductos", "motivo", "circuito_abierto").counter().count());
+    }
+
+    @Test
+    void obtenerProductos_CircuitoAbierto_SinDatosConocidosPropagaElRechazo() {
+        ResilientProductoClient productoClient = new ResilientProductoClient(delegate, cbFactory, config, meterRegistry);
+        when(delegate.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, producto(1L))));
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L))).expectNextCount(1).verifyComplete();
+
+        circuitBreaker.transitionToOpenState();
+
+        // El 3 nunca se vio: no se responde con un mapa incompleto
+        StepVerifier.create(productoClient.obtenerProductos(List.of(1L, 3L)))
+                .expectError(CallNotPermittedException.class)
+                .verify();
+    }
+
+    @Test
+    void reservarStock_CircuitoAbierto_NoTieneFallback() {
+        ResilientProductoClient productoClient = new ResilientProductoClient(delegate, cbFactory, config, meterRegistry);
+        circuitBreaker.transitionToOpenState();
+
+        StepVerifier.create(productoClient.reservarStock(1L, List.of(new ReservaStockItemDTO(1L, 2))))
+                .expectError(CallNotPermittedException.class)
+                .verify();
+
+        assertEquals(1.0, meterRegistry.get("productos.cliente.rechazadas")
+                .tags("operacion", "reservarStock", "motivo", "circuito_abierto").counter().count());
+    }
+
+    @Test
+    void obtenerProducto_BulkheadLleno_RechazaSinAbrirElCircuito() {
+        // --- 1. Preparación (Arrange) ---
+        config.setMaxConcurrentes(1);
+        ResilientProductoClient productoClient = new ResilientProductoClient(delegate, cbFactory, config, meterRegistry);
+        // La primera llamada queda colgada ocupando el único lugar
+        when(delegate.obtenerProducto(1L)).thenReturn(Mono.never());
+
+        // --- 2. Ejecución (Act) ---
+        productoClient.obtenerProducto(1L).subscribe();
+
+        // --- 3. Verificación (Assert) ---
+        StepVerifier.create(productoClient.obtenerProducto(2L))
+                .expectError(BulkheadFullException.class)
+                .verify();
+
+        // El rechazo no llegó al circuit breaker ni a ms-productos
+        verify(delegate, never()).obtenerProducto(2L);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1.0, meterRegistry.get("productos.cliente.rechazadas")
+                .tags("operacion", "obtenerProducto", "motivo", "bulkhead").counter().count());
+    }
+
+    private static ProductoDTO producto(Long id) {
+        ProductoDTO producto = new ProductoDTO();
+        producto.setId(id);
+        producto.setNombre("Producto " + id);
+        producto.setPrecio(new BigDecimal("10.00"));
+        producto.setStock(5);
+        return producto;
+    }
+
+    // Adaptador mínimo con la misma semántica que el de Spring Cloud (sin time limiter)
+    private static class CircuitoResilience4j implements ReactiveCircuitBreaker {
+
+        private final CircuitBreaker circuitBreaker;
+
+        CircuitoResilience4j(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        @Override
+        public <T> Mono<T> run(Mono<T> toRun, Function<Throwable, Mono<T>> fallback) {
+            return toRun.transformDeferred(CircuitBreakerOperator.of(circuitBreaker)).onErrorResume(fallback);
+        }
+
+        @Override
+        public <T> Flux<T> run(Flux<T> toRun, Function<Throwable, Flux<T>> fallback) {
+            return toRun.transformDeferred(CircuitBreakerOperator.of(circuitBreaker)).onErrorResume(fallback);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.ms_pedidos.config;
+
+// Imports de Pruebas
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Clock;
+import java.time.Instant;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CachingReactiveJwtDecoderTest {
+
+    @Mock
+    private ReactiveJwtDecoder delegate;
+
+    private CachingReactiveJwtDecoder decoder;
+
+    @BeforeEach
+    void setUp() {
+        decoder = new CachingReactiveJwtDecoder(delegate, new SeguridadProperties(), new SimpleMeterRegistry(), Clock.systemUTC());
+    }
+
+    @Test
+    void decode_TokenVerificadoSeSirveDeCache() {
+        when(delegate.decode("token-a")).thenReturn(Mono.just(jwt("token-a", Instant.now().plusSeconds(300))));
+
+        StepVerifier.create(decoder.decode("token-a")).expectNextCount(1).verifyComplete();
+        StepVerifier.create(decoder.decode("token-a")).expectNextCount(1).verifyComplete();
+
+        // La firma se verificó una sola vez
+        verify(delegate, times(1)).decode("token-a");
+    }
+
+    @Test
+    void decode_TokenVencidoNoQuedaEnCache() {
+        // exp ya pasado: la entrada vence en el acto
+        when(delegate.decode("token-b")).thenReturn(Mono.just(jwt("token-b", Instant.now().minusSeconds(1))));
+
+        StepVerifier.create(decoder.decode("token-b")).expectNextCount(1).verifyComplete();
+        StepVerifier.create(decoder.decode("token-b")).expectNextCount(1).verifyComplete();
+
+        verify(delegate, times(2)).decode("token-b");
+    }
+
+    @Test
+    void decode_TokenInvalidoNoSeCachea() {
+        when(delegate.decode("token-malo")).thenReturn(Mono.error(new BadJwtException("firma inválida")));
+
+        StepVerifier.create(decoder.decode("token-malo")).expectError(BadJwtException.class).verify();
+        StepVerifier.create(decoder.decode("token-malo")).expectError(BadJwtException.class).verify();
+
+        verify(delegate, times(2)).decode("token-malo");
+    }
+
+    @Test
+    void hash_NoGuardaElTokenEnClaro() {
+        assertNotEquals("token-a", CachingReactiveJwtDecoder.hash("token-a"));
+    }
+
+    private static Jwt jwt(String token, Instant exp) {
+        return Jwt.withTokenValue(token)
+                .header("alg", "RS256")
+                .subject("usuario")
+                .issuedAt(exp.minusSeconds(600))
+                .expiresAt(exp)
+                .build();
+    }
+}
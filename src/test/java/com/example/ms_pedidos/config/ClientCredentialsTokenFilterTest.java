@@ -0,0 +1,103 @@
+package com.example.ms_pedidos.config;
+
+// Imports de Pruebas
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ClientCredentialsTokenFilterTest {
+
+    @Mock
+    private ReactiveOAuth2AuthorizedClientManager authorizedClientManager;
+
+    @Test
+    void filter_LlamadaSinUsuario_LlevaElTokenDelServicio() {
+        // --- 1. Preparación (Arrange) ---
+        when(authorizedClientManager.authorize(any(OAuth2AuthorizeRequest.class))).thenReturn(Mono.just(clienteAutorizado("token-servicio")));
+        ClientCredentialsTokenFilter filtro = new ClientCredentialsTokenFilter(authorizedClientManager, Duration.ofSeconds(20));
+
+        // Lo que manda el relay: propagateTokenFilter no encontró ningún token
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://ms-productos/api/productos/1")).build();
+        AtomicReference<String> enviada = new AtomicReference<>();
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(filtro.filter(request, req -> {
+                    enviada.set(req.headers().getFirst(HttpHeaders.AUTHORIZATION));
+                    return Mono.just(ClientResponse.create(HttpStatus.OK).build());
+                }))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        assertEquals("Bearer token-servicio", enviada.get());
+    }
+
+    @Test
+    void filter_LlamadaConUsuario_ConservaSuToken() {
+        // Dentro de una petición la llamada ya trae el JWT del usuario: no se cambia de identidad
+        ClientCredentialsTokenFilter filtro = new ClientCredentialsTokenFilter(authorizedClientManager, Duration.ofSeconds(20));
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://ms-productos/api/productos/1"))
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token-usuario")
+                .build();
+        AtomicReference<String> enviada = new AtomicReference<>();
+
+        StepVerifier.create(filtro.filter(request, req -> {
+                    enviada.set(req.headers().getFirst(HttpHeaders.AUTHORIZATION));
+                    return Mono.just(ClientResponse.create(HttpStatus.OK).build());
+                }))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertEquals("Bearer token-usuario", enviada.get());
+        verifyNoInteractions(authorizedClientManager);
+    }
+
+    @Test
+    void iniciar_PideElTokenAlArrancar() {
+        when(authorizedClientManager.authorize(any(OAuth2AuthorizeRequest.class))).thenReturn(Mono.just(clienteAutorizado("token-servicio")));
+        ClientCredentialsTokenFilter filtro = new ClientCredentialsTokenFilter(authorizedClientManager, Duration.ofMinutes(1));
+
+        filtro.iniciar();
+
+        // El primer tick es inmediato: el token ya está en memoria antes de la primera llamada
+        verify(authorizedClientManager, timeout(1000).atLeastOnce()).authorize(argThat(solicitud ->
+                ClientCredentialsTokenFilter.REGISTRO.equals(solicitud.getClientRegistrationId())));
+        filtro.detener();
+    }
+
+    private static OAuth2AuthorizedClient clienteAutorizado(String token) {
+        ClientRegistration registro = ClientRegistration.withRegistrationId(ClientCredentialsTokenFilter.REGISTRO)
+                .clientId("ms-pedidos")
+                .authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+                .tokenUri("http://auth/token")
+                .build();
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, token,
+                Instant.now(), Instant.now().plusSeconds(300));
+        return new OAuth2AuthorizedClient(registro, "ms-pedidos", accessToken);
+    }
+}
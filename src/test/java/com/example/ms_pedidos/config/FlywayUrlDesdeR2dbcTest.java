@@ -0,0 +1,47 @@
+package com.example.ms_pedidos.config;
+
+// Imports de Pruebas
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FlywayUrlDesdeR2dbcTest {
+
+    private final FlywayUrlDesdeR2dbc postProcessor = new FlywayUrlDesdeR2dbc();
+
+    @Test
+    void postProcess_SinUrlDeFlyway_LaArmaDesdeR2dbc() {
+        // --- 1. Preparación (Arrange) ---
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("spring.r2dbc.url", "r2dbc:postgresql://postgres-db:5432/sistema_pedidos_db");
+
+        // --- 2. Ejecución (Act) ---
+        postProcessor.postProcessEnvironment(environment, null);
+
+        // --- 3. Verificación (Assert) ---
+        assertEquals("jdbc:postgresql://postgres-db:5432/sistema_pedidos_db", environment.getProperty("spring.flyway.url"));
+    }
+
+    @Test
+    void postProcess_ConPool_SacaElPrefijo() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("spring.r2dbc.url", "r2dbc:pool:postgresql://otra-bd:5433/pedidos");
+
+        postProcessor.postProcessEnvironment(environment, null);
+
+        assertEquals("jdbc:postgresql://otra-bd:5433/pedidos", environment.getProperty("spring.flyway.url"));
+    }
+
+    @Test
+    void postProcess_ConUrlDeFlywayPuesta_SeRespeta() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("spring.r2dbc.url", "r2dbc:postgresql://postgres-db:5432/sistema_pedidos_db")
+                .withProperty("spring.flyway.url", "jdbc:postgresql://migraciones:5432/sistema_pedidos_db");
+
+        postProcessor.postProcessEnvironment(environment, null);
+
+        assertEquals("jdbc:postgresql://migraciones:5432/sistema_pedidos_db", environment.getProperty("spring.flyway.url"));
+    }
+}
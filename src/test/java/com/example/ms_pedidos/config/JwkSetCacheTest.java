@@ -0,0 +1,135 @@
+package com.example.ms_pedidos.config;
+
+// Imports del Servidor Falso
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+// Imports de Pruebas
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JwkSetCacheTest {
+
+    private MockWebServer mockWebServer;
+
+    private final SeguridadProperties config = new SeguridadProperties();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    void decode_ElJwkSetSeDescargaUnaSolaVez() throws Exception {
+        // --- 1. Preparación (Arrange) ---
+        // Claves generadas localmente: no hace falta un servidor de autorización real
+        RSAKey clave = new RSAKeyGenerator(2048).keyID("clave-1").generate();
+        mockWebServer.enqueue(jwks(clave));
+        ReactiveJwtDecoder decoder = decoder();
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(decoder.decode(firmar(clave, "usuario-1")))
+                .expectNextMatches(jwt -> jwt.getSubject().equals("usuario-1"))
+                .verifyComplete();
+        StepVerifier.create(decoder.decode(firmar(clave, "usuario-2")))
+                .expectNextMatches(jwt -> jwt.getSubject().equals("usuario-2"))
+                .verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void decode_KidDesconocido_VuelveADescargarElJwkSet() throws Exception {
+        // --- 1. Preparación (Arrange) ---
+        config.setJwkRefrescoMinimo(Duration.ZERO);
+        RSAKey vieja = new RSAKeyGenerator(2048).keyID("clave-1").generate();
+        RSAKey nueva = new RSAKeyGenerator(2048).keyID("clave-2").generate();
+        mockWebServer.enqueue(jwks(vieja));
+        mockWebServer.enqueue(jwks(vieja, nueva)); // el servidor rotó las claves
+        ReactiveJwtDecoder decoder = decoder();
+
+        StepVerifier.create(decoder.decode(firmar(vieja, "usuario-1"))).expectNextCount(1).verifyComplete();
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(decoder.decode(firmar(nueva, "usuario-1")))
+                .expectNextMatches(jwt -> jwt.getSubject().equals("usuario-1"))
+                .verifyComplete();
+        assertEquals(2, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void decode_KidDesconocido_NoDescargaMasDeUnaVezPorVentana() throws Exception {
+        RSAKey clave = new RSAKeyGenerator(2048).keyID("clave-1").generate();
+        RSAKey inventada = new RSAKeyGenerator(2048).keyID("inventada").generate();
+        mockWebServer.enqueue(jwks(clave));
+        ReactiveJwtDecoder decoder = decoder();
+
+        StepVerifier.create(decoder.decode(firmar(clave, "usuario-1"))).expectNextCount(1).verifyComplete();
+        StepVerifier.create(decoder.decode(firmar(inventada, "atacante"))).expectError().verify();
+
+        // Dentro de jwkRefrescoMinimo un kid desconocido no provoca otra descarga
+        assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    private ReactiveJwtDecoder decoder() {
+        JwkSetCache cache = new JwkSetCache(WebClient.create(),
+                Mono.just(mockWebServer.url("/certs").toString()), config, Clock.systemUTC());
+        return NimbusReactiveJwtDecoder.withJwkSource(cache::buscar).build();
+    }
+
+    private static MockResponse jwks(RSAKey... claves) {
+        List<JWK> publicas = new ArrayList<>();
+        for (RSAKey clave : claves) {
+            publicas.add(clave.toPublicJWK());
+        }
+        JWKSet set = new JWKSet(publicas);
+        return new MockResponse()
+                .setBody(set.toString())
+                .addHeader("Content-Type", "application/json");
+    }
+
+    private static String firmar(RSAKey clave, String sujeto) throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(sujeto)
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(300)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(clave.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(clave));
+        return jwt.serialize();
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.ms_pedidos.config;
+
+// Imports de Pruebas
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.net.URI;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricasClienteFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final MetricasClienteFilter filtro =
+            new MetricasClienteFilter(meterRegistry, new ProductosProperties.Instrumentacion());
+
+    @Test
+    void filter_RegistraTimerPorPlantillaYEstado() {
+        // --- 1. Preparación (Arrange) ---
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://ms-productos/api/productos/5"))
+                .attribute(MetricasClienteFilter.ATRIBUTO_PLANTILLA, "/api/productos/{id}")
+                .build();
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(filtro.filter(request, req -> Mono.just(ClientResponse.create(HttpStatus.NOT_FOUND).build())))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        assertEquals(1, meterRegistry.get("pedidos.http.cliente")
+                .tags("metodo", "GET", "uri", "/api/productos/{id}", "estado", "404").timer().count());
+    }
+
+    @Test
+    void filter_ErrorDeConexion_SeRegistraComoIoError() {
+        ClientRequest request = ClientRequest.create(HttpMethod.POST, URI.create("http://ms-productos/api/productos/stock/reservas"))
+                .build();
+
+        StepVerifier.create(filtro.filter(request, req -> Mono.error(new IOException("conexión rechazada"))))
+                .expectError(IOException.class)
+                .verify();
+
+        assertEquals(1, meterRegistry.get("pedidos.http.cliente")
+                .tags("uri", "/api/productos/stock/reservas", "estado", "IO_ERROR").timer().count());
+    }
+
+    @Test
+    void filter_CanceladaAntesDeLaRespuesta_SeRegistraComoCancelled() {
+        // Lo que hace un timeout (o el bulkhead) de quien llama: cancela la llamada en vuelo
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://ms-productos/api/productos/lote"))
+                .build();
+
+        StepVerifier.create(filtro.filter(request, req -> Mono.never()))
+                .expectSubscription()
+                .thenCancel()
+                .verify();
+
+        assertEquals(1, meterRegistry.get("pedidos.http.cliente")
+                .tags("uri", "/api/productos/lote", "estado", "CANCELLED").timer().count());
+    }
+
+    @Test
+    void plantilla_SinAtributo_ReemplazaIdsNumericos() {
+        ClientRequest request = ClientRequest.create(HttpMethod.PUT, URI.create("http://ms-productos/api/productos/42/stock?cantidad=3"))
+                .build();
+
+        assertEquals("/api/productos/{id}/stock", MetricasClienteFilter.plantilla(request));
+    }
+
+    @Test
+    void cabecerasRedactadas_NuncaMuestraElToken() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth("secreto-123");
+        headers.set("Idempotency-Key", "pedido-1");
+
+        String texto = MetricasClienteFilter.cabecerasRedactadas(headers);
+
+        assertFalse(texto.contains("secreto-123"));
+        assertTrue(texto.contains("Authorization=" + MetricasClienteFilter.REDACTADO));
+        assertTrue(texto.contains("Idempotency-Key=pedido-1"));
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.ms_pedidos.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProductoClientConfigTest {
+
+    @Test
+    void productoClient_SinClientCredentials_NoArranca() {
+        // --- 1. Preparación (Arrange) ---
+        // El relay y el reencolado async corren sin usuario: sin token del servicio todo daría 401
+        ProductosProperties properties = new ProductosProperties();
+        properties.getClientCredentials().setHabilitado(false);
+
+        // --- 2 y 3. Ejecución y Verificación ---
+        assertThrows(IllegalStateException.class, () -> new ProductoClientConfig()
+                .productoClient(WebClient.builder(), properties, null, null, new SimpleMeterRegistry()));
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.ms_pedidos.config;
+
+// Imports de Pruebas
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TokenContextWebFilterTest {
+
+    private final TokenContextWebFilter filtro = new TokenContextWebFilter();
+
+    private final MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/pedidos"));
+
+    @Test
+    void filter_DejaLaCabeceraArmadaEnElContexto() {
+        // --- 1. Preparación (Arrange) ---
+        Jwt jwt = Jwt.withTokenValue("token-123")
+                .header("alg", "none")
+                .claim("sub", "usuario")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(3600))
+                .build();
+        AtomicReference<String> cabecera = new AtomicReference<>();
+        WebFilterChain chain = ex -> Mono.deferContextual(contexto -> {
+            cabecera.set(contexto.getOrDefault(TokenContextWebFilter.AUTHORIZATION, null));
+            return Mono.empty();
+        });
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(filtro.filter(exchange, chain)
+                        .contextWrite(ReactiveSecurityContextHolder.withAuthentication(new JwtAuthenticationToken(jwt))))
+                .verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        assertEquals("Bearer token-123", cabecera.get());
+    }
+
+    @Test
+    void filter_SinAutenticacion_SigueLaCadenaSinToken() {
+        AtomicReference<String> cabecera = new AtomicReference<>("sin-llamar");
+        WebFilterChain chain = ex -> Mono.deferContextual(contexto -> {
+            cabecera.set(contexto.getOrDefault(TokenContextWebFilter.AUTHORIZATION, null));
+            return Mono.empty();
+        });
+
+        StepVerifier.create(filtro.filter(exchange, chain)).verifyComplete();
+
+        assertNull(cabecera.get());
+    }
+}
@@ -1,8 +1,18 @@
 package com.example.ms_pedidos.controller;
 
 import com.example.ms_pedidos.SecurityConfig;
+import com.example.ms_pedidos.config.EventosPedidoConfig;
+import com.example.ms_pedidos.model.EstadoPedido;
 import com.example.ms_pedidos.model.Pedido;
+import com.example.ms_pedidos.service.ClaveIdempotenciaReutilizadaException;
 import com.example.ms_pedidos.service.PedidoService;
+import com.example.ms_pedidos.service.ProcesadorPedidosAsync;
+import com.example.ms_pedidos.service.PublicadorEventosPedido;
+import com.example.ms_pedidos.service.TransicionEstadoInvalidaException;
+import com.example.ms_pedidos.dto.EventoPedidoDTO;
+import com.example.ms_pedidos.dto.FiltroPedidosDTO;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.core.ParameterizedTypeReference;
 
 // Imports de Prueba Web
 import org.junit.jupiter.api.Test;
@@ -20,8 +30,16 @@ import reactor.core.publisher.Flux;
 // Imports para la seguridad de la prueba
 import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Predicate;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.mockJwt;
 
 
@@ -35,7 +53,7 @@ import org.mockito.ArgumentMatchers;
 
 // ¡DEJAMOS EL @WebFluxTest LIMPIO!
 @WebFluxTest(controllers = PedidoController.class)
-@Import(SecurityConfig.class)
+@Import({SecurityConfig.class, EventosPedidoConfig.class})
 class PedidoControllerTest {
 
     @Autowired
@@ -50,6 +68,14 @@ class PedidoControllerTest {
     @MockBean
     private ReactiveJwtDecoder jwtDecoder;
 
+    // Cola del modo async (POST ?async=true)
+    @MockBean
+    private ProcesadorPedidosAsync procesadorAsync;
+
+    // Feed SSE (GET /api/pedidos/eventos)
+    @MockBean
+    private PublicadorEventosPedido publicadorEventos;
+
     // (¡Quitamos todos los otros @MockBean de repositorios!
     // Esas son para la prueba unitaria, no para esta)
 
@@ -59,7 +85,7 @@ class PedidoControllerTest {
         // --- 1. Preparación (Arrange) ---
         Pedido pedidoMock = new Pedido();
         pedidoMock.setId(1L);
-        pedidoMock.setEstado("ENVIADO");
+        pedidoMock.setEstado(EstadoPedido.ENVIADO);
 
         when(pedidoService.findAll()).thenReturn(Flux.just(pedidoMock));
 
@@ -82,17 +108,101 @@ class PedidoControllerTest {
 
         verify(pedidoService, times(1)).findAll();
     }
+    @Test
+    void testGetPedidosPage_Success() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedido1 = new Pedido();
+        pedido1.setId(121L);
+        Pedido pedido2 = new Pedido();
+        pedido2.setId(125L);
+
+        when(pedidoService.findPage(120L, 2)).thenReturn(Flux.just(pedido1, pedido2));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        webClient.mutateWith(mockJwt())
+                .get().uri("/api/pedidos?limit=2&after=120")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                // El cursor de la siguiente página es el último id devuelto
+                .expectHeader().valueEquals("X-Next-Cursor", "125")
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[1].id").isEqualTo(125);
+
+        verify(pedidoService, times(1)).findPage(120L, 2);
+        verify(pedidoService, never()).findAll();
+    }
+
+    @Test
+    void testBuscarPedidos_FiltrosDeLaQuery() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedido = new Pedido();
+        pedido.setId(40L);
+        FiltroPedidosDTO filtro = new FiltroPedidosDTO("ana", EstadoPedido.PENDIENTE,
+                LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2024, 2, 1, 0, 0), new BigDecimal("10.00"), null);
+
+        when(pedidoService.buscar(filtro, 30L, 20)).thenReturn(Flux.just(pedido));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        webClient.mutateWith(mockJwt())
+                .get().uri("/api/pedidos/buscar?cliente=ana&estado=PENDIENTE&desde=2024-01-01T00:00:00"
+                        + "&hasta=2024-02-01T00:00:00&totalMin=10&limit=20&after=30")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Next-Cursor", "40")
+                .expectBody()
+                .jsonPath("$[0].id").isEqualTo(40);
+
+        // El filtro llega armado al servicio; nunca se trae la tabla completa
+        verify(pedidoService, times(1)).buscar(filtro, 30L, 20);
+        verify(pedidoService, never()).findAll();
+    }
+
+    @Test
+    void testStreamPedidos_Ndjson() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedido1 = new Pedido();
+        pedido1.setId(1L);
+        Pedido pedido2 = new Pedido();
+        pedido2.setId(2L);
+
+        when(pedidoService.streamAll()).thenReturn(Flux.just(pedido1, pedido2));
+
+        // --- 2. Ejecución (Act) ---
+        Flux<Pedido> cuerpo = webClient.mutateWith(mockJwt())
+                .get().uri("/api/pedidos")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(Pedido.class)
+                .getResponseBody();
+
+        // --- 3. Verificación (Assert) ---
+        // Cada línea NDJSON llega como un pedido independiente
+        StepVerifier.create(cuerpo)
+                .expectNextMatches(p -> p.getId().equals(1L))
+                .expectNextMatches(p -> p.getId().equals(2L))
+                .verifyComplete();
+
+        verify(pedidoService, times(1)).streamAll();
+        verify(pedidoService, never()).findAll();
+    }
+
     @Test
     void testGetPedidoById_Success() {
         // --- 1. Preparación (Arrange) ---
         long pedidoId = 1L;
         Pedido pedidoMock = new Pedido();
         pedidoMock.setId(pedidoId);
-        pedidoMock.setEstado("ENVIADO");
-        pedidoMock.setTotal(200.0);
+        pedidoMock.setEstado(EstadoPedido.ENVIADO);
+        pedidoMock.setTotal(new BigDecimal("200.00"));
+        pedidoMock.setVersion(2L);
 
         // Mock: "Cuando el servicio busque por ID 1, devuelve el pedidoMock"
-        when(pedidoService.findById(pedidoId)).thenReturn(Mono.just(pedidoMock));
+        when(pedidoService.findById(eq(pedidoId), any())).thenReturn(Mono.just(pedidoMock));
 
         // --- 2. Ejecución (Act) ---
         webClient.mutateWith(mockJwt()) // <-- ¡Acuérdate de la seguridad!
@@ -102,12 +212,75 @@ class PedidoControllerTest {
 
                 // --- 3. Verificación (Assert) ---
                 .expectStatus().isOk() // Esperamos un 200 OK
+                .expectHeader().valueEquals("ETag", "\"1-2\"") // id-versión
                 .expectBody()
                 .jsonPath("$.id").isEqualTo(pedidoId)
                 .jsonPath("$.estado").isEqualTo("ENVIADO");
 
         // Verificamos que se llamó al servicio
-        verify(pedidoService, times(1)).findById(pedidoId);
+        verify(pedidoService, times(1)).findById(eq(pedidoId), any());
+    }
+
+    @Test
+    void testGetPedidoById_IfNoneMatchIgual_NotModified() {
+        // --- 1. Preparación (Arrange) ---
+        long pedidoId = 1L;
+        Pedido pedidoMock = new Pedido();
+        pedidoMock.setId(pedidoId);
+        pedidoMock.setVersion(2L);
+
+        // El service llama a sinCambios con la fila del pedido; como da true, no carga los detalles
+        when(pedidoService.findById(eq(pedidoId), any())).thenAnswer(invocacion -> {
+            Predicate<Pedido> sinCambios = invocacion.getArgument(1);
+            assertTrue(sinCambios.test(pedidoMock));
+            return Mono.just(pedidoMock);
+        });
+
+        // --- 2. Ejecución (Act) ---
+        webClient.mutateWith(mockJwt())
+                .get().uri("/api/pedidos/{id}", pedidoId)
+                .header("If-None-Match", "\"1-2\"") // La versión que el cliente ya tiene
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+
+                // --- 3. Verificación (Assert) ---
+                .expectStatus().isNotModified() // 304 sin cuerpo
+                .expectHeader().valueEquals("ETag", "\"1-2\"")
+                .expectBody().isEmpty();
+
+        verify(pedidoService, times(1)).findById(eq(pedidoId), any());
+        verify(pedidoService, never()).findById(pedidoId);
+    }
+
+    @Test
+    void testGetPedidoById_IfNoneMatchViejo_DevuelveElPedido() {
+        // --- 1. Preparación (Arrange) ---
+        // El cliente tiene la versión 1 y el pedido ya va por la 2 (cambió de estado)
+        long pedidoId = 1L;
+        Pedido pedidoMock = new Pedido();
+        pedidoMock.setId(pedidoId);
+        pedidoMock.setEstado(EstadoPedido.ENVIADO);
+        pedidoMock.setVersion(2L);
+
+        when(pedidoService.findById(eq(pedidoId), any())).thenAnswer(invocacion -> {
+            Predicate<Pedido> sinCambios = invocacion.getArgument(1);
+            assertFalse(sinCambios.test(pedidoMock));
+            return Mono.just(pedidoMock);
+        });
+
+        // --- 2. Ejecución (Act) ---
+        webClient.mutateWith(mockJwt())
+                .get().uri("/api/pedidos/{id}", pedidoId)
+                .header("If-None-Match", "\"1-1\"")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+
+                // --- 3. Verificación (Assert) ---
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "\"1-2\"")
+                .expectBody()
+                .jsonPath("$.estado").isEqualTo("ENVIADO")
+                .jsonPath("$.version").isEqualTo(2);
     }
 
     // --- AÑADE ESTA PRUEBA (Camino Triste: GET /api/pedidos/{id} No Encontrado) ---
@@ -117,7 +290,7 @@ class PedidoControllerTest {
         long idNoExistente = 99L;
 
         // Mock: "Cuando el servicio busque por ID 99, devuelve vacío"
-        when(pedidoService.findById(idNoExistente)).thenReturn(Mono.empty());
+        when(pedidoService.findById(eq(idNoExistente), any())).thenReturn(Mono.empty());
 
         // --- 2. Ejecución (Act) ---
         webClient.mutateWith(mockJwt()) // <-- ¡Seguridad!
@@ -129,19 +302,19 @@ class PedidoControllerTest {
                 .expectStatus().isNotFound(); // <-- ¡Esperamos un 404 Not Found!
 
         // Verificamos que se llamó al servicio
-        verify(pedidoService, times(1)).findById(idNoExistente);
+        verify(pedidoService, times(1)).findById(eq(idNoExistente), any());
     }
     @Test
     void testCreatePedido_Success() {
 
         Pedido pedidoInput = new Pedido();
-        pedidoInput.setEstado("PENDIENTE");
+        pedidoInput.setEstado(EstadoPedido.PENDIENTE);
 
         Pedido pedidoMock = new Pedido();
         pedidoMock.setId(1L);
-        pedidoMock.setEstado("PENDIENTE");
+        pedidoMock.setEstado(EstadoPedido.PENDIENTE);
 
-        when(pedidoService.createPedido(any(Pedido.class)))
+        when(pedidoService.createPedido(any(Pedido.class), eq("user"), isNull()))
                 .thenReturn(Mono.just(pedidoMock));
 
         webClient.mutateWith(
@@ -155,23 +328,124 @@ class PedidoControllerTest {
                 .exchange()
                 .expectStatus().isCreated()
                 .expectBody(Pedido.class)
-                .value(p -> assertEquals("PENDIENTE", p.getEstado()));
+                .value(p -> assertEquals(EstadoPedido.PENDIENTE, p.getEstado()));
+
+        verify(pedidoService, times(1)).createPedido(any(Pedido.class), eq("user"), isNull());
+    }
+
+    @Test
+    void testCreatePedido_ConIdempotencyKey_PasaLaClaveAlServicio() {
+        Pedido pedidoMock = new Pedido();
+        pedidoMock.setId(1L);
+        pedidoMock.setEstado(EstadoPedido.PENDIENTE);
+
+        when(pedidoService.createPedido(any(Pedido.class), eq("user"), eq("reintento-abc")))
+                .thenReturn(Mono.just(pedidoMock));
+
+        webClient.mutateWith(mockJwt())
+                .post().uri("/api/pedidos")
+                .header("Idempotency-Key", "reintento-abc")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Pedido())
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Pedido.class)
+                .value(p -> assertEquals(1L, p.getId()));
 
-        verify(pedidoService, times(1)).createPedido(any(Pedido.class));
+        verify(pedidoService, times(1)).createPedido(any(Pedido.class), eq("user"), eq("reintento-abc"));
     }
+
+    @Test
+    void testCreatePedido_IdempotencyKeyConOtroCuerpo_422() {
+        // mockJwt() autentica como "user": la clave se busca entre las suyas
+        when(pedidoService.createPedido(any(Pedido.class), eq("user"), eq("reintento-abc")))
+                .thenReturn(Mono.error(new ClaveIdempotenciaReutilizadaException("reintento-abc")));
+
+        webClient.mutateWith(mockJwt())
+                .post().uri("/api/pedidos")
+                .header("Idempotency-Key", "reintento-abc")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Pedido())
+                .exchange()
+                .expectStatus().isEqualTo(422);
+    }
+
+    @Test
+    void testCreatePedido_IdempotencyKeyDemasiadoLarga_BadRequest() {
+        webClient.mutateWith(mockJwt())
+                .post().uri("/api/pedidos")
+                .header("Idempotency-Key", "x".repeat(256))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Pedido())
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verify(pedidoService, never()).createPedido(any(Pedido.class), anyString(), anyString());
+    }
+
+    @Test
+    void testAceptarPedido_Async_Devuelve202ConLocation() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido aceptado = new Pedido();
+        aceptado.setId(7L);
+        aceptado.setEstado(EstadoPedido.PENDIENTE);
+
+        when(pedidoService.aceptarPedido(any(Pedido.class), eq("user"), isNull())).thenReturn(Mono.just(aceptado));
+        when(procesadorAsync.encolar(aceptado)).thenReturn(Mono.empty());
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        webClient.mutateWith(mockJwt())
+                .post().uri("/api/pedidos?async=true")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Pedido())
+                .exchange()
+                .expectStatus().isAccepted()
+                .expectHeader().location("/api/pedidos/7")
+                .expectBody(Pedido.class)
+                .value(p -> assertEquals(EstadoPedido.PENDIENTE, p.getEstado()));
+
+        // No pasa por la creación síncrona
+        verify(procesadorAsync, times(1)).encolar(aceptado);
+        verify(pedidoService, never()).createPedido(any(Pedido.class), anyString(), nullable(String.class));
+    }
+    @Test
+    void testEventosPedidos_SseConLastEventIdYFiltros() {
+        // --- 1. Preparación (Arrange) ---
+        EventoPedidoDTO evento = new EventoPedidoDTO(8L, "ESTADO", 3L, "ana", EstadoPedido.PROCESADO, LocalDateTime.now());
+        when(publicadorEventos.eventos(7L, "ana", EstadoPedido.PROCESADO)).thenReturn(Flux.just(evento));
+
+        // --- 2. Ejecución (Act) ---
+        Flux<ServerSentEvent<EventoPedidoDTO>> respuesta = webClient.mutateWith(mockJwt())
+                .get().uri("/api/pedidos/eventos?cliente=ana&estado=PROCESADO")
+                .header("Last-Event-ID", "7")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<EventoPedidoDTO>>() {})
+                .getResponseBody();
+
+        // --- 3. Verificación (Assert) ---
+        StepVerifier.create(respuesta)
+                .expectNextMatches(sse -> "8".equals(sse.id())
+                        && "ESTADO".equals(sse.event())
+                        && sse.data().getPedidoId().equals(3L))
+                .thenCancel()
+                .verify();
+    }
+
     @Test
     void testUpdateEstadoPedido_Success() {
         // --- 1. Preparación (Arrange) ---
         long pedidoId = 1L;
-        String nuevoEstado = "ENVIADO";
+        EstadoPedido nuevoEstado = EstadoPedido.ENVIADO;
 
         Pedido pedidoMock = new Pedido();
         pedidoMock.setId(pedidoId);
         pedidoMock.setEstado(nuevoEstado); // El estado ya actualizado
-        pedidoMock.setTotal(200.0);
+        pedidoMock.setTotal(new BigDecimal("200.00"));
 
         // Mock: "Cuando el servicio actualice, devuelve el pedido actualizado"
-        when(pedidoService.updateEstado(pedidoId, nuevoEstado)).thenReturn(Mono.just(pedidoMock));
+        when(pedidoService.updateEstado(pedidoId, nuevoEstado, false)).thenReturn(Mono.just(pedidoMock));
 
         // --- 2. Ejecución (Act) ---
         webClient.mutateWith(
@@ -186,10 +460,31 @@ class PedidoControllerTest {
                 .expectStatus().isOk() // Esperamos un 200 OK
                 .expectBody()
                 .jsonPath("$.id").isEqualTo(pedidoId)
-                .jsonPath("$.estado").isEqualTo(nuevoEstado);
+                .jsonPath("$.estado").isEqualTo(nuevoEstado.name());
 
-        // Verificamos que se llamó al servicio
-        verify(pedidoService, times(1)).updateEstado(pedidoId, nuevoEstado);
+        // Verificamos que se llamó al servicio (sin detalles: no los pidió)
+        verify(pedidoService, times(1)).updateEstado(pedidoId, nuevoEstado, false);
+    }
+
+    @Test
+    void testUpdateEstadoPedido_TransicionNoPermitida_Conflict() {
+        when(pedidoService.updateEstado(1L, EstadoPedido.PENDIENTE, false))
+                .thenReturn(Mono.error(new TransicionEstadoInvalidaException(1L, EstadoPedido.ENVIADO, EstadoPedido.PENDIENTE)));
+
+        webClient.mutateWith(mockJwt())
+                .put().uri("/api/pedidos/1/estado?estado=PENDIENTE")
+                .exchange()
+                .expectStatus().isEqualTo(409);
+    }
+
+    @Test
+    void testUpdateEstadoPedido_EstadoDesconocido_BadRequest() {
+        webClient.mutateWith(mockJwt())
+                .put().uri("/api/pedidos/1/estado?estado=PERDIDO")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(pedidoService);
     }
     @Test
     void testDeletePedido_Success() {
@@ -214,4 +509,42 @@ class PedidoControllerTest {
         // Verificamos que se llamó al servicio
         verify(pedidoService, times(1)).deletePedido(pedidoId);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testDeletePedidos_PorIds() {
+        when(pedidoService.deletePedidos(List.of(1L, 2L, 3L))).thenReturn(Mono.just(3L));
+
+        webClient.mutateWith(mockJwt().authorities(new SimpleGrantedAuthority("SCOPE_pedido.write")))
+                .delete().uri("/api/pedidos?ids=1,2,3")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.eliminados").isEqualTo(3);
+
+        verify(pedidoService, times(1)).deletePedidos(List.of(1L, 2L, 3L));
+    }
+
+    @Test
+    void testDeletePedidos_PorFechas() {
+        LocalDateTime desde = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime hasta = LocalDateTime.of(2024, 2, 1, 0, 0);
+        when(pedidoService.deletePedidosByFecha(desde, hasta)).thenReturn(Mono.just(40L));
+
+        webClient.mutateWith(mockJwt().authorities(new SimpleGrantedAuthority("SCOPE_pedido.write")))
+                .delete().uri("/api/pedidos?desde=2024-01-01T00:00:00&hasta=2024-02-01T00:00:00")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.eliminados").isEqualTo(40);
+    }
+
+    @Test
+    void testDeletePedidos_SinFiltro_BadRequest() {
+        webClient.mutateWith(mockJwt().authorities(new SimpleGrantedAuthority("SCOPE_pedido.write")))
+                .delete().uri("/api/pedidos")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(pedidoService);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.ms_pedidos.controller;
+
+import com.example.ms_pedidos.SecurityConfig;
+import com.example.ms_pedidos.dto.ResumenClienteDTO;
+import com.example.ms_pedidos.dto.ResumenDiaDTO;
+import com.example.ms_pedidos.dto.ResumenProductoDTO;
+import com.example.ms_pedidos.model.EstadoPedido;
+import com.example.ms_pedidos.service.ReporteService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.mockJwt;
+
+@WebFluxTest(controllers = ReporteController.class)
+@Import(SecurityConfig.class)
+class ReporteControllerTest {
+
+    @Autowired
+    private WebTestClient webClient;
+
+    @MockBean
+    private ReporteService reporteService;
+
+    // Lo necesita SecurityConfig para arrancar
+    @MockBean
+    private ReactiveJwtDecoder jwtDecoder;
+
+    private final LocalDate desde = LocalDate.of(2024, 1, 1);
+    private final LocalDate hasta = LocalDate.of(2024, 1, 31);
+
+    @Test
+    void ventasDiarias_DevuelveElResumen() {
+        // --- 1. Preparación (Arrange) ---
+        when(reporteService.ventasDiarias(desde, hasta)).thenReturn(Flux.just(
+                new ResumenDiaDTO(desde, EstadoPedido.PROCESADO, 3L, new BigDecimal("450.00"))));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        webClient.mutateWith(mockJwt())
+                .get().uri("/api/reportes/ventas-diarias?desde=2024-01-01&hasta=2024-01-31")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].dia").isEqualTo("2024-01-01")
+                .jsonPath("$[0].estado").isEqualTo("PROCESADO")
+                .jsonPath("$[0].pedidos").isEqualTo(3)
+                .jsonPath("$[0].total").isEqualTo(450.0);
+    }
+
+    @Test
+    void topClientes_LimitePorDefecto() {
+        when(reporteService.topClientes(desde, hasta, 10)).thenReturn(Flux.just(new ResumenClienteDTO("ana", 2L, new BigDecimal("300.00"))));
+
+        webClient.mutateWith(mockJwt())
+                .get().uri("/api/reportes/clientes?desde=2024-01-01&hasta=2024-01-31")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].cliente").isEqualTo("ana")
+                .jsonPath("$[0].total").isEqualTo(300.0);
+    }
+
+    @Test
+    void topProductos_ConLimite() {
+        when(reporteService.topProductos(desde, hasta, 5)).thenReturn(Flux.just(new ResumenProductoDTO(1L, 20L, new BigDecimal("2000.00"))));
+
+        webClient.mutateWith(mockJwt())
+                .get().uri("/api/reportes/productos?desde=2024-01-01&hasta=2024-01-31&limite=5")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].productoId").isEqualTo(1)
+                .jsonPath("$[0].importe").isEqualTo(2000.0);
+    }
+
+    @Test
+    void rangoInvertido_BadRequest() {
+        webClient.mutateWith(mockJwt())
+                .get().uri("/api/reportes/ventas-diarias?desde=2024-02-01&hasta=2024-01-01")
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        verifyNoInteractions(reporteService);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.ms_pedidos.dto;
+
+import com.example.ms_pedidos.model.DetallePedido;
+import com.example.ms_pedidos.model.EstadoPedido;
+import com.example.ms_pedidos.model.Pedido;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PedidoRespuestaSerializerTest {
+
+    // Como el ObjectMapper de Spring Boot: java.time registrado y fechas ISO, no timestamps
+    private final ObjectMapper mapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @Test
+    void serializa_MismoJsonQueLaEntidad() throws Exception {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedido = new Pedido(5L, "ana", LocalDateTime.of(2024, 1, 2, 10, 30), new BigDecimal("250.50"),
+                EstadoPedido.PROCESADO, 1L, List.of(
+                        new DetallePedido(1L, 5L, 10L, 2, new BigDecimal("100.25")),
+                        new DetallePedido(2L, 5L, 11L, 1, new BigDecimal("50.00"))));
+
+        // --- 2. Ejecución (Act) ---
+        String json = mapper.writeValueAsString(PedidoRespuesta.de(pedido));
+
+        // --- 3. Verificación (Assert) ---
+        // Los clientes no notan el cambio: mismos campos y valores que con la entidad
+        assertEquals(mapper.readTree(mapper.writeValueAsString(pedido)), mapper.readTree(json));
+    }
+
+    @Test
+    void serializa_SinDetallesNiTotal() throws Exception {
+        // Pedido async recién aceptado (sin total) devuelto sin detalles
+        Pedido pedido = new Pedido(6L, null, LocalDateTime.of(2024, 1, 2, 10, 30), null, EstadoPedido.PENDIENTE, 0L, null);
+
+        String json = mapper.writeValueAsString(PedidoRespuesta.de(pedido));
+
+        assertEquals(mapper.readTree(mapper.writeValueAsString(pedido)), mapper.readTree(json));
+    }
+
+    @Test
+    void de_CopiaLosDetalles_NoSeVenCambiosPosteriores() {
+        List<DetallePedido> detalles = new ArrayList<>(List.of(new DetallePedido(1L, 5L, 10L, 2, BigDecimal.ONE)));
+        Pedido pedido = new Pedido(5L, "ana", null, BigDecimal.TEN, EstadoPedido.PENDIENTE, 0L, detalles);
+
+        PedidoRespuesta respuesta = PedidoRespuesta.de(pedido);
+        detalles.add(new DetallePedido(2L, 5L, 11L, 1, BigDecimal.ONE));
+        pedido.setEstado(EstadoPedido.CANCELADO);
+
+        assertEquals(1, respuesta.detalles().size());
+        assertEquals(EstadoPedido.PENDIENTE, respuesta.estado());
+        assertThrows(UnsupportedOperationException.class, () -> respuesta.detalles().add(null));
+    }
+}
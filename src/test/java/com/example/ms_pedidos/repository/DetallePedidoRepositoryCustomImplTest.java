@@ -0,0 +1,38 @@
+package com.example.ms_pedidos.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DetallePedidoRepositoryCustomImplTest {
+
+    @Test
+    void sqlInsert_UnaFila() {
+        assertEquals("INSERT INTO detalle_pedidos (pedido_id, producto_id, cantidad, precio_unitario) VALUES "
+                        + "(:pedidoId0, :productoId0, :cantidad0, :precioUnitario0)"
+                        + " RETURNING id, pedido_id, producto_id, cantidad, precio_unitario",
+                DetallePedidoRepositoryCustomImpl.sqlInsert(1));
+    }
+
+    @Test
+    void sqlInsert_VariasFilasEnUnSoloInsert() {
+        String sql = DetallePedidoRepositoryCustomImpl.sqlInsert(3);
+
+        // Un solo INSERT con tres grupos VALUES, cada uno con sus propios parámetros
+        assertEquals(1, sql.split("INSERT INTO").length - 1);
+        assertTrue(sql.contains("(:pedidoId0, :productoId0, :cantidad0, :precioUnitario0), "
+                + "(:pedidoId1, :productoId1, :cantidad1, :precioUnitario1), "
+                + "(:pedidoId2, :productoId2, :cantidad2, :precioUnitario2) RETURNING"));
+    }
+
+    @Test
+    void sqlActualizarPrecios_UnSoloUpdatePorTramo() {
+        assertEquals("UPDATE detalle_pedidos d SET precio_unitario = v.precio_unitario FROM (VALUES "
+                        + "(CAST(:productoId0 AS BIGINT), CAST(:precioUnitario0 AS NUMERIC)), "
+                        + "(CAST(:productoId1 AS BIGINT), CAST(:precioUnitario1 AS NUMERIC)))"
+                        + " AS v (producto_id, precio_unitario)"
+                        + " WHERE d.pedido_id = :pedidoId AND d.producto_id = v.producto_id",
+                DetallePedidoRepositoryCustomImpl.sqlActualizarPrecios(2));
+    }
+}
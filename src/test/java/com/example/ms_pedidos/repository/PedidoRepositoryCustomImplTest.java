@@ -0,0 +1,38 @@
+package com.example.ms_pedidos.repository;
+
+import com.example.ms_pedidos.dto.FiltroPedidosDTO;
+import com.example.ms_pedidos.model.EstadoPedido;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.relational.core.query.Criteria;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PedidoRepositoryCustomImplTest {
+
+    @Test
+    void criterio_SinFiltros_SoloElCursor() {
+        assertEquals(Criteria.where("id").greaterThan(0L).toString(),
+                PedidoRepositoryCustomImpl.criterio(new FiltroPedidosDTO(), 0L).toString());
+    }
+
+    @Test
+    void criterio_TodosLosFiltros() {
+        LocalDateTime desde = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime hasta = LocalDateTime.of(2024, 2, 1, 0, 0);
+        FiltroPedidosDTO filtro = new FiltroPedidosDTO("ana", EstadoPedido.PROCESADO, desde, hasta, new BigDecimal("10.00"), new BigDecimal("500.00"));
+
+        // Sólo se agregan los filtros presentes; el estado va por nombre, como en la columna
+        Criteria esperado = Criteria.where("id").greaterThan(120L)
+                .and("cliente").is("ana")
+                .and("estado").is("PROCESADO")
+                .and("fecha").greaterThanOrEquals(desde)
+                .and("fecha").lessThan(hasta)
+                .and("total").greaterThanOrEquals(new BigDecimal("10.00"))
+                .and("total").lessThanOrEquals(new BigDecimal("500.00"));
+
+        assertEquals(esperado.toString(), PedidoRepositoryCustomImpl.criterio(filtro, 120L).toString());
+    }
+}
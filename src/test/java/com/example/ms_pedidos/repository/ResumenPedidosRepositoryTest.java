@@ -0,0 +1,82 @@
+package com.example.ms_pedidos.repository;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+class ResumenPedidosRepositoryTest {
+
+    // Las sentencias se simulan: acá se prueba el orden bloquear -> restar -> cambio -> sumar
+    private final ResumenPedidosRepository repository = spy(new ResumenPedidosRepository(null));
+
+    private final List<Long> ids = List.of(7L);
+
+    @Test
+    void recalcular_RestaAplicaYSuma_EnOrden() {
+        // --- 1. Preparación (Arrange) ---
+        doReturn(Mono.empty()).when(repository).bloquear(ids);
+        doReturn(Mono.empty()).when(repository).restar(ids, true);
+        doReturn(Mono.empty()).when(repository).sumar(ids, true);
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(repository.recalcular(ids, true, Mono.just("cambiado")))
+                .expectNext("cambiado")
+                .verifyComplete();
+
+        InOrder orden = inOrder(repository);
+        orden.verify(repository).bloquear(ids);
+        orden.verify(repository).restar(ids, true);
+        orden.verify(repository).sumar(ids, true);
+    }
+
+    @Test
+    void recalcular_CambioSinEfecto_VuelveASumarLoQueResto() {
+        // El UPDATE condicional no tocó nada: restar y sumar lo mismo deja el resumen igual
+        doReturn(Mono.empty()).when(repository).bloquear(ids);
+        doReturn(Mono.empty()).when(repository).restar(ids, false);
+        doReturn(Mono.empty()).when(repository).sumar(ids, false);
+
+        StepVerifier.create(repository.recalcular(ids, false, Mono.empty())).verifyComplete();
+
+        verify(repository, times(1)).restar(ids, false);
+        verify(repository, times(1)).sumar(ids, false);
+    }
+
+    @Test
+    void recalcular_CambioConError_NoSuma() {
+        // El error corta el flujo: el rollback de quien llama deshace la resta
+        doReturn(Mono.empty()).when(repository).bloquear(ids);
+        doReturn(Mono.empty()).when(repository).restar(ids, true);
+
+        StepVerifier.create(repository.recalcular(ids, true, Mono.error(new IllegalStateException("falló"))))
+                .expectErrorMessage("falló")
+                .verify();
+
+        verify(repository, never()).sumar(anyCollection(), anyBoolean());
+    }
+
+    @Test
+    void sqlVentas_ExcluyenCanceladosYSinPrecio() {
+        assertTrue(ResumenPedidosRepository.SQL_CLIENTE.contains("total IS NOT NULL AND estado <> 'CANCELADO'"));
+        assertTrue(ResumenPedidosRepository.SQL_PRODUCTO.contains("p.total IS NOT NULL AND p.estado <> 'CANCELADO'"));
+        // El bloqueo va ordenado por id: dos borrados por tramos no se bloquean cruzados
+        assertTrue(ResumenPedidosRepository.SQL_BLOQUEAR.endsWith("ORDER BY id FOR UPDATE"));
+    }
+
+    @Test
+    void sqlResumenes_RepartidosEnSlotsYEnOrden() {
+        // Cada pedido suma en su slot (no todos en la misma fila) y las filas se toman siempre en el mismo orden
+        for (String sql : List.of(ResumenPedidosRepository.SQL_ESTADO, ResumenPedidosRepository.SQL_CLIENTE,
+                ResumenPedidosRepository.SQL_PRODUCTO)) {
+            assertTrue(sql.contains("id % :slots"), sql);
+            assertTrue(sql.contains("GROUP BY 1, 2, 3 ORDER BY 1, 2, 3"), sql);
+            assertTrue(sql.contains(", slot) DO UPDATE"), sql);
+        }
+    }
+}
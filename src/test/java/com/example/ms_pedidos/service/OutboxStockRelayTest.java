@@ -0,0 +1,202 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.client.ProductoClient;
+import com.example.ms_pedidos.config.OutboxProperties;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import com.example.ms_pedidos.dto.ReservaStockResultadoDTO;
+import com.example.ms_pedidos.model.EstadoPedido;
+import com.example.ms_pedidos.model.OutboxStock;
+import com.example.ms_pedidos.model.Pedido;
+import com.example.ms_pedidos.repository.OutboxStockRepository;
+import com.example.ms_pedidos.repository.PedidoRepository;
+import com.example.ms_pedidos.repository.ResumenPedidosRepository;
+
+// Imports de Pruebas
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.ReactiveTransaction;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxStockRelayTest {
+
+    @Mock
+    private OutboxStockRepository outboxRepository;
+
+    @Mock
+    private PedidoRepository pedidoRepository;
+
+    @Mock
+    private ResumenPedidosRepository resumenRepository;
+
+    @Mock
+    private ProductoClient productoClient;
+
+    @Mock
+    private PublicadorEventosPedido eventos;
+
+    @Mock
+    private ReactiveTransactionManager transactionManager;
+
+    @Mock
+    private ReactiveTransaction transaccion;
+
+    private final OutboxProperties properties = new OutboxProperties();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private OutboxStockRelay relay;
+
+    private final List<ReservaStockItemDTO> items = List.of(new ReservaStockItemDTO(1L, 2), new ReservaStockItemDTO(2L, 1));
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(transactionManager.getReactiveTransaction(any())).thenReturn(Mono.just(transaccion));
+        lenient().when(transactionManager.commit(any())).thenReturn(Mono.empty());
+        lenient().when(transactionManager.rollback(any())).thenReturn(Mono.empty());
+        ReflectionTestUtils.setField(relay, "transactionalOperator", TransactionalOperator.create(transactionManager));
+        ReflectionTestUtils.setField(relay, "properties", properties);
+        ReflectionTestUtils.setField(relay, "meterRegistry", meterRegistry);
+        lenient().when(resumenRepository.recalcular(anyCollection(), anyBoolean(), any()))
+                .thenAnswer(invocacion -> invocacion.getArgument(2));
+        // El pedido de la fila sigue vigente salvo que la prueba diga otra cosa
+        lenient().when(pedidoRepository.findById(10L))
+                .thenReturn(Mono.just(new Pedido(10L, "cliente-1", null, new BigDecimal("30.00"), EstadoPedido.PENDIENTE, 0L, null)));
+    }
+
+    @Test
+    void drenar_ReservaCompleta_MarcaEnviado() {
+        // --- 1. Preparación (Arrange) ---
+        OutboxStock fila = fila(0);
+        when(outboxRepository.reclamarPendientes(60L, 100)).thenReturn(Flux.just(fila));
+        when(productoClient.reservarStock(10L, items)).thenReturn(Mono.just(List.of(
+                new ReservaStockResultadoDTO(1L, 2, true, null),
+                new ReservaStockResultadoDTO(2L, 1, true, null))));
+        when(outboxRepository.marcarEnviado(1L)).thenReturn(Mono.just(1));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(relay.drenar()).expectNext(1L).verifyComplete();
+
+        verify(outboxRepository, times(1)).marcarEnviado(1L);
+        verify(pedidoRepository, never()).cambiarEstado(anyLong(), anyString(), anyCollection());
+        assertEquals(1.0, meterRegistry.get("pedidos.outbox.stock").tag("resultado", "enviado").counter().count());
+    }
+
+    @Test
+    void drenar_StockNoReservado_FallaYCancelaElPedido() {
+        OutboxStock fila = fila(0);
+        when(outboxRepository.reclamarPendientes(60L, 100)).thenReturn(Flux.just(fila));
+        when(productoClient.reservarStock(10L, items)).thenReturn(Mono.just(List.of(
+                new ReservaStockResultadoDTO(1L, 2, true, null),
+                new ReservaStockResultadoDTO(2L, 1, false, "sin stock"))));
+        when(productoClient.liberarStock(10L, List.of(new ReservaStockItemDTO(1L, 2)))).thenReturn(Mono.empty());
+        when(outboxRepository.marcarFallido(eq(1L), contains("2 (sin stock)"))).thenReturn(Mono.just(1));
+        Pedido cancelado = new Pedido(10L, "cliente-1", null, new BigDecimal("30.00"), EstadoPedido.CANCELADO, 1L, null);
+        when(pedidoRepository.cambiarEstado(10L, "CANCELADO", EstadoPedido.CANCELADO.anteriores())).thenReturn(Mono.just(cancelado));
+
+        StepVerifier.create(relay.drenar()).expectNext(1L).verifyComplete();
+
+        // Un rechazo de negocio no se reintenta; fila y pedido cambian en la misma transacción
+        verify(outboxRepository, never()).reprogramar(anyLong(), anyLong(), anyString());
+        verify(pedidoRepository, times(1)).cambiarEstado(10L, "CANCELADO", EstadoPedido.CANCELADO.anteriores());
+        // La cancelación saca el pedido de las ventas del resumen, en la misma transacción
+        verify(resumenRepository, times(1)).recalcular(eq(List.of(10L)), eq(true), any());
+        verify(transactionManager, times(1)).commit(transaccion);
+        // El feed SSE recibe la cancelación
+        verify(eventos, times(1)).estadoCambiado(cancelado);
+        // La línea 1 sí se había reservado: se devuelve antes de cancelar
+        verify(productoClient, times(1)).liberarStock(10L, List.of(new ReservaStockItemDTO(1L, 2)));
+    }
+
+    @Test
+    void drenar_PedidoYaCancelado_DescartaSinReservar() {
+        // --- 1. Preparación (Arrange) ---
+        OutboxStock fila = fila(0);
+        when(outboxRepository.reclamarPendientes(60L, 100)).thenReturn(Flux.just(fila));
+        when(pedidoRepository.findById(10L))
+                .thenReturn(Mono.just(new Pedido(10L, "cliente-1", null, new BigDecimal("30.00"), EstadoPedido.CANCELADO, 1L, null)));
+        when(outboxRepository.marcarDescartado(eq(1L), anyString())).thenReturn(Mono.just(1));
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(relay.drenar()).expectNext(1L).verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        verify(productoClient, never()).reservarStock(anyLong(), anyList());
+        verify(outboxRepository, never()).marcarFallido(anyLong(), anyString());
+        assertEquals(1.0, meterRegistry.get("pedidos.outbox.stock").tag("resultado", "descartado").counter().count());
+    }
+
+    @Test
+    void drenar_PedidoBorrado_DescartaSinReservar() {
+        OutboxStock fila = fila(0);
+        when(outboxRepository.reclamarPendientes(60L, 100)).thenReturn(Flux.just(fila));
+        when(pedidoRepository.findById(10L)).thenReturn(Mono.empty());
+        when(outboxRepository.marcarDescartado(eq(1L), anyString())).thenReturn(Mono.just(1));
+
+        StepVerifier.create(relay.drenar()).expectNext(1L).verifyComplete();
+
+        verify(productoClient, never()).reservarStock(anyLong(), anyList());
+    }
+
+    @Test
+    void drenar_MsProductosCaido_ReprogramaConBackoff() {
+        OutboxStock fila = fila(2); // ya falló dos veces
+        when(outboxRepository.reclamarPendientes(60L, 100)).thenReturn(Flux.just(fila));
+        when(productoClient.reservarStock(10L, items)).thenReturn(Mono.error(new IOException("connection refused")));
+        when(outboxRepository.reprogramar(eq(1L), anyLong(), anyString())).thenReturn(Mono.just(1));
+
+        StepVerifier.create(relay.drenar()).expectNext(1L).verifyComplete();
+
+        // Tercer intento fallido: 1s * 2^2
+        verify(outboxRepository, times(1)).reprogramar(eq(1L), eq(4L), contains("connection refused"));
+        verify(outboxRepository, never()).marcarFallido(anyLong(), anyString());
+    }
+
+    @Test
+    void drenar_IntentosAgotados_FallaYCancelaElPedido() {
+        OutboxStock fila = fila(properties.getMaxIntentos() - 1);
+        when(outboxRepository.reclamarPendientes(60L, 100)).thenReturn(Flux.just(fila));
+        when(productoClient.reservarStock(10L, items)).thenReturn(Mono.error(new IOException("timeout")));
+        when(outboxRepository.marcarFallido(eq(1L), contains("Intentos agotados"))).thenReturn(Mono.just(1));
+        when(pedidoRepository.cambiarEstado(10L, "CANCELADO", EstadoPedido.CANCELADO.anteriores())).thenReturn(Mono.just(new Pedido()));
+
+        StepVerifier.create(relay.drenar()).expectNext(1L).verifyComplete();
+
+        verify(outboxRepository, never()).reprogramar(anyLong(), anyLong(), anyString());
+        verify(pedidoRepository, times(1)).cambiarEstado(10L, "CANCELADO", EstadoPedido.CANCELADO.anteriores());
+    }
+
+    @Test
+    void espera_CreceExponencialmenteHastaElMaximo() {
+        assertEquals(Duration.ofSeconds(1), relay.espera(1));
+        assertEquals(Duration.ofSeconds(8), relay.espera(4));
+        assertEquals(properties.getBackoffMaximo(), relay.espera(30));
+    }
+
+    private OutboxStock fila(int intentos) {
+        OutboxStock fila = OutboxStock.pendiente(10L, items);
+        fila.setId(1L);
+        fila.setIntentos(intentos);
+        return fila;
+    }
+}
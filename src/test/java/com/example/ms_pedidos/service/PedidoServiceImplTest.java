@@ -1,13 +1,21 @@
 package com.example.ms_pedidos.service;
 
 // Imports de tus clases
+import com.example.ms_pedidos.model.EstadoPedido;
 import com.example.ms_pedidos.model.Pedido;
 import com.example.ms_pedidos.model.DetallePedido; // ¡Importante!
 import com.example.ms_pedidos.repository.DetallePedidoRepository;
+import com.example.ms_pedidos.repository.IdempotenciaPedidoRepository;
+import com.example.ms_pedidos.model.IdempotenciaPedido;
+import com.example.ms_pedidos.repository.OutboxStockRepository;
+import com.example.ms_pedidos.model.OutboxStock;
 import com.example.ms_pedidos.repository.PedidoRepository;
+import com.example.ms_pedidos.repository.ResumenPedidosRepository;
 import com.example.ms_pedidos.client.ProductoClient;
+import com.example.ms_pedidos.config.ProductosProperties;
 
 // Imports de Pruebas
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -15,17 +23,27 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 // Imports Reactivos
+import com.example.ms_pedidos.dto.FiltroPedidosDTO;
 import com.example.ms_pedidos.dto.ProductoDTO;
-import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreaker;
-import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+import com.example.ms_pedidos.dto.ReservaStockItemDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.ReactiveTransaction;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 // Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -37,18 +55,53 @@ class PedidoServiceImplTest {
     @Mock
     private DetallePedidoRepository detallePedidoRepository;
 
+    @Mock
+    private IdempotenciaPedidoRepository idempotenciaRepository;
+
+    @Mock
+    private OutboxStockRepository outboxRepository;
+
+    @Mock
+    private ResumenPedidosRepository resumenRepository; // Resúmenes de los reportes
+
     @Mock
     private ProductoClient productoClient;
 
     @Mock
-    private ReactiveCircuitBreakerFactory cbFactory;
+    private PublicadorEventosPedido eventos; // Feed SSE
+
+    @Mock
+    private ReactiveTransactionManager transactionManager; // Transacción R2DBC simulada
 
     @Mock
-    private ReactiveCircuitBreaker cb; // Un mock "dummy" del circuit breaker
+    private ReactiveTransaction transaccion;
+
+    private final ProductosProperties productosProperties = new ProductosProperties();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     @InjectMocks
     private PedidoServiceImpl pedidoService;
 
+    @BeforeEach
+    void setUp() {
+        // TransactionalOperator real sobre un transaction manager simulado:
+        // permite verificar commit / rollback sin base de datos
+        lenient().when(transactionManager.getReactiveTransaction(any())).thenReturn(Mono.just(transaccion));
+        lenient().when(transactionManager.commit(any())).thenReturn(Mono.empty());
+        lenient().when(transactionManager.rollback(any())).thenReturn(Mono.empty());
+        ReflectionTestUtils.setField(pedidoService, "transactionalOperator",
+                TransactionalOperator.create(transactionManager));
+        ReflectionTestUtils.setField(pedidoService, "productosProperties", productosProperties);
+        ReflectionTestUtils.setField(pedidoService, "meterRegistry", meterRegistry);
+        // Los resúmenes son sentencias en la BD: acá sólo se verifica que se llamen
+        lenient().when(resumenRepository.recalcular(anyCollection(), anyBoolean(), any()))
+                .thenAnswer(invocacion -> invocacion.getArgument(2));
+        lenient().when(resumenRepository.sumar(anyCollection(), anyBoolean())).thenReturn(Mono.empty());
+        lenient().when(resumenRepository.restar(anyCollection(), anyBoolean())).thenReturn(Mono.empty());
+        lenient().when(resumenRepository.bloquear(anyCollection())).thenReturn(Mono.empty());
+    }
+
 
     @Test
     void testFindAll() { // <-- 1. Nombre corregido
@@ -57,7 +110,7 @@ class PedidoServiceImplTest {
         // Creamos un pedido mock
         Pedido pedido1 = new Pedido();
         pedido1.setId(1L);
-        pedido1.setEstado("CREADO");
+        pedido1.setEstado(EstadoPedido.PENDIENTE);
         // (En este punto, pedido1.getDetalles() está vacío)
 
         // Creamos un detalle mock
@@ -69,9 +122,9 @@ class PedidoServiceImplTest {
         // Mock 1: "Cuando llamen a pedidoRepository.findAll(), devuelve el pedido1"
         when(pedidoRepository.findAll()).thenReturn(Flux.just(pedido1));
 
-        // Mock 2: "Cuando llamen a detalleRepo.findByPedidoId(1L) (desde loadDetalles),
+        // Mock 2: "Cuando llamen a detalleRepo.findByPedidoIdIn([1L]) (desde loadDetalles),
         //          devuelve el detalle1"
-        when(detallePedidoRepository.findByPedidoId(1L)).thenReturn(Flux.just(detalle1));
+        when(detallePedidoRepository.findByPedidoIdIn(List.of(1L))).thenReturn(Flux.just(detalle1));
 
         // --- 2. Ejecución (Act) ---
 
@@ -101,10 +154,103 @@ class PedidoServiceImplTest {
         // Verificación de Mocks:
         // Verificamos que SÍ se llamó a ambos repositorios
         verify(pedidoRepository, times(1)).findAll();
-        verify(detallePedidoRepository, times(1)).findByPedidoId(1L);
+        verify(detallePedidoRepository, times(1)).findByPedidoIdIn(List.of(1L));
         // Verificamos que NUNCA se usó el cliente de productos
         verifyNoInteractions(productoClient);
     }
+
+    @Test
+    void testFindAll_CargaDetallesEnUnaSolaConsulta() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedido1 = new Pedido();
+        pedido1.setId(1L);
+        Pedido pedido2 = new Pedido();
+        pedido2.setId(2L);
+        Pedido pedido3 = new Pedido();
+        pedido3.setId(3L); // Sin detalles
+
+        DetallePedido detalleA = new DetallePedido();
+        detalleA.setId(10L);
+        detalleA.setPedidoId(1L);
+        DetallePedido detalleB = new DetallePedido();
+        detalleB.setId(20L);
+        detalleB.setPedidoId(2L);
+        DetallePedido detalleC = new DetallePedido();
+        detalleC.setId(21L);
+        detalleC.setPedidoId(2L);
+
+        when(pedidoRepository.findAll()).thenReturn(Flux.just(pedido1, pedido2, pedido3));
+        when(detallePedidoRepository.findByPedidoIdIn(List.of(1L, 2L, 3L)))
+                .thenReturn(Flux.just(detalleB, detalleA, detalleC));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        // Los pedidos salen en el mismo orden y cada uno con SUS detalles
+        StepVerifier.create(pedidoService.findAll())
+                .expectNextMatches(p -> p.getId().equals(1L) && p.getDetalles().size() == 1)
+                .expectNextMatches(p -> p.getId().equals(2L) && p.getDetalles().size() == 2)
+                .expectNextMatches(p -> p.getId().equals(3L) && p.getDetalles().isEmpty())
+                .verifyComplete();
+
+        // Una sola consulta de detalles para todo el lote (sin N+1)
+        verify(detallePedidoRepository, times(1)).findByPedidoIdIn(anyCollection());
+        verify(detallePedidoRepository, never()).findByPedidoId(anyLong());
+    }
+    @Test
+    void testFindPage_UsaCursorYLimite() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedido = new Pedido();
+        pedido.setId(121L);
+
+        DetallePedido detalle = new DetallePedido();
+        detalle.setId(7L);
+        detalle.setPedidoId(121L);
+
+        when(pedidoRepository.findByIdGreaterThanOrderByIdAsc(120L, PageRequest.of(0, 50)))
+                .thenReturn(Flux.just(pedido));
+        when(detallePedidoRepository.findByPedidoIdIn(List.of(121L))).thenReturn(Flux.just(detalle));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.findPage(120L, 50))
+                .expectNextMatches(p -> p.getId().equals(121L) && p.getDetalles().size() == 1)
+                .verifyComplete();
+
+        // Nunca se carga la tabla completa
+        verify(pedidoRepository, never()).findAll();
+    }
+
+    @Test
+    void testBuscar_FiltraEnLaBdConCursor() {
+        // --- 1. Preparación (Arrange) ---
+        FiltroPedidosDTO filtro = new FiltroPedidosDTO();
+        filtro.setCliente("ana");
+        Pedido pedido = new Pedido();
+        pedido.setId(121L);
+
+        // Límite acotado a LIMITE_MAXIMO_PAGINA, sin cursor empieza en 0
+        when(pedidoRepository.buscar(filtro, 0L, PedidoServiceImpl.LIMITE_MAXIMO_PAGINA)).thenReturn(Flux.just(pedido));
+        when(detallePedidoRepository.findByPedidoIdIn(List.of(121L))).thenReturn(Flux.empty());
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.buscar(filtro, null, 10_000))
+                .expectNextMatches(p -> p.getId().equals(121L) && p.getDetalles().isEmpty())
+                .verifyComplete();
+
+        verify(pedidoRepository, never()).findAll();
+    }
+
+    @Test
+    void testFindPage_LimiteAcotadoYSinCursor() {
+        // Sin "after" se empieza desde el principio y el límite se acota al máximo
+        when(pedidoRepository.findByIdGreaterThanOrderByIdAsc(0L,
+                PageRequest.of(0, PedidoServiceImpl.LIMITE_MAXIMO_PAGINA)))
+                .thenReturn(Flux.empty());
+
+        StepVerifier.create(pedidoService.findPage(null, 100_000))
+                .verifyComplete();
+
+        verify(detallePedidoRepository, never()).findByPedidoIdIn(anyCollection());
+    }
+
     @Test
     void testFindById_Success() {
         // --- 1. Preparación (Arrange) ---
@@ -112,7 +258,7 @@ class PedidoServiceImplTest {
         // Creamos un pedido mock
         Pedido pedido1 = new Pedido();
         pedido1.setId(1L);
-        pedido1.setEstado("PENDIENTE");
+        pedido1.setEstado(EstadoPedido.PENDIENTE);
 
         // Creamos un detalle mock
         DetallePedido detalle1 = new DetallePedido();
@@ -177,6 +323,51 @@ class PedidoServiceImplTest {
         // Verificamos que NUNCA se llamó a detalleRepository (porque no se encontró pedido)
         verify(detallePedidoRepository, never()).findByPedidoId(anyLong());
     }
+
+    @Test
+    void testFindById_SinCambios_NoCargaDetalles() {
+        // --- 1. Preparación (Arrange) ---
+        // GET con If-None-Match: el cliente ya tiene la versión 3
+        Pedido pedido = new Pedido();
+        pedido.setId(1L);
+        pedido.setVersion(3L);
+        when(pedidoRepository.findById(1L)).thenReturn(Mono.just(pedido));
+
+        // --- 2. Ejecución (Act) ---
+        Mono<Pedido> resultadoMono = pedidoService.findById(1L, p -> p.getVersion() == 3L);
+
+        // --- 3. Verificación (Assert) ---
+        StepVerifier.create(resultadoMono)
+                .expectNextMatches(encontrado -> encontrado.getDetalles() == null)
+                .verifyComplete();
+
+        // Para el 304 alcanza con la fila del pedido: los detalles ni se leen
+        verify(detallePedidoRepository, never()).findByPedidoId(anyLong());
+    }
+
+    @Test
+    void testFindById_ConCambios_CargaDetalles() {
+        // --- 1. Preparación (Arrange) ---
+        // El cliente tiene una versión vieja: va la respuesta completa
+        Pedido pedido = new Pedido();
+        pedido.setId(1L);
+        pedido.setVersion(4L);
+        DetallePedido detalle = new DetallePedido();
+        detalle.setId(10L);
+        detalle.setPedidoId(1L);
+        when(pedidoRepository.findById(1L)).thenReturn(Mono.just(pedido));
+        when(detallePedidoRepository.findByPedidoId(1L)).thenReturn(Flux.just(detalle));
+
+        // --- 2. Ejecución (Act) ---
+        Mono<Pedido> resultadoMono = pedidoService.findById(1L, p -> p.getVersion() == 3L);
+
+        // --- 3. Verificación (Assert) ---
+        StepVerifier.create(resultadoMono)
+                .expectNextMatches(encontrado -> encontrado.getDetalles() != null && encontrado.getDetalles().size() == 1)
+                .verifyComplete();
+
+        verify(detallePedidoRepository, times(1)).findByPedidoId(1L);
+    }
     @Test
     void testCreatePedido_Success() {
         // --- 1. Preparación (Arrange) ---
@@ -193,38 +384,35 @@ class PedidoServiceImplTest {
         ProductoDTO mockProducto = new ProductoDTO();
         mockProducto.setId(1L);
         mockProducto.setNombre("Teclado");
-        mockProducto.setPrecio(100.0);
+        mockProducto.setPrecio(new BigDecimal("100.00"));
         mockProducto.setStock(10); // ¡Hay stock suficiente!
 
         Pedido pedidoGuardado = new Pedido();
         pedidoGuardado.setId(123L); // ID generado por la BD
-        pedidoGuardado.setEstado("PENDIENTE");
+        pedidoGuardado.setEstado(EstadoPedido.PENDIENTE);
         pedidoGuardado.setFecha(LocalDateTime.now());
-        pedidoGuardado.setTotal(200.0); // Total calculado
+        pedidoGuardado.setTotal(new BigDecimal("200.00")); // Total calculado
         pedidoGuardado.setDetalles(pedidoInput.getDetalles());
 
         DetallePedido detalleGuardado = new DetallePedido();
         detalleGuardado.setPedidoId(123L); // ID del pedido padre
         detalleGuardado.setProductoId(1L);
         detalleGuardado.setCantidad(2);
-        detalleGuardado.setPrecioUnitario(100.0); // Precio asignado
+        detalleGuardado.setPrecioUnitario(new BigDecimal("100.00")); // Precio asignado
 
         // 1c. Configuración de Mocks
 
-        // Mock del CircuitBreaker
-        when(cbFactory.create(anyString())).thenReturn(cb);
-
         // Mock 1: "Cuando el cliente busque el producto 1L, devuelve el mockProducto"
-        when(productoClient.obtenerProducto(1L)).thenReturn(Mono.just(mockProducto));
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, mockProducto)));
 
         // Mock 2: "Cuando se guarde el pedido, devuelve el pedidoGuardado (con ID)"
         when(pedidoRepository.save(any(Pedido.class))).thenReturn(Mono.just(pedidoGuardado));
 
-        // Mock 3: "Cuando se guarde el detalle, devuelve el detalleGuardado"
-        when(detallePedidoRepository.save(any(DetallePedido.class))).thenReturn(Mono.just(detalleGuardado));
+        // Mock 3: "Cuando se inserten los detalles (INSERT multi-fila), devuelve el detalleGuardado"
+        when(detallePedidoRepository.insertAll(anyList())).thenReturn(Flux.just(detalleGuardado));
 
-        // Mock 4: "Cuando se actualice el stock, devuelve Mono.empty()"
-        when(productoClient.actualizarStock(1L, 2)).thenReturn(Mono.empty());
+        // Mock 4: "Cuando se guarde la reserva pendiente en el outbox, devuelve la fila"
+        when(outboxRepository.save(any(OutboxStock.class))).thenAnswer(invocacion -> Mono.just(invocacion.getArgument(0)));
 
 
         // --- 2. Ejecución (Act) ---
@@ -238,24 +426,180 @@ class PedidoServiceImplTest {
                 .expectNextMatches(pedidoFinal -> {
                     // Verificamos que el pedido devuelto sea correcto
                     boolean idOk = pedidoFinal.getId().equals(123L);
-                    boolean totalOk = pedidoFinal.getTotal() == 200.0;
-                    boolean estadoOk = pedidoFinal.getEstado().equals("PENDIENTE");
+                    boolean totalOk = new BigDecimal("200.00").equals(pedidoFinal.getTotal());
+                    boolean estadoOk = pedidoFinal.getEstado() == EstadoPedido.PENDIENTE;
 
                     boolean detalleOk = pedidoFinal.getDetalles() != null &&
                             pedidoFinal.getDetalles().size() == 1 &&
-                            pedidoFinal.getDetalles().get(0).getPrecioUnitario() == 100.0;
+                            new BigDecimal("100.00").equals(pedidoFinal.getDetalles().get(0).getPrecioUnitario());
 
                     return idOk && totalOk && estadoOk && detalleOk;
                 })
                 .verifyComplete();
 
         // Verificamos que todos los mocks fueron llamados
-        verify(productoClient, times(1)).obtenerProducto(1L);
-        verify(pedidoRepository, times(1)).save(any(Pedido.class));
-        verify(detallePedidoRepository, times(1)).save(any(DetallePedido.class));
-        verify(productoClient, times(1)).actualizarStock(1L, 2);
-        verify(cbFactory, times(1)).create("productos-cb");
+        verify(productoClient, times(1)).obtenerProductos(List.of(1L));
+        // Sin versión: @Version lo toma como nuevo (INSERT) y la inicia en 0, aunque el cuerpo trajera otra
+        verify(pedidoRepository, times(1)).save(argThat(guardado -> guardado.getVersion() == null));
+        verify(detallePedidoRepository, times(1)).insertAll(anyList());
+        verify(detallePedidoRepository, never()).save(any(DetallePedido.class));
+        // La reserva queda en el outbox: el POST no espera a ms-productos
+        verify(outboxRepository, times(1)).save(argThat(fila -> fila.getPedidoId().equals(123L)
+                && fila.itemsReserva().equals(List.of(new ReservaStockItemDTO(1L, 2)))));
+        verify(productoClient, never()).reservarStock(anyLong(), anyList());
+        verify(productoClient, never()).actualizarStock(anyLong(), anyInt());
+        // Los resúmenes de los reportes (estado y ventas) se suman en la misma transacción
+        verify(resumenRepository, times(1)).sumar(List.of(123L), true);
+        // Pedido, detalles, outbox y resúmenes en una sola transacción confirmada
+        verify(transactionManager, times(1)).getReactiveTransaction(any());
+        verify(transactionManager, times(1)).commit(transaccion);
+        verify(transactionManager, never()).rollback(any());
+
+        // Cada etapa deja su latencia en el histograma
+        assertEquals(1, meterRegistry.get("pedidos.creacion.etapa")
+                .tags("etapa", "validacion", "resultado", "ok").timer().count());
+        assertEquals(1, meterRegistry.get("pedidos.creacion.etapa")
+                .tags("etapa", "persistencia", "resultado", "ok").timer().count());
+    }
+
+    @Test
+    void testCreatePedido_Error_PlazoDeValidacionVencido() {
+        // --- 1. Preparación (Arrange) ---
+        productosProperties.getValidacion().setDeadline(Duration.ofMillis(50));
+
+        DetallePedido detalleInput = new DetallePedido(null, null, 1L, 1, null);
+        Pedido pedidoInput = new Pedido();
+        pedidoInput.setDetalles(List.of(detalleInput));
+
+        // ms-productos nunca responde
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.never());
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(pedidoInput))
+                .expectErrorMatches(error -> error.getMessage().contains("Tiempo de validación agotado"))
+                .verify(Duration.ofSeconds(5));
+
+        // No se abrió ninguna transacción ni se guardó nada
+        verify(transactionManager, never()).getReactiveTransaction(any());
+        verify(pedidoRepository, never()).save(any(Pedido.class));
+        assertEquals(1, meterRegistry.get("pedidos.creacion.etapa")
+                .tags("etapa", "validacion", "resultado", "error").timer().count());
     }
+
+    @Test
+    void testCreatePedido_FalloAMitad_HaceRollback() {
+        // --- 1. Preparación (Arrange) ---
+        DetallePedido detalleInput = new DetallePedido(null, null, 1L, 2, null);
+        Pedido pedidoInput = new Pedido();
+        pedidoInput.setDetalles(List.of(detalleInput));
+
+        ProductoDTO mockProducto = new ProductoDTO();
+        mockProducto.setId(1L);
+        mockProducto.setPrecio(new BigDecimal("100.00"));
+        mockProducto.setStock(10);
+
+        Pedido pedidoGuardado = new Pedido();
+        pedidoGuardado.setId(123L);
+        pedidoGuardado.setDetalles(pedidoInput.getDetalles());
+
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, mockProducto)));
+        // El pedido se guarda...
+        when(pedidoRepository.save(any(Pedido.class))).thenReturn(Mono.just(pedidoGuardado));
+        // ...pero el insert de los detalles falla
+        when(detallePedidoRepository.insertAll(anyList()))
+                .thenReturn(Flux.error(new RuntimeException("Error de BD en detalle_pedidos")));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(pedidoInput))
+                .expectErrorMessage("Error de BD en detalle_pedidos")
+                .verify();
+
+        // La transacción se deshace: el pedido guardado no queda huérfano
+        verify(transactionManager, times(1)).rollback(transaccion);
+        verify(transactionManager, never()).commit(any());
+        // Y no quedó ninguna reserva pendiente en el outbox
+        verify(outboxRepository, never()).save(any(OutboxStock.class));
+    }
+
+    @Test
+    void testCreatePedido_OutboxSumaLineasDelMismoProducto() {
+        // --- 1. Preparación (Arrange) ---
+        // Dos líneas del mismo producto y una de otro
+        DetallePedido lineaA = new DetallePedido(null, null, 1L, 2, null);
+        DetallePedido lineaB = new DetallePedido(null, null, 1L, 3, null);
+        DetallePedido lineaC = new DetallePedido(null, null, 2L, 1, null);
+
+        Pedido pedidoInput = new Pedido();
+        pedidoInput.setDetalles(List.of(lineaA, lineaB, lineaC));
+
+        ProductoDTO teclado = new ProductoDTO();
+        teclado.setId(1L);
+        teclado.setPrecio(new BigDecimal("100.00"));
+        teclado.setStock(10);
+        ProductoDTO mouse = new ProductoDTO();
+        mouse.setId(2L);
+        mouse.setPrecio(new BigDecimal("50.00"));
+        mouse.setStock(10);
+
+        Pedido pedidoGuardado = new Pedido();
+        pedidoGuardado.setId(124L);
+        pedidoGuardado.setDetalles(pedidoInput.getDetalles());
+
+        when(productoClient.obtenerProductos(List.of(1L, 1L, 2L)))
+                .thenReturn(Mono.just(Map.of(1L, teclado, 2L, mouse)));
+        when(pedidoRepository.save(any(Pedido.class))).thenReturn(Mono.just(pedidoGuardado));
+        when(detallePedidoRepository.insertAll(anyList()))
+                .thenAnswer(invocacion -> Flux.fromIterable(invocacion.<List<DetallePedido>>getArgument(0)));
+        when(outboxRepository.save(any(OutboxStock.class))).thenAnswer(invocacion -> Mono.just(invocacion.getArgument(0)));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(pedidoInput))
+                .expectNextMatches(pedido -> pedido.getId().equals(124L))
+                .verifyComplete();
+
+        // Una sola fila de outbox para todo el pedido; las cantidades del producto repetido se suman
+        List<ReservaStockItemDTO> itemsEsperados = List.of(
+                new ReservaStockItemDTO(1L, 5), new ReservaStockItemDTO(2L, 1));
+        verify(outboxRepository, times(1)).save(argThat(fila -> fila.getPedidoId().equals(124L)
+                && "PENDIENTE".equals(fila.getEstado())
+                && fila.itemsReserva().equals(itemsEsperados)));
+        verify(transactionManager, times(1)).commit(transaccion);
+    }
+    @Test
+    void testCreatePedido_TotalExactoEnCentavos() {
+        // --- 1. Preparación (Arrange) ---
+        // Con double, 3 x 0.10 + 0.20 daría 0.5000000000000001
+        Pedido pedidoInput = new Pedido();
+        pedidoInput.setDetalles(List.of(new DetallePedido(null, null, 1L, 3, null),
+                new DetallePedido(null, null, 2L, 1, null)));
+
+        ProductoDTO chicle = new ProductoDTO();
+        chicle.setId(1L);
+        chicle.setPrecio(new BigDecimal("0.10"));
+        chicle.setStock(10);
+        ProductoDTO caramelo = new ProductoDTO();
+        caramelo.setId(2L);
+        caramelo.setPrecio(new BigDecimal("0.195")); // Más decimales que centavos: se redondea a 0.20
+        caramelo.setStock(10);
+
+        when(productoClient.obtenerProductos(List.of(1L, 2L)))
+                .thenReturn(Mono.just(Map.of(1L, chicle, 2L, caramelo)));
+        when(pedidoRepository.save(any(Pedido.class))).thenAnswer(invocacion -> {
+            Pedido guardado = invocacion.getArgument(0);
+            guardado.setId(125L);
+            return Mono.just(guardado);
+        });
+        when(detallePedidoRepository.insertAll(anyList()))
+                .thenAnswer(invocacion -> Flux.fromIterable(invocacion.<List<DetallePedido>>getArgument(0)));
+        when(outboxRepository.save(any(OutboxStock.class))).thenAnswer(invocacion -> Mono.just(invocacion.getArgument(0)));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(pedidoInput))
+                .expectNextMatches(pedido -> new BigDecimal("0.50").equals(pedido.getTotal())
+                        && new BigDecimal("0.20").equals(pedido.getDetalles().get(1).getPrecioUnitario()))
+                .verifyComplete();
+    }
+
     @Test
     void testCreatePedido_Error_StockInsuficiente() {
         // --- 1. Preparación (Arrange) ---
@@ -272,16 +616,13 @@ class PedidoServiceImplTest {
         ProductoDTO mockProducto = new ProductoDTO();
         mockProducto.setId(1L);
         mockProducto.setNombre("Mouse");
-        mockProducto.setPrecio(50.0);
+        mockProducto.setPrecio(new BigDecimal("50.00"));
         mockProducto.setStock(5); // <-- ¡Stock insuficiente!
 
         // 1c. Configuración de Mocks
 
-        // Mock del CircuitBreaker
-        when(cbFactory.create(anyString())).thenReturn(cb);
-
         // Mock: "Cuando el cliente busque el producto 1L, devuelve el mockProducto"
-        when(productoClient.obtenerProducto(1L)).thenReturn(Mono.just(mockProducto));
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, mockProducto)));
 
 
         // --- 2. Ejecución (Act) ---
@@ -303,47 +644,43 @@ class PedidoServiceImplTest {
                 .verify();
 
         // Verificamos qué mocks se usaron y cuáles NO
-        verify(productoClient, times(1)).obtenerProducto(1L);
+        verify(productoClient, times(1)).obtenerProductos(List.of(1L));
 
         // ¡Verificamos que NUNCA se intentó guardar nada!
         verify(pedidoRepository, never()).save(any(Pedido.class));
-        verify(detallePedidoRepository, never()).save(any(DetallePedido.class));
-        verify(productoClient, never()).actualizarStock(anyLong(), anyInt());
+        verify(detallePedidoRepository, never()).insertAll(anyList());
+        verify(productoClient, never()).reservarStock(anyLong(), anyList());
     }
     @Test
     void testUpdateEstado_Success() {
         // --- 1. Preparación (Arrange) ---
         long pedidoId = 1L;
-        String nuevoEstado = "ENVIADO";
+        EstadoPedido nuevoEstado = EstadoPedido.ENVIADO;
 
-        // Mock del pedido que encontramos en la BD
+        // Lo que devuelve el UPDATE ... RETURNING: el pedido ya con el estado nuevo
         Pedido pedidoMock = new Pedido();
         pedidoMock.setId(pedidoId);
-        pedidoMock.setEstado("PENDIENTE"); // Estado antiguo
+        pedidoMock.setEstado(EstadoPedido.ENVIADO);
 
         // Mock de un detalle (para probar el loadDetalles)
         DetallePedido detalleMock = new DetallePedido();
         detalleMock.setPedidoId(pedidoId);
 
-        // Mock 1: "Cuando busquen el pedido 1L, devuélvelo"
-        when(pedidoRepository.findById(pedidoId)).thenReturn(Mono.just(pedidoMock));
-
-        // Mock 2: "Cuando guarden el pedido (ya actualizado), devuélvelo"
-        // Mockito es lo bastante inteligente para devolver el mismo objeto 'pedidoMock'
-        // que ya tendrá el estado "ENVIADO"
-        when(pedidoRepository.save(any(Pedido.class))).thenReturn(Mono.just(pedidoMock));
+        // Mock 1: "Sólo desde PROCESADO (o ENVIADO, si se repite el PUT) se puede pasar a ENVIADO"
+        when(pedidoRepository.cambiarEstado(pedidoId, "ENVIADO", List.of("PROCESADO", "ENVIADO")))
+                .thenReturn(Mono.just(pedidoMock));
 
-        // Mock 3: "Cuando llame a loadDetalles, devuelve el detalle"
+        // Mock 2: "Cuando llame a loadDetalles, devuelve el detalle"
         when(detallePedidoRepository.findByPedidoId(pedidoId)).thenReturn(Flux.just(detalleMock));
 
         // --- 2. Ejecución (Act) ---
-        Mono<Pedido> resultadoMono = pedidoService.updateEstado(pedidoId, nuevoEstado);
+        Mono<Pedido> resultadoMono = pedidoService.updateEstado(pedidoId, nuevoEstado, true);
 
         // --- 3. Verificación (Assert) ---
         StepVerifier.create(resultadoMono)
                 .expectNextMatches(pedidoGuardado -> {
                     // Verificamos que el estado se actualizó
-                    boolean estadoOk = pedidoGuardado.getEstado().equals("ENVIADO");
+                    boolean estadoOk = pedidoGuardado.getEstado() == EstadoPedido.ENVIADO;
                     // Verificamos que los detalles se cargaron
                     boolean detallesOk = pedidoGuardado.getDetalles() != null &&
                             pedidoGuardado.getDetalles().size() == 1;
@@ -351,10 +688,66 @@ class PedidoServiceImplTest {
                 })
                 .verifyComplete();
 
-        // Verificamos que se llamó a todos los mocks
-        verify(pedidoRepository, times(1)).findById(pedidoId);
-        verify(pedidoRepository, times(1)).save(any(Pedido.class));
+        // Una sola sentencia: ni findById antes ni save de la fila entera
+        verify(pedidoRepository, never()).findById(anyLong());
+        verify(pedidoRepository, never()).save(any(Pedido.class));
         verify(detallePedidoRepository, times(1)).findByPedidoId(pedidoId);
+        // El cambio de estado sale por el feed SSE
+        verify(eventos, times(1)).estadoCambiado(any(Pedido.class));
+    }
+
+    @Test
+    void testUpdateEstado_SinDetalles_NoLosCarga() {
+        Pedido pedidoMock = new Pedido();
+        pedidoMock.setId(1L);
+        pedidoMock.setEstado(EstadoPedido.CANCELADO);
+        when(pedidoRepository.cambiarEstado(1L, "CANCELADO", List.of("PENDIENTE", "PROCESADO", "CANCELADO")))
+                .thenReturn(Mono.just(pedidoMock));
+
+        StepVerifier.create(pedidoService.updateEstado(1L, EstadoPedido.CANCELADO, false))
+                .expectNextMatches(pedido -> pedido.getEstado() == EstadoPedido.CANCELADO && pedido.getDetalles() == null)
+                .verifyComplete();
+
+        verify(detallePedidoRepository, never()).findByPedidoId(anyLong());
+        // Al cancelar el pedido sale también de las ventas (cliente / producto)
+        verify(resumenRepository, times(1)).recalcular(eq(List.of(1L)), eq(true), any());
+        verify(transactionManager, times(1)).commit(transaccion);
+    }
+
+    @Test
+    void testUpdateEstado_TransicionNoPermitida_Error() {
+        // El UPDATE no encuentra el pedido en un estado válido: ya estaba CANCELADO
+        Pedido cancelado = new Pedido();
+        cancelado.setId(1L);
+        cancelado.setEstado(EstadoPedido.CANCELADO);
+        when(pedidoRepository.cambiarEstado(eq(1L), eq("ENVIADO"), anyCollection())).thenReturn(Mono.empty());
+        when(pedidoRepository.findById(1L)).thenReturn(Mono.just(cancelado));
+
+        StepVerifier.create(pedidoService.updateEstado(1L, EstadoPedido.ENVIADO, false))
+                .expectError(TransicionEstadoInvalidaException.class)
+                .verify();
+
+        verify(eventos, never()).estadoCambiado(any(Pedido.class));
+        // El rollback deshace lo que se tocó del resumen
+        verify(transactionManager, times(1)).rollback(transaccion);
+        verify(transactionManager, never()).commit(any());
+    }
+
+    @Test
+    void testUpdateEstado_AceptadoSinProcesar_NoPasaAProcesado() {
+        // Aceptado async todavía en la cola (sin total): el UPDATE no lo toca y se responde 409
+        Pedido aceptado = new Pedido();
+        aceptado.setId(1L);
+        aceptado.setEstado(EstadoPedido.PENDIENTE);
+        when(pedidoRepository.cambiarEstado(eq(1L), eq("PROCESADO"), anyCollection())).thenReturn(Mono.empty());
+        when(pedidoRepository.findById(1L)).thenReturn(Mono.just(aceptado));
+
+        StepVerifier.create(pedidoService.updateEstado(1L, EstadoPedido.PROCESADO, false))
+                .expectError(TransicionEstadoInvalidaException.class)
+                .verify();
+
+        verify(eventos, never()).estadoCambiado(any(Pedido.class));
+        verify(transactionManager, times(1)).rollback(transaccion);
     }
 
     // --- AÑADE ESTA PRUEBA (Camino Triste: No Encontrado) ---
@@ -362,13 +755,14 @@ class PedidoServiceImplTest {
     void testUpdateEstado_NotFound() {
         // --- 1. Preparación (Arrange) ---
         long idNoExistente = 99L;
-        String nuevoEstado = "ENVIADO";
+        EstadoPedido nuevoEstado = EstadoPedido.ENVIADO;
 
-        // Mock: "Cuando busquen el pedido 99L, devuelve vacío"
+        // Mock: "El UPDATE no toca ninguna fila y el pedido 99L no existe"
+        when(pedidoRepository.cambiarEstado(eq(idNoExistente), eq("ENVIADO"), anyCollection())).thenReturn(Mono.empty());
         when(pedidoRepository.findById(idNoExistente)).thenReturn(Mono.empty());
 
         // --- 2. Ejecución (Act) ---
-        Mono<Pedido> resultadoMono = pedidoService.updateEstado(idNoExistente, nuevoEstado);
+        Mono<Pedido> resultadoMono = pedidoService.updateEstado(idNoExistente, nuevoEstado, true);
 
         // --- 3. Verificación (Assert) ---
         // Verificamos que no emita nada y se complete
@@ -376,8 +770,6 @@ class PedidoServiceImplTest {
                 .expectNextCount(0)
                 .verifyComplete();
 
-        // Verificamos que SÓLO se llamó a findById
-        verify(pedidoRepository, times(1)).findById(idNoExistente);
         // Verificamos que NUNCA se intentó guardar ni cargar detalles
         verify(pedidoRepository, never()).save(any(Pedido.class));
         verify(detallePedidoRepository, never()).findByPedidoId(anyLong());
@@ -387,18 +779,10 @@ class PedidoServiceImplTest {
         // --- 1. Preparación (Arrange) ---
         long pedidoId = 1L;
 
-        // Mock de un detalle que encontramos para borrar
-        DetallePedido detalleMock = new DetallePedido();
-        detalleMock.setId(10L);
-        detalleMock.setPedidoId(pedidoId);
-
-        // Mock 1: "Cuando busquen detalles para el pedidoId, devuelve uno"
-        when(detallePedidoRepository.findByPedidoId(pedidoId)).thenReturn(Flux.just(detalleMock));
-
-        // Mock 2: "Cuando borren ese detalle, devuelve Mono.empty()"
-        when(detallePedidoRepository.delete(detalleMock)).thenReturn(Mono.empty());
+        // Mock 1: "Cuando borren los detalles del pedido (una sola sentencia), borra 3 filas"
+        when(detallePedidoRepository.deleteByPedidoId(pedidoId)).thenReturn(Mono.just(3));
 
-        // Mock 3: "Cuando borren el pedido principal, devuelve Mono.empty()"
+        // Mock 2: "Cuando borren el pedido principal, devuelve Mono.empty()"
         when(pedidoRepository.deleteById(pedidoId)).thenReturn(Mono.empty());
 
         // --- 2. Ejecución (Act) ---
@@ -409,10 +793,61 @@ class PedidoServiceImplTest {
                 // Verificamos que se complete sin emitir nada (es un Mono<Void>)
                 .verifyComplete();
 
-        // Verificamos que se llamó a toda la secuencia de borrado
-        verify(detallePedidoRepository, times(1)).findByPedidoId(pedidoId);
-        verify(detallePedidoRepository, times(1)).delete(detalleMock);
+        // Dos sentencias: detalles y pedido; los detalles nunca se cargan en memoria
+        verify(detallePedidoRepository, times(1)).deleteByPedidoId(pedidoId);
         verify(pedidoRepository, times(1)).deleteById(pedidoId);
+        verify(detallePedidoRepository, never()).findByPedidoId(anyLong());
+        verify(detallePedidoRepository, never()).delete(any(DetallePedido.class));
+        // Antes de borrar se bloquea la fila y se resta de los resúmenes
+        verify(resumenRepository, times(1)).bloquear(List.of(pedidoId));
+        verify(resumenRepository, times(1)).restar(List.of(pedidoId), true);
+        // Todas las sentencias en la misma transacción
+        verify(transactionManager, times(1)).commit(transaccion);
+    }
+
+    @Test
+    void testDeletePedidos_PorIds() {
+        // Ids repetidos se borran una sola vez
+        when(detallePedidoRepository.deleteByPedidoIdIn(List.of(1L, 2L, 3L))).thenReturn(Mono.just(5));
+        when(pedidoRepository.deleteByIdIn(List.of(1L, 2L, 3L))).thenReturn(Mono.just(3));
+
+        StepVerifier.create(pedidoService.deletePedidos(List.of(1L, 2L, 2L, 3L)))
+                .expectNext(3L)
+                .verifyComplete();
+
+        verify(pedidoRepository, times(1)).deleteByIdIn(List.of(1L, 2L, 3L));
+    }
+
+    @Test
+    void testDeletePedidosByFecha_BorraPorTramos() {
+        // --- 1. Preparación (Arrange) ---
+        LocalDateTime desde = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime hasta = LocalDateTime.of(2024, 2, 1, 0, 0);
+
+        // Un tramo completo más un id suelto
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= PedidoServiceImpl.LOTE_BORRADO + 1; id++) {
+            ids.add(id);
+        }
+        // Por keyset: el segundo tramo empieza después del último id del primero
+        when(pedidoRepository.findIdsByFecha(desde, hasta, 0L, PedidoServiceImpl.LOTE_BORRADO))
+                .thenReturn(Flux.fromIterable(ids.subList(0, PedidoServiceImpl.LOTE_BORRADO)));
+        when(pedidoRepository.findIdsByFecha(desde, hasta, (long) PedidoServiceImpl.LOTE_BORRADO, PedidoServiceImpl.LOTE_BORRADO))
+                .thenReturn(Flux.just((long) PedidoServiceImpl.LOTE_BORRADO + 1));
+        when(detallePedidoRepository.deleteByPedidoIdIn(anyCollection())).thenReturn(Mono.just(0));
+        when(pedidoRepository.deleteByIdIn(anyCollection()))
+                .thenAnswer(invocacion -> Mono.just(invocacion.<List<Long>>getArgument(0).size()));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.deletePedidosByFecha(desde, hasta))
+                .expectNext((long) PedidoServiceImpl.LOTE_BORRADO + 1)
+                .verifyComplete();
+
+        // Dos tramos -> dos sentencias por tabla
+        verify(detallePedidoRepository, times(2)).deleteByPedidoIdIn(anyCollection());
+        verify(pedidoRepository, times(2)).deleteByIdIn(anyCollection());
+        // Y una resta de los resúmenes por tramo
+        verify(resumenRepository, times(2)).restar(anyCollection(), eq(true));
     }
     @Test
     void testCreatePedido_Error_ProductoNoEncontrado() {
@@ -428,11 +863,8 @@ class PedidoServiceImplTest {
 
         // 1b. Configuración de Mocks
 
-        // Mock del CircuitBreaker
-        when(cbFactory.create(anyString())).thenReturn(cb);
-
-        // Mock: "Cuando el cliente busque el producto 999L, devuelve Mono.empty()"
-        when(productoClient.obtenerProducto(999L)).thenReturn(Mono.empty());
+        // Mock: "Cuando el cliente busque el producto 999L, no lo encuentra (mapa vacío)"
+        when(productoClient.obtenerProductos(List.of(999L))).thenReturn(Mono.just(Map.of()));
 
         // --- 2. Ejecución (Act) ---
         Mono<Pedido> resultadoMono = pedidoService.createPedido(pedidoInput);
@@ -449,13 +881,314 @@ class PedidoServiceImplTest {
                 .verify();
 
         // Verificamos qué mocks se usaron y cuáles NO
-        verify(productoClient, times(1)).obtenerProducto(999L);
+        verify(productoClient, times(1)).obtenerProductos(List.of(999L));
 
         // ¡Verificamos que NUNCA se intentó guardar nada!
         verify(pedidoRepository, never()).save(any(Pedido.class));
-        verify(detallePedidoRepository, never()).save(any(DetallePedido.class));
-        verify(productoClient, never()).actualizarStock(anyLong(), anyInt());
+        verify(detallePedidoRepository, never()).insertAll(anyList());
+        verify(productoClient, never()).reservarStock(anyLong(), anyList());
     }
 
     // ¡Aquí añadiremos más @Test para los otros métodos (findById, createPedido, etc.)!
-}
\ No newline at end of file
+
+    @Test
+    void testCreatePedido_Idempotente_ReintentoDevuelveElPedidoGuardado() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedidoInput = new Pedido();
+        pedidoInput.setDetalles(List.of(new DetallePedido(null, null, 1L, 2, null)));
+
+        Pedido pedidoExistente = new Pedido();
+        pedidoExistente.setId(123L);
+        pedidoExistente.setEstado(EstadoPedido.PENDIENTE);
+
+        // La clave ya se usó: creó el pedido 123
+        when(idempotenciaRepository.findBySujetoAndClave("ana", "clave-1"))
+                .thenReturn(Mono.just(claveGuardada("clave-1", pedidoInput, 123L)));
+        when(pedidoRepository.findById(123L)).thenReturn(Mono.just(pedidoExistente));
+        when(detallePedidoRepository.findByPedidoId(123L)).thenReturn(Flux.empty());
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(pedidoInput, "ana", "clave-1"))
+                .expectNextMatches(pedido -> pedido.getId().equals(123L))
+                .verifyComplete();
+
+        // Ni validación, ni insert, ni reserva de stock
+        verify(productoClient, never()).obtenerProductos(anyList());
+        verify(pedidoRepository, never()).save(any(Pedido.class));
+        verify(outboxRepository, never()).save(any(OutboxStock.class));
+    }
+
+    @Test
+    void testCreatePedido_Idempotente_ClaveNuevaSeGuardaEnLaTransaccion() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedidoInput = pedidoDeUnaLinea();
+        Pedido pedidoGuardado = new Pedido();
+        pedidoGuardado.setId(123L);
+        pedidoGuardado.setDetalles(pedidoInput.getDetalles());
+
+        when(idempotenciaRepository.findBySujetoAndClave("ana", "clave-2")).thenReturn(Mono.empty());
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, productoConStock(10))));
+        when(pedidoRepository.save(any(Pedido.class))).thenReturn(Mono.just(pedidoGuardado));
+        when(idempotenciaRepository.insertar("ana", "clave-2", PedidoServiceImpl.huella(pedidoInput), 123L)).thenReturn(Mono.just(1));
+        when(detallePedidoRepository.insertAll(anyList())).thenReturn(Flux.fromIterable(pedidoInput.getDetalles()));
+        when(outboxRepository.save(any(OutboxStock.class))).thenAnswer(invocacion -> Mono.just(invocacion.getArgument(0)));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(pedidoInput, "ana", "clave-2"))
+                .expectNextMatches(pedido -> pedido.getId().equals(123L))
+                .verifyComplete();
+
+        verify(idempotenciaRepository, times(1)).insertar("ana", "clave-2", PedidoServiceImpl.huella(pedidoInput), 123L);
+        verify(transactionManager, times(1)).commit(transaccion);
+    }
+
+    @Test
+    void testCreatePedido_Idempotente_ClaveGanadaPorOtraInstancia_RollbackYRepite() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedidoInput = pedidoDeUnaLinea();
+        Pedido pedidoGuardado = new Pedido();
+        pedidoGuardado.setId(124L);
+        pedidoGuardado.setDetalles(pedidoInput.getDetalles());
+        Pedido pedidoGanador = new Pedido();
+        pedidoGanador.setId(123L);
+
+        // Al empezar la clave no existe; cuando el INSERT choca, ya la guardó el otro pedido (123)
+        when(idempotenciaRepository.findBySujetoAndClave("ana", "clave-3"))
+                .thenReturn(Mono.empty(), Mono.just(claveGuardada("clave-3", pedidoInput, 123L)));
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, productoConStock(10))));
+        when(pedidoRepository.save(any(Pedido.class))).thenReturn(Mono.just(pedidoGuardado));
+        when(idempotenciaRepository.insertar(eq("ana"), eq("clave-3"), anyString(), eq(124L))).thenReturn(Mono.just(0));
+        when(pedidoRepository.findById(123L)).thenReturn(Mono.just(pedidoGanador));
+        when(detallePedidoRepository.findByPedidoId(123L)).thenReturn(Flux.empty());
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(pedidoInput, "ana", "clave-3"))
+                .expectNextMatches(pedido -> pedido.getId().equals(123L))
+                .verifyComplete();
+
+        // Nuestro intento se deshizo antes de insertar detalles o la reserva
+        verify(transactionManager, times(1)).rollback(transaccion);
+        verify(detallePedidoRepository, never()).insertAll(anyList());
+        verify(outboxRepository, never()).save(any(OutboxStock.class));
+    }
+
+    @Test
+    void testCreatePedido_Idempotente_DuplicadosSimultaneosCompartenLaCreacion() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedidoInput = pedidoDeUnaLinea();
+        Pedido pedidoGuardado = new Pedido();
+        pedidoGuardado.setId(123L);
+        pedidoGuardado.setDetalles(pedidoInput.getDetalles());
+
+        when(idempotenciaRepository.findBySujetoAndClave("ana", "clave-4")).thenReturn(Mono.empty());
+        // La validación tarda: el duplicado llega mientras la primera sigue en curso
+        when(productoClient.obtenerProductos(List.of(1L)))
+                .thenReturn(Mono.delay(Duration.ofMillis(100)).thenReturn(Map.of(1L, productoConStock(10))));
+        when(pedidoRepository.save(any(Pedido.class))).thenReturn(Mono.just(pedidoGuardado));
+        when(idempotenciaRepository.insertar(eq("ana"), eq("clave-4"), anyString(), eq(123L))).thenReturn(Mono.just(1));
+        when(detallePedidoRepository.insertAll(anyList())).thenReturn(Flux.fromIterable(pedidoInput.getDetalles()));
+        when(outboxRepository.save(any(OutboxStock.class))).thenAnswer(invocacion -> Mono.just(invocacion.getArgument(0)));
+
+        // --- 2. Ejecución (Act) ---
+        Mono<Pedido> primero = pedidoService.createPedido(pedidoInput, "ana", "clave-4");
+        Mono<Pedido> duplicado = pedidoService.createPedido(pedidoInput, "ana", "clave-4");
+
+        // --- 3. Verificación (Assert) ---
+        StepVerifier.create(Mono.zip(primero, duplicado))
+                .expectNextMatches(par -> par.getT1().getId().equals(123L) && par.getT2().getId().equals(123L))
+                .verifyComplete();
+
+        // Una sola validación, un solo pedido y una sola reserva de stock
+        verify(productoClient, times(1)).obtenerProductos(List.of(1L));
+        verify(pedidoRepository, times(1)).save(any(Pedido.class));
+        verify(outboxRepository, times(1)).save(any(OutboxStock.class));
+    }
+
+    @Test
+    void testCreatePedido_Idempotente_MismaClaveOtroCuerpo_Error() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido primero = pedidoDeUnaLinea();
+        Pedido otroCuerpo = pedidoDeUnaLinea();
+        otroCuerpo.getDetalles().get(0).setCantidad(5);
+
+        // La clave ya la usó ana, con el cuerpo del primer pedido
+        when(idempotenciaRepository.findBySujetoAndClave("ana", "clave-5"))
+                .thenReturn(Mono.just(claveGuardada("clave-5", primero, 123L)));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(otroCuerpo, "ana", "clave-5"))
+                .expectError(ClaveIdempotenciaReutilizadaException.class)
+                .verify();
+
+        // No devuelve el pedido 123 ni crea otro
+        verify(pedidoRepository, never()).findById(anyLong());
+        verify(pedidoRepository, never()).save(any(Pedido.class));
+    }
+
+    @Test
+    void testCreatePedido_Idempotente_MismaClaveOtroUsuario_CreaSuPropioPedido() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedidoInput = pedidoDeUnaLinea();
+        Pedido pedidoGuardado = new Pedido();
+        pedidoGuardado.setId(125L);
+        pedidoGuardado.setDetalles(pedidoInput.getDetalles());
+
+        // "clave-6" es de ana; para beto todavía no existe
+        when(idempotenciaRepository.findBySujetoAndClave("beto", "clave-6")).thenReturn(Mono.empty());
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, productoConStock(10))));
+        when(pedidoRepository.save(any(Pedido.class))).thenReturn(Mono.just(pedidoGuardado));
+        when(idempotenciaRepository.insertar(eq("beto"), eq("clave-6"), anyString(), eq(125L))).thenReturn(Mono.just(1));
+        when(detallePedidoRepository.insertAll(anyList())).thenReturn(Flux.fromIterable(pedidoInput.getDetalles()));
+        when(outboxRepository.save(any(OutboxStock.class))).thenAnswer(invocacion -> Mono.just(invocacion.getArgument(0)));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.createPedido(pedidoInput, "beto", "clave-6"))
+                .expectNextMatches(pedido -> pedido.getId().equals(125L))
+                .verifyComplete();
+
+        verify(idempotenciaRepository, never()).findBySujetoAndClave(eq("ana"), anyString());
+    }
+
+    @Test
+    void testAceptarPedido_GuardaPendienteSinValidar() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido pedidoInput = pedidoDeUnaLinea();
+        pedidoInput.getDetalles().get(0).setPrecioUnitario(new BigDecimal("1.00")); // Precio del cliente: se ignora
+        pedidoInput.setTotal(new BigDecimal("2.00"));
+
+        when(pedidoRepository.save(any(Pedido.class))).thenAnswer(invocacion -> {
+            Pedido guardado = invocacion.getArgument(0);
+            guardado.setId(50L);
+            return Mono.just(guardado);
+        });
+        when(detallePedidoRepository.insertAll(anyList())).thenAnswer(invocacion -> Flux.fromIterable(invocacion.getArgument(0)));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.aceptarPedido(pedidoInput, "ana", null))
+                .expectNextMatches(pedido -> pedido.getId().equals(50L)
+                        && EstadoPedido.PENDIENTE == pedido.getEstado()
+                        && pedido.getTotal() == null
+                        && pedido.getDetalles().get(0).getPrecioUnitario() == null
+                        && pedido.getDetalles().get(0).getPedidoId().equals(50L))
+                .verifyComplete();
+
+        // Ni ms-productos ni la reserva: eso lo hace el worker
+        verify(productoClient, never()).obtenerProductos(anyCollection());
+        verify(outboxRepository, never()).save(any(OutboxStock.class));
+        // Sin precios todavía: sólo cuenta en el resumen por estado
+        verify(resumenRepository, times(1)).sumar(List.of(50L), false);
+    }
+
+    @Test
+    void testProcesarPedidoAceptado_PreciosReservaYProcesado() {
+        // --- 1. Preparación (Arrange) ---
+        Pedido aceptado = pedidoAceptado(60L);
+        when(pedidoRepository.findById(60L)).thenReturn(Mono.just(aceptado));
+        when(detallePedidoRepository.findByPedidoId(60L)).thenReturn(Flux.fromIterable(aceptado.getDetalles()));
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, productoConStock(10))));
+        when(pedidoRepository.completarAceptado(60L, new BigDecimal("200.00"))).thenReturn(Mono.just(1));
+        when(detallePedidoRepository.actualizarPrecios(60L, Map.of(1L, new BigDecimal("100.00")))).thenReturn(Mono.just(1));
+        when(outboxRepository.save(any(OutboxStock.class))).thenAnswer(invocacion -> Mono.just(invocacion.getArgument(0)));
+
+        // --- 2. Ejecución (Act) y 3. Verificación (Assert) ---
+        StepVerifier.create(pedidoService.procesarPedidoAceptado(60L))
+                .expectNextMatches(pedido -> EstadoPedido.PROCESADO == pedido.getEstado() && new BigDecimal("200.00").equals(pedido.getTotal()))
+                .verifyComplete();
+
+        verify(outboxRepository, times(1)).save(argThat(fila -> fila.getPedidoId().equals(60L) && fila.getItems().equals("1:2")));
+        // Con los precios puestos entra en las ventas del resumen
+        verify(resumenRepository, times(1)).recalcular(eq(List.of(60L)), eq(true), any());
+        verify(transactionManager, times(1)).commit(transaccion);
+    }
+
+    @Test
+    void testProcesarPedidoAceptado_StockInsuficiente_Cancela() {
+        Pedido aceptado = pedidoAceptado(61L);
+        when(pedidoRepository.findById(61L)).thenReturn(Mono.just(aceptado));
+        when(detallePedidoRepository.findByPedidoId(61L)).thenReturn(Flux.fromIterable(aceptado.getDetalles()));
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, productoConStock(1))));
+        when(pedidoRepository.cancelarAceptado(61L)).thenReturn(Mono.just(1));
+
+        StepVerifier.create(pedidoService.procesarPedidoAceptado(61L))
+                .expectNextMatches(pedido -> EstadoPedido.CANCELADO == pedido.getEstado())
+                .verifyComplete();
+
+        verify(pedidoRepository, never()).completarAceptado(anyLong(), any());
+        verify(outboxRepository, never()).save(any(OutboxStock.class));
+        // Nunca tuvo precios: sólo se mueve en el resumen por estado
+        verify(resumenRepository, times(1)).recalcular(eq(List.of(61L)), eq(false), any());
+    }
+
+    @Test
+    void testProcesarPedidoAceptado_ErrorTransitorio_SiguePendiente() {
+        Pedido aceptado = pedidoAceptado(62L);
+        when(pedidoRepository.findById(62L)).thenReturn(Mono.just(aceptado));
+        when(detallePedidoRepository.findByPedidoId(62L)).thenReturn(Flux.fromIterable(aceptado.getDetalles()));
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.error(new RuntimeException("ms-productos caído")));
+
+        // El error sale hacia el worker; el pedido no se cancela (lo retoma el reencolado)
+        StepVerifier.create(pedidoService.procesarPedidoAceptado(62L))
+                .expectErrorMessage("ms-productos caído")
+                .verify();
+
+        verify(pedidoRepository, never()).cancelarAceptado(anyLong());
+    }
+
+    @Test
+    void testProcesarPedidoAceptado_YaProcesadoPorOtro_NoReservaDeNuevo() {
+        Pedido aceptado = pedidoAceptado(63L);
+        when(pedidoRepository.findById(63L)).thenReturn(Mono.just(aceptado));
+        when(detallePedidoRepository.findByPedidoId(63L)).thenReturn(Flux.fromIterable(aceptado.getDetalles()));
+        when(productoClient.obtenerProductos(List.of(1L))).thenReturn(Mono.just(Map.of(1L, productoConStock(10))));
+        when(pedidoRepository.completarAceptado(63L, new BigDecimal("200.00"))).thenReturn(Mono.just(0)); // Lo ganó otra instancia
+
+        StepVerifier.create(pedidoService.procesarPedidoAceptado(63L)).verifyComplete();
+
+        verify(detallePedidoRepository, never()).actualizarPrecios(anyLong(), anyMap());
+        verify(outboxRepository, never()).save(any(OutboxStock.class));
+    }
+
+    @Test
+    void testCancelarAceptadoVencido_CancelaSinLlamarAProductos() {
+        Pedido aceptado = pedidoAceptado(64L);
+        when(pedidoRepository.findById(64L)).thenReturn(Mono.just(aceptado));
+        when(detallePedidoRepository.findByPedidoId(64L)).thenReturn(Flux.fromIterable(aceptado.getDetalles()));
+        when(pedidoRepository.cancelarAceptado(64L)).thenReturn(Mono.just(1));
+
+        StepVerifier.create(pedidoService.cancelarAceptadoVencido(64L))
+                .expectNextMatches(pedido -> EstadoPedido.CANCELADO == pedido.getEstado())
+                .verifyComplete();
+
+        verifyNoInteractions(productoClient);
+        verify(resumenRepository, times(1)).recalcular(eq(List.of(64L)), eq(false), any());
+    }
+
+    // Fila de idempotencia_pedidos: la clave de ana ya creó pedidoId con el cuerpo de pedido
+    private static IdempotenciaPedido claveGuardada(String clave, Pedido pedido, Long pedidoId) {
+        return new IdempotenciaPedido("ana", clave, PedidoServiceImpl.huella(pedido), pedidoId, LocalDateTime.now());
+    }
+
+    // Pedido guardado con ?async=true: PENDIENTE, sin total ni precios
+    private static Pedido pedidoAceptado(Long id) {
+        Pedido pedido = pedidoDeUnaLinea();
+        pedido.setId(id);
+        pedido.setEstado(EstadoPedido.PENDIENTE);
+        pedido.getDetalles().get(0).setPedidoId(id);
+        return pedido;
+    }
+
+    private static Pedido pedidoDeUnaLinea() {
+        Pedido pedido = new Pedido();
+        pedido.setDetalles(new ArrayList<>(List.of(new DetallePedido(null, null, 1L, 2, null))));
+        return pedido;
+    }
+
+    private static ProductoDTO productoConStock(int stock) {
+        ProductoDTO producto = new ProductoDTO();
+        producto.setId(1L);
+        producto.setNombre("Teclado");
+        producto.setPrecio(new BigDecimal("100.00"));
+        producto.setStock(stock);
+        return producto;
+    }
+}
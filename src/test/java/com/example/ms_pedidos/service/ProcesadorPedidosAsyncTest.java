@@ -0,0 +1,182 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.config.PedidosAsyncProperties;
+import com.example.ms_pedidos.config.TokenContextWebFilter;
+import com.example.ms_pedidos.model.EstadoPedido;
+import com.example.ms_pedidos.model.Pedido;
+import com.example.ms_pedidos.repository.PedidoRepository;
+
+// Imports de Pruebas
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProcesadorPedidosAsyncTest {
+
+    @Mock
+    private PedidoService service;
+
+    @Mock
+    private PedidoRepository pedidoRepository;
+
+    private final PedidosAsyncProperties properties = new PedidosAsyncProperties();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private ProcesadorPedidosAsync procesador;
+
+    @BeforeEach
+    void setUp() {
+        properties.setWorkers(1);
+        properties.setCapacidad(1);
+        ReflectionTestUtils.setField(procesador, "properties", properties);
+        ReflectionTestUtils.setField(procesador, "meterRegistry", meterRegistry);
+        procesador.iniciar();
+    }
+
+    @AfterEach
+    void tearDown() {
+        procesador.detener();
+    }
+
+    @Test
+    void encolar_ProcesaConElTokenDeLaPeticion() {
+        // --- 1. Preparación (Arrange) ---
+        AtomicReference<String> tokenDelWorker = new AtomicReference<>();
+        when(service.procesarPedidoAceptado(1L)).thenReturn(Mono.deferContextual(contexto -> {
+            tokenDelWorker.set(contexto.get(TokenContextWebFilter.AUTHORIZATION));
+            return Mono.just(aceptado(1L));
+        }));
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(procesador.encolar(aceptado(1L))
+                        .contextWrite(contexto -> contexto.put(TokenContextWebFilter.AUTHORIZATION, "Bearer abc")))
+                .verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        verify(service, timeout(1000)).procesarPedidoAceptado(1L);
+        assertEquals("Bearer abc", tokenDelWorker.get());
+        assertEquals(1L, meterRegistry.get("pedidos.async.espera").timer().count());
+    }
+
+    @Test
+    void encolar_PedidoYaProcesado_NoSeEncola() {
+        Pedido procesado = aceptado(2L);
+        procesado.setEstado(EstadoPedido.PROCESADO);
+        procesado.setTotal(new BigDecimal("10.00"));
+
+        StepVerifier.create(procesador.encolar(procesado)).verifyComplete();
+
+        verifyNoInteractions(service);
+    }
+
+    @Test
+    void encolar_ColaLlena_DesbordaSinBloquear() {
+        // El único worker queda ocupado con el pedido 1
+        Sinks.One<Pedido> enCurso = Sinks.one();
+        when(service.procesarPedidoAceptado(1L)).thenReturn(enCurso.asMono());
+
+        assertTrue(procesador.encolar(1L, null));
+        verify(service, timeout(1000)).procesarPedidoAceptado(1L);
+        assertEquals(1.0, meterRegistry.get("pedidos.async.workers.utilizacion").gauge().value());
+
+        // El 2 ocupa el único lugar de la cola, el 3 ya no entra
+        assertTrue(procesador.encolar(2L, null));
+        assertFalse(procesador.encolar(3L, null));
+        assertEquals(1, procesador.enCola());
+        assertEquals(1.0, meterRegistry.get("pedidos.async.desbordes").counter().count());
+
+        when(service.procesarPedidoAceptado(2L)).thenReturn(Mono.empty());
+        enCurso.tryEmitEmpty();
+        verify(service, timeout(1000)).procesarPedidoAceptado(2L);
+        verify(service, never()).procesarPedidoAceptado(3L);
+    }
+
+    @Test
+    void reencolar_RetomaLosAceptadosViejos() {
+        properties.setReencolarTras(Duration.ofMinutes(1));
+        // Ninguno vencido; el 5 lleva más de un minuto sin procesar
+        when(pedidoRepository.findIdsAceptadosSinProcesar(any(LocalDateTime.class), eq(1)))
+                .thenReturn(Flux.empty(), Flux.just(5L));
+        when(service.procesarPedidoAceptado(5L)).thenReturn(Mono.empty());
+
+        StepVerifier.create(procesador.reencolar()).expectNext(1L).verifyComplete();
+
+        verify(service, timeout(1000)).procesarPedidoAceptado(5L);
+        verify(service, never()).cancelarAceptadoVencido(anyLong());
+    }
+
+    @Test
+    void reencolar_PedidoTodaviaEnProceso_NoSeEncolaDeNuevo() {
+        // --- 1. Preparación (Arrange) ---
+        properties.setCapacidad(2);
+        properties.setReencolarTras(Duration.ofMinutes(1));
+        // El worker sigue con el 5 (ms-productos lento) cuando pasa el reencolado
+        Sinks.One<Pedido> enCurso = Sinks.one();
+        when(service.procesarPedidoAceptado(5L)).thenReturn(enCurso.asMono(), Mono.empty());
+        assertTrue(procesador.encolar(5L, "Bearer abc"));
+        verify(service, timeout(1000)).procesarPedidoAceptado(5L);
+        when(pedidoRepository.findIdsAceptadosSinProcesar(any(LocalDateTime.class), eq(2)))
+                .thenReturn(Flux.empty(), Flux.just(5L));
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(procesador.reencolar()).expectNext(0L).verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        assertEquals(0, procesador.enCola());
+        // Terminado el primero, ya se puede volver a encolar
+        enCurso.tryEmitEmpty();
+        verify(service, times(1)).procesarPedidoAceptado(5L);
+        assertTrue(procesador.encolar(5L, null));
+        verify(service, timeout(1000).times(2)).procesarPedidoAceptado(5L);
+    }
+
+    @Test
+    void reencolar_AceptadoVencido_SeCancelaYNoSeReencola() {
+        // --- 1. Preparación (Arrange) ---
+        properties.setReencolarTras(Duration.ofMinutes(1));
+        properties.setPlazoMaximo(Duration.ofMinutes(30));
+        Pedido cancelado = aceptado(7L);
+        cancelado.setEstado(EstadoPedido.CANCELADO);
+        // Primera búsqueda: los vencidos (el 7); segunda: los a reencolar (ya no queda ninguno)
+        when(pedidoRepository.findIdsAceptadosSinProcesar(any(LocalDateTime.class), eq(1)))
+                .thenReturn(Flux.just(7L), Flux.empty());
+        when(service.cancelarAceptadoVencido(7L)).thenReturn(Mono.just(cancelado));
+
+        // --- 2. Ejecución (Act) ---
+        StepVerifier.create(procesador.reencolar()).expectNext(0L).verifyComplete();
+
+        // --- 3. Verificación (Assert) ---
+        verify(service).cancelarAceptadoVencido(7L);
+        verify(service, never()).procesarPedidoAceptado(anyLong());
+        assertEquals(1.0, meterRegistry.get("pedidos.async.vencidos").counter().count());
+    }
+
+    private static Pedido aceptado(Long id) {
+        Pedido pedido = new Pedido();
+        pedido.setId(id);
+        pedido.setEstado(EstadoPedido.PENDIENTE);
+        return pedido;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.ms_pedidos.service;
+
+import com.example.ms_pedidos.config.EventosPedidoProperties;
+import com.example.ms_pedidos.dto.EventoPedidoDTO;
+import com.example.ms_pedidos.model.EstadoPedido;
+import com.example.ms_pedidos.model.Pedido;
+
+// Imports de Pruebas
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+// Imports estáticos
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PublicadorEventosPedidoTest {
+
+    private final EventosPedidoProperties properties = new EventosPedidoProperties();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final PublicadorEventosPedido publicador = new PublicadorEventosPedido();
+
+    @BeforeEach
+    void setUp() {
+        properties.setBufferPorSuscriptor(2);
+        ReflectionTestUtils.setField(publicador, "properties", properties);
+        ReflectionTestUtils.setField(publicador, "meterRegistry", meterRegistry);
+        publicador.iniciar();
+        // Ids chicos y previsibles en las pruebas (en marcha arranca en la hora actual)
+        ReflectionTestUtils.setField(publicador, "secuencia", 0L);
+        ReflectionTestUtils.setField(publicador, "inicio", 0L);
+    }
+
+    @Test
+    void iniciar_SecuenciaArrancaDespuesDeLaDelArranqueAnterior() {
+        // --- 1. Preparación (Arrange) ---
+        // Un cliente que vio el evento 1_000 de la corrida anterior
+        long antesDeArrancar = System.currentTimeMillis() * 1000;
+        PublicadorEventosPedido reiniciado = new PublicadorEventosPedido();
+        ReflectionTestUtils.setField(reiniciado, "properties", properties);
+        ReflectionTestUtils.setField(reiniciado, "meterRegistry", meterRegistry);
+
+        // --- 2. Ejecución (Act) ---
+        reiniciado.iniciar();
+
+        // --- 3. Verificación (Assert) ---
+        // Lo que pasó entre el 1_000 y el reinicio se perdió: RESET y después los nuevos
+        StepVerifier.create(reiniciado.eventos(1_000L, null, null))
+                .expectNextMatches(evento -> PublicadorEventosPedido.RESET.equals(evento.getTipo()))
+                .then(() -> reiniciado.creado(pedido(1L, "ana", EstadoPedido.PENDIENTE)))
+                .expectNextMatches(evento -> evento.getId() > antesDeArrancar)
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void eventos_LastEventIdMayorQueLaSecuencia_ResetYDesdeAhora() {
+        publicador.creado(pedido(1L, "ana", EstadoPedido.PENDIENTE));
+
+        // Id que esta instancia todavía no emitió (otra instancia, otra corrida): no se espera hasta alcanzarlo
+        StepVerifier.create(publicador.eventos(99L, null, null).map(evento -> evento.getTipo() + evento.getId()))
+                .expectNext("RESET1")
+                .then(() -> publicador.creado(pedido(2L, "luis", EstadoPedido.PENDIENTE)))
+                .expectNext("CREADO2")
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void eventos_SinLastEventId_SoloLosNuevos() {
+        publicador.creado(pedido(1L, "ana", EstadoPedido.PENDIENTE));
+
+        StepVerifier.create(publicador.eventos(null, null, null))
+                .then(() -> publicador.estadoCambiado(pedido(1L, "ana", EstadoPedido.PROCESADO)))
+                .expectNextMatches(evento -> evento.getId() == 2L
+                        && PublicadorEventosPedido.ESTADO.equals(evento.getTipo())
+                        && EstadoPedido.PROCESADO == evento.getEstado())
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void eventos_ConLastEventId_RetomaDespuesDelUltimoRecibido() {
+        publicador.creado(pedido(1L, "ana", EstadoPedido.PENDIENTE));
+        publicador.creado(pedido(2L, "luis", EstadoPedido.PENDIENTE));
+        publicador.estadoCambiado(pedido(1L, "ana", EstadoPedido.PROCESADO));
+
+        // El cliente ya había visto el evento 1
+        StepVerifier.create(publicador.eventos(1L, null, null).map(EventoPedidoDTO::getId))
+                .expectNext(2L, 3L)
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void eventos_LastEventIdFueraDelHistorial_ResetAntesDeLosNuevos() {
+        // --- 1. Preparación (Arrange) ---
+        properties.setHistorial(2);
+        publicador.iniciar();
+        ReflectionTestUtils.setField(publicador, "secuencia", 0L);
+        ReflectionTestUtils.setField(publicador, "inicio", 0L);
+        for (long id = 1; id <= 5; id++) {
+            publicador.creado(pedido(id, "ana", EstadoPedido.PENDIENTE));
+        }
+
+        // --- 2. Ejecución (Act) ---
+        // El cliente vio el 1; del 2 y el 3 ya no queda nada
+        StepVerifier.create(publicador.eventos(1L, "luis", null).map(evento -> evento.getTipo() + evento.getId()))
+                // --- 3. Verificación (Assert) ---
+                // El RESET sale aunque el filtro no sea de ese cliente; los 4 y 5 no: hay que recargar igual
+                .expectNext("RESET5")
+                .then(() -> publicador.creado(pedido(6L, "luis", EstadoPedido.PENDIENTE)))
+                .expectNext("CREADO6")
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void eventos_FiltraPorClienteYEstado() {
+        publicador.creado(pedido(1L, "ana", EstadoPedido.PENDIENTE));
+        publicador.creado(pedido(2L, "luis", EstadoPedido.PENDIENTE));
+        publicador.estadoCambiado(pedido(1L, "ana", EstadoPedido.CANCELADO));
+
+        StepVerifier.create(publicador.eventos(0L, "ana", EstadoPedido.CANCELADO))
+                .expectNextMatches(evento -> evento.getPedidoId() == 1L && evento.getId() == 3L)
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void eventos_SuscriptorLento_PierdeLosMasViejos() {
+        for (long id = 1; id <= 5; id++) {
+            publicador.creado(pedido(id, "ana", EstadoPedido.PENDIENTE));
+        }
+
+        // Sin demanda hasta que se llenó el buffer (2): quedan sólo los dos últimos
+        StepVerifier.create(publicador.eventos(0L, null, null).map(EventoPedidoDTO::getId), 0)
+                .thenAwait(Duration.ofMillis(50))
+                .thenRequest(2)
+                .expectNext(4L, 5L)
+                .thenCancel()
+                .verify(Duration.ofSeconds(1));
+
+        assertEquals(3.0, meterRegistry.get("pedidos.eventos.descartados").counter().count());
+    }
+
+    private static Pedido pedido(Long id, String cliente, EstadoPedido estado) {
+        Pedido pedido = new Pedido();
+        pedido.setId(id);
+        pedido.setCliente(cliente);
+        pedido.setEstado(estado);
+        return pedido;
+    }
+}